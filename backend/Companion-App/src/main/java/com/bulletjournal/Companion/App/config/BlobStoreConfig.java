@@ -0,0 +1,79 @@
+package com.bulletjournal.Companion.App.config;
+
+import com.bulletjournal.Companion.App.service.BlobStore;
+import com.bulletjournal.Companion.App.service.LocalBlobStore;
+import com.bulletjournal.Companion.App.service.S3BlobStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+
+import java.io.IOException;
+import java.net.URI;
+
+@Configuration
+public class BlobStoreConfig {
+
+	private static final long MB = 1024 * 1024;
+
+	/**
+	 * Uploads and derivatives on local disk, under journal.image.storage-path
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "journal.storage.type", havingValue = "local", matchIfMissing = true)
+	public BlobStore localBlobStore(@Value("${journal.image.storage-path}") String storagePath) {
+		return new LocalBlobStore(storagePath);
+	}
+
+	/**
+	 * Uploads and derivatives in an S3-compatible bucket, shared by all application nodes
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "journal.storage.type", havingValue = "s3")
+	public BlobStore s3BlobStore(
+			@Value("${journal.storage.s3.bucket}") String bucket,
+			@Value("${journal.storage.s3.endpoint:}") String endpoint,
+			@Value("${journal.storage.s3.region:us-east-1}") String region,
+			@Value("${journal.storage.s3.access-key:}") String accessKey,
+			@Value("${journal.storage.s3.secret-key:}") String secretKey,
+			@Value("${journal.storage.s3.path-style-access:false}") boolean pathStyleAccess,
+			@Value("${journal.storage.s3.multipart-threshold-mb:16}") long multipartThresholdMb,
+			@Value("${journal.storage.s3.part-size-mb:8}") long partSizeMb,
+			@Value("${journal.storage.s3.cache-path:./uploads/blob-cache}") String cachePath,
+			@Value("${journal.storage.s3.cache-max-size-mb:1024}") long cacheMaxSizeMb,
+			MeterRegistry meterRegistry) throws IOException {
+		S3AsyncClient client = s3Client(endpoint, region, accessKey, secretKey, pathStyleAccess, multipartThresholdMb, partSizeMb);
+		return new S3BlobStore(client, bucket, cachePath, cacheMaxSizeMb, meterRegistry);
+	}
+
+	/**
+	 * Client with multipart uploads above the threshold; an empty endpoint means AWS itself
+	 */
+	public static S3AsyncClient s3Client(String endpoint, String region, String accessKey, String secretKey,
+			boolean pathStyleAccess, long multipartThresholdMb, long partSizeMb) {
+		S3AsyncClientBuilder builder = S3AsyncClient.builder()
+				.region(Region.of(region))
+				.forcePathStyle(pathStyleAccess)
+				.multipartEnabled(true)
+				.multipartConfiguration(MultipartConfiguration.builder()
+						.thresholdInBytes(multipartThresholdMb * MB)
+						.minimumPartSizeInBytes(Math.max(5, partSizeMb) * MB) // S3 rejects parts below 5 MB
+						.build());
+		if (!endpoint.isBlank()) {
+			builder.endpointOverride(URI.create(endpoint));
+		}
+		// Without keys, the usual AWS chain applies (environment, profile, instance role)
+		builder.credentialsProvider(accessKey.isBlank()
+				? DefaultCredentialsProvider.create()
+				: StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+		return builder.build();
+	}
+}
@@ -0,0 +1,52 @@
+package com.bulletjournal.Companion.App.config;
+
+import com.bulletjournal.Companion.App.service.OcrHealthMonitor;
+import com.bulletjournal.Companion.App.service.OcrWarmup;
+import com.bulletjournal.Companion.App.service.SyntheticOcrEngine;
+import com.bulletjournal.Companion.App.service.TesseractEnginePool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class OcrConfig {
+
+	/**
+	 * Runs the page segmentation mode candidates of a page concurrently.
+	 * Each candidate borrows its own engine, so more threads than engines would only wait on the pool.
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor ocrCandidateExecutor(
+			@Value("${ocr.psm.parallelism:0}") int parallelism,
+			TesseractEnginePool enginePool) {
+		int threads = parallelism > 0 ? parallelism : enginePool.getSize();
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setThreadNamePrefix("ocr-candidate-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(30);
+		return executor;
+	}
+
+	/**
+	 * Exposes the cached OCR probe result as the "ocr" component of /actuator/health
+	 */
+	@Bean
+	@Profile("!" + SyntheticOcrEngine.PROFILE)
+	public HealthIndicator ocrHealthIndicator(OcrHealthMonitor ocrHealthMonitor) {
+		return ocrHealthMonitor::health;
+	}
+
+	/**
+	 * Exposes the startup warm-up as the "ocrWarmup" component, which the readiness group includes
+	 */
+	@Bean
+	@Profile("!" + SyntheticOcrEngine.PROFILE)
+	public HealthIndicator ocrWarmupHealthIndicator(OcrWarmup ocrWarmup) {
+		return ocrWarmup::health;
+	}
+}
@@ -0,0 +1,49 @@
+package com.bulletjournal.Companion.App.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@EnableScheduling
+public class ScanJobConfig {
+
+	/**
+	 * Worker pool that runs OCR and content extraction for queued scan pages,
+	 * so servlet threads only store the uploads and return
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor scanJobExecutor(
+			@Value("${scan.jobs.worker-threads:0}") int workerThreads,
+			@Value("${scan.jobs.queue-capacity:500}") int queueCapacity) {
+		int threads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("scan-worker-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(60);
+		return executor;
+	}
+
+	/**
+	 * Small pool that renders page thumbnails and previews next to the scan workers,
+	 * so galleries have them without waiting for OCR
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor derivativeExecutor(
+			@Value("${journal.derivatives.threads:2}") int threads,
+			@Value("${scan.jobs.queue-capacity:500}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(Math.max(1, threads));
+		executor.setMaxPoolSize(Math.max(1, threads));
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("derivative-worker-");
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(60);
+		return executor;
+	}
+}
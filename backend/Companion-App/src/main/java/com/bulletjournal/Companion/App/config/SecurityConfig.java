@@ -57,6 +57,8 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers(
                                "/api/users/auth/**", // Allow only auth endpoints without token
+                                "/actuator/health", // Load balancer / orchestrator probes
+                                "/actuator/health/**",
                                 //TODO:: Swagger
                                 "/swagger-ui/**",
                                 "/swagger-ui.html",
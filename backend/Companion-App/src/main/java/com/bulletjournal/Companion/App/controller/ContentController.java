@@ -3,7 +3,6 @@ package com.bulletjournal.Companion.App.controller;
 import com.bulletjournal.Companion.App.dto.SearchResponse;
 import com.bulletjournal.Companion.App.model.*;
 import com.bulletjournal.Companion.App.repository.*;
-import com.bulletjournal.Companion.App.service.ContentExtractionService;
 import com.bulletjournal.Companion.App.service.JournalPageService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -29,7 +28,6 @@ public class ContentController {
 	private final NoteRepository noteRepository;
 	private final EmotionRepository emotionRepository;
 	private final JournalPageService journalPageService;
-	private final ContentExtractionService contentExtractionService;
 
 	@GetMapping("/tasks")
 	@Operation(summary = "Get all tasks", description = "Retrieve all tasks for the current user")
@@ -100,32 +98,15 @@ public class ContentController {
 
 	@PostMapping("/pages/{pageId}/re-extract")
 	@Operation(summary = "Re-extract content from page", 
-			   description = "Re-run content extraction on a previously scanned page (useful for updates)")
+			   description = "Re-run content extraction on a previously scanned page from its stored OCR word layout, " +
+					   "without OCR'ing the image again (useful for updates)")
 	public ResponseEntity<String> reExtractContent(
 			@AuthenticationPrincipal User user,
 			@PathVariable Long pageId) {
 		try {
-			// Get the journal page
-			com.bulletjournal.Companion.App.model.JournalPage journalPage = 
-					journalPageService.getJournalPageById(pageId, user.getId());
-			
-			if (journalPage.getExtractedText() == null || journalPage.getExtractedText().isEmpty()) {
-				return ResponseEntity.badRequest()
-						.body("No extracted text found for this page. Please scan the page first.");
-			}
-
-			// Re-extract content
-			ContentExtractionService.ExtractionResult result = 
-					contentExtractionService.extractAndSaveContent(
-							journalPage.getExtractedText(), journalPage, user);
-
-			return ResponseEntity.ok(String.format(
-					"Content re-extracted successfully. Found: %d tasks, %d events, %d notes, %d emotions",
-					result.getTasksCount(), result.getEventsCount(), 
-					result.getNotesCount(), result.getEmotionsCount()));
+			return ResponseEntity.ok(journalPageService.reextractPage(pageId, user.getId()).getMessage());
 		} catch (RuntimeException e) {
 			return ResponseEntity.badRequest().body(e.getMessage());
 		}
 	}
 }
-
@@ -3,23 +3,37 @@ package com.bulletjournal.Companion.App.controller;
 import com.bulletjournal.Companion.App.dto.ExtractedDataResponse;
 import com.bulletjournal.Companion.App.dto.*;
 import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.service.FileDeliveryService;
+import com.bulletjournal.Companion.App.service.FileStorageService;
 import com.bulletjournal.Companion.App.service.JournalEntryService;
 import com.bulletjournal.Companion.App.service.JournalPageService;
+import com.bulletjournal.Companion.App.service.PageDerivativeService;
+import com.bulletjournal.Companion.App.service.ScanJobService;
 import com.bulletjournal.Companion.App.service.SearchService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/journal")
@@ -28,16 +42,23 @@ import java.util.List;
 @SecurityRequirement(name = "Bearer Authentication")
 public class JournalController {
 
+	private static final Duration STORED_FILE_MAX_AGE = Duration.ofDays(365);
+	private static final int DERIVATIVE_RETRY_AFTER_SECONDS = 2; // Until a derivative being generated is asked for again
+
 	private final JournalPageService journalPageService;
+	private final ScanJobService scanJobService;
 	private final SearchService searchService;
 	private final JournalEntryService journalEntryService;
+	private final FileDeliveryService fileDeliveryService;
 
 	@PostMapping(value = "/scan", consumes = "multipart/form-data")
 	@Operation(
 		summary = "Scan journal page(s)", 
 		description = "Upload and scan one or more handwritten journal page images. " +
-				"Each image will be processed using OCR to extract text, and then automatically " +
-				"detect tasks (•, X, /), events (O, ⦿), notes, and emotions. " +
+				"The images are stored immediately and queued for processing; the response is **202 Accepted** " +
+				"with a job ID. Each image will then be processed using OCR to extract text, and " +
+				"tasks (•, X, /), events (O, ⦿), notes, and emotions are detected automatically. " +
+				"Poll `/api/journal/scan/jobs/{jobId}` for per-page progress and results. " +
 				"**To upload multiple images:** In Swagger UI, click 'Choose File' and select multiple files " +
 				"by holding Ctrl (Windows) or Cmd (Mac) while clicking. " +
 				"**Requires authentication token in header.**"
@@ -50,23 +71,64 @@ public class JournalController {
 			schema = @Schema(implementation = ScanRequest.class)
 		)
 	)
-	public ResponseEntity<List<ScanResponse>> scanPage(
+	public ResponseEntity<ScanJobResponse> scanPage(
 			@AuthenticationPrincipal User user,
 			@Valid @ModelAttribute ScanRequest request) {
 		try {
 			// Get userId from authenticated user (from token)
-			List<ScanResponse> responses = journalPageService.scanAndSavePage(user.getId(), request);
-			return ResponseEntity.status(HttpStatus.CREATED).body(responses);
-		} catch (IOException e) {
-			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-					.body(List.of(ScanResponse.builder()
-							.message("Error saving file: " + e.getMessage())
-							.build()));
+			ScanJobResponse job = scanJobService.submit(user.getId(), request);
+			return ResponseEntity.accepted()
+					.location(URI.create(job.getStatusUrl()))
+					.body(job);
 		} catch (IllegalArgumentException e) {
 			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-					.body(List.of(ScanResponse.builder()
+					.body(ScanJobResponse.builder()
+							.message(e.getMessage())
+							.build());
+		} catch (TaskRejectedException e) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.body(ScanJobResponse.builder()
 							.message(e.getMessage())
-							.build()));
+							.build());
+		}
+	}
+
+	@GetMapping("/scan/jobs")
+	@Operation(
+		summary = "Get scan jobs", 
+		description = "List the authenticated user's active and recently finished scan jobs. **Requires authentication token in header.**"
+	)
+	public ResponseEntity<List<ScanJobResponse>> getScanJobs(@AuthenticationPrincipal User user) {
+		return ResponseEntity.ok(scanJobService.getUserJobs(user.getId()));
+	}
+
+	@GetMapping("/scan/queue")
+	@Operation(
+		summary = "Get scan queue depth", 
+		description = "Number of the authenticated user's pages waiting for and being processed by the scan workers, " +
+				"along with the overall queue. Workers are shared fairly between users, so a large upload drains " +
+				"in the background without holding up other scans. **Requires authentication token in header.**"
+	)
+	public ResponseEntity<ScanQueueResponse> getScanQueue(@AuthenticationPrincipal User user) {
+		return ResponseEntity.ok(scanJobService.getQueue(user.getId()));
+	}
+
+	@GetMapping("/scan/jobs/{jobId}")
+	@Operation(
+		summary = "Get scan job status", 
+		description = "Retrieve the status of a scan job, including per-page progress and the scan result of each processed page. **Requires authentication token in header.**"
+	)
+	public ResponseEntity<ScanJobResponse> getScanJob(
+			@AuthenticationPrincipal User user,
+			@PathVariable String jobId) {
+		try {
+			return ResponseEntity.ok(scanJobService.getJob(jobId, user.getId()));
+		} catch (RuntimeException e) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND)
+					.body(ScanJobResponse.builder()
+							.jobId(jobId)
+							.message(e.getMessage())
+							.build());
 		}
 	}
 
@@ -99,6 +161,88 @@ public class JournalController {
 		}
 	}
 
+	@GetMapping("/pages/{pageId}/image")
+	@Operation(
+		summary = "Get journal page image", 
+		description = "The uploaded image (or PDF) of a scanned page. Supports single byte ranges (`Range`, `If-Range`) " +
+				"and `If-None-Match` against the ETag, which is the SHA-256 of the content. " +
+				"**Requires authentication token in header.**"
+	)
+	public void getPageImage(
+			@AuthenticationPrincipal User user,
+			@PathVariable Long pageId,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		Path file;
+		try {
+			file = journalPageService.getImage(pageId, user.getId());
+		} catch (RuntimeException e) {
+			response.sendError(HttpStatus.NOT_FOUND.value(), e.getMessage());
+			return;
+		}
+		// A page's image never changes, so the URL may be cached for good
+		String hash = FileStorageService.contentHash(file);
+		String etag = hash != null
+				? "\"" + hash + "\""
+				: "W/\"" + Files.size(file) + "-" + Files.getLastModifiedTime(file).toMillis() + "\"";
+		fileDeliveryService.send(request, response, file, etag, CacheControl.maxAge(STORED_FILE_MAX_AGE).cachePrivate());
+	}
+
+	@GetMapping("/pages/{pageId}/thumbnail")
+	@Operation(
+		summary = "Get journal page thumbnail", 
+		description = "Small JPEG of a scanned page for page listings. Use the versioned `thumbnailUrl` of the page, " +
+				"which may be cached indefinitely. Answers 202 with Retry-After while a missing one is being generated. " +
+				"**Requires authentication token in header.**"
+	)
+	public void getPageThumbnail(
+			@AuthenticationPrincipal User user,
+			@PathVariable Long pageId,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		derivative(user, pageId, PageDerivativeService.Kind.THUMBNAIL, request, response);
+	}
+
+	@GetMapping("/pages/{pageId}/preview")
+	@Operation(
+		summary = "Get journal page preview", 
+		description = "Mid-size JPEG of a scanned page for viewing it. Use the versioned `previewUrl` of the page, " +
+				"which may be cached indefinitely. Answers 202 with Retry-After while a missing one is being generated. " +
+				"**Requires authentication token in header.**"
+	)
+	public void getPagePreview(
+			@AuthenticationPrincipal User user,
+			@PathVariable Long pageId,
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		derivative(user, pageId, PageDerivativeService.Kind.PREVIEW, request, response);
+	}
+
+	/**
+	 * Serve a page derivative. Its content hash is the ETag and part of the page's URL for it, so
+	 * browsers may keep it for a year without revalidating. While a missing derivative is being
+	 * generated the answer is 202 with Retry-After.
+	 */
+	private void derivative(User user, Long pageId, PageDerivativeService.Kind kind,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Optional<Path> derivative;
+		try {
+			derivative = journalPageService.getDerivative(pageId, user.getId(), kind);
+		} catch (RuntimeException e) {
+			response.sendError(HttpStatus.NOT_FOUND.value(), e.getMessage());
+			return;
+		}
+		if (derivative.isEmpty()) {
+			response.setStatus(HttpStatus.ACCEPTED.value());
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(DERIVATIVE_RETRY_AFTER_SECONDS));
+			response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+			return;
+		}
+		Path file = derivative.get();
+		String etag = "\"" + PageDerivativeService.hashOf(file.getFileName().toString()) + "\"";
+		fileDeliveryService.send(request, response, file, etag, CacheControl.maxAge(STORED_FILE_MAX_AGE).cachePrivate().immutable());
+	}
+
 	@GetMapping("/search")
 	@Operation(
 		summary = "Search journal entries", 
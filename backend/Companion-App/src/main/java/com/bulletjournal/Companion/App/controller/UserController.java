@@ -1,6 +1,7 @@
 package com.bulletjournal.Companion.App.controller;
 
 import com.bulletjournal.Companion.App.dto.EmailRequest;
+import com.bulletjournal.Companion.App.dto.OcrLanguageRequest;
 import com.bulletjournal.Companion.App.dto.OriginalPasswordResponse;
 import com.bulletjournal.Companion.App.dto.PasswordResponse;
 import com.bulletjournal.Companion.App.dto.UserResponse;
@@ -32,6 +33,13 @@ public class UserController {
 		return ResponseEntity.ok(response);
 	}
 
+	@PutMapping("/currentUser/ocrLanguage")
+	@Operation(summary = "Set OCR language", description = "Set the default OCR language(s) for the current user's scans, e.g. \"eng+deu\". Scan requests may still override it.")
+	public ResponseEntity<UserResponse> updateOcrLanguage(@AuthenticationPrincipal User user, @RequestBody OcrLanguageRequest request) {
+		UserResponse response = userService.updateOcrLanguage(user.getId(), request.getLanguage());
+		return ResponseEntity.ok(response);
+	}
+
 	@GetMapping("/getUserByActiveTrueId/{id}")
 	@Operation(summary = "Get user by ID", description = "Retrieve user details by user ID")
 	public ResponseEntity<UserResponse> getUserByTrueId(@PathVariable Long id) {
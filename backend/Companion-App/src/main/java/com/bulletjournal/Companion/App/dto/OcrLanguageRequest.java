@@ -0,0 +1,15 @@
+package com.bulletjournal.Companion.App.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Default OCR language(s) for the user's scans")
+public class OcrLanguageRequest {
+	@Schema(description = "Tesseract language codes joined with '+'; empty to fall back to the server default", example = "eng+deu")
+	private String language;
+}
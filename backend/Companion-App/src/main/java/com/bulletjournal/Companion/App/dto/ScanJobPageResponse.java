@@ -0,0 +1,20 @@
+package com.bulletjournal.Companion.App.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScanJobPageResponse {
+
+	private Integer index; // Position of the image in the upload (1-based)
+	private String originalFilename;
+	private Integer pageNumber;
+	private String status; // QUEUED, PROCESSING, COMPLETED, FAILED
+	private String message;
+	private ScanResponse result; // Present once the page has been processed
+}
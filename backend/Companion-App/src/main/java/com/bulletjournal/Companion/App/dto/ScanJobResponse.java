@@ -0,0 +1,27 @@
+package com.bulletjournal.Companion.App.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScanJobResponse {
+
+	private String jobId;
+	private String status; // QUEUED, PROCESSING, COMPLETED, FAILED
+	private Integer totalPages;
+	private Integer completedPages;
+	private Integer failedPages;
+	private LocalDateTime submittedAt;
+	private LocalDateTime completedAt;
+	private String statusUrl;
+	private String message;
+	private List<ScanJobPageResponse> pages;
+}
@@ -0,0 +1,20 @@
+package com.bulletjournal.Companion.App.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScanQueueResponse {
+
+	private Integer queuedPages; // The user's pages waiting for a worker
+	private Integer runningPages; // The user's pages being processed
+	private Integer totalQueuedPages; // Pages of all users waiting for a worker
+	private Integer queuedUsers; // Users with pages waiting
+	private Integer workers;
+	private Integer maxWorkersPerUser;
+}
@@ -14,7 +14,7 @@ public class ScanRequest {
 	
 	@NotNull(message = "Image file is required")
 	@Schema(
-		description = "Journal page image file(s) (JPG, PNG, etc.). " +
+		description = "Journal page image file(s) (JPG, PNG, etc.) or multi-page PDF(s); each PDF page becomes its own journal page. " +
 				"You can select multiple files by holding Ctrl (Windows) or Cmd (Mac) while clicking 'Choose File'.",
 		type = "string",
 		format = "binary",
@@ -23,10 +23,26 @@ public class ScanRequest {
 	private List<MultipartFile> image;
 	
 	@Min(value = 1, message = "Page number must be at least 1")
-	@Schema(description = "Page number (optional, defaults to 1). If multiple images, page numbers will be auto-incremented.", example = "1")
+	@Schema(description = "Page number (optional, defaults to 1). If multiple images or PDF pages, page numbers will be auto-incremented.", example = "1")
 	private Integer pageNumber;
 	
 	@Schema(description = "Thread ID for linking related pages (optional)", example = "2025-12-06")
 	private String threadId; // Optional: for linking related pages
+
+	@Schema(
+		description = "Binarization mode used before OCR (optional, defaults to the server setting). " +
+				"FIXED suits evenly lit scans; OTSU picks a global threshold per page; " +
+				"SAUVOLA and BRADLEY adapt to shadows and uneven lighting.",
+		allowableValues = {"FIXED", "OTSU", "SAUVOLA", "BRADLEY"},
+		example = "SAUVOLA"
+	)
+	private String binarization;
+
+	@Schema(
+		description = "OCR language(s) as Tesseract codes joined with '+' (optional, defaults to the user's " +
+				"OCR language, then the server setting). Every language must be installed on the server.",
+		example = "eng+deu"
+	)
+	private String language;
 }
 
@@ -15,6 +15,8 @@ public class ScanResponse {
 	
 	private Long journalPageId;
 	private String imagePath;
+	private String thumbnailUrl; // Versioned by content hash, cacheable indefinitely; null until generated
+	private String previewUrl;
 	private String originalFilename;
 	private Integer pageNumber;
 	private String threadId;
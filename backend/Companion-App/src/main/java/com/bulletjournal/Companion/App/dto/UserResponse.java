@@ -19,6 +19,7 @@ public class UserResponse {
 	private String lastName;
 	private String phoneNumber;
 	private Boolean enabled;
+	private String ocrLanguage;
 	private LocalDateTime createdAt;
 }
 
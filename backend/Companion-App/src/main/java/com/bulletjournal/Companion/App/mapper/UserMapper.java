@@ -18,6 +18,7 @@ public class UserMapper {
 				.lastName(user.getLastName())
 				.phoneNumber(user.getPhoneNumber())
 				.enabled(user.getEnabled())
+				.ocrLanguage(user.getOcrLanguage())
 				.createdAt(user.getCreatedAt())
 				.build();
 	}
@@ -0,0 +1,47 @@
+package com.bulletjournal.Companion.App.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Manifest entry of a stored upload: which content a user has stored and where it lives in the
+ * sharded layout, so duplicate uploads are found without touching the file system.
+ * Several journal pages may refer to one blob (re-uploads, pages of one PDF).
+ */
+@Entity
+@Table(name = "image_blobs", uniqueConstraints = @UniqueConstraint(columnNames = { "user_id", "sha256" }))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageBlob {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(name = "user_id", nullable = false)
+	private Long userId;
+
+	@Column(nullable = false, length = 64)
+	private String sha256; // Hex SHA-256 of the file content
+
+	@Column(nullable = false)
+	private String relativePath; // "{userId}/{aa}/{bb}/{sha256}.{ext}" below the image storage path
+
+	@Column(nullable = false)
+	private Long sizeBytes;
+
+	@Column(nullable = false, updatable = false)
+	private LocalDateTime createdAt;
+
+	private LocalDateTime lastStoredAt; // Last upload of this content, including ones deduplicated onto it
+
+	@PrePersist
+	protected void onCreate() {
+		createdAt = LocalDateTime.now();
+		lastStoredAt = createdAt;
+	}
+}
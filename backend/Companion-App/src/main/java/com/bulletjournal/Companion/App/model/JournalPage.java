@@ -36,6 +36,15 @@ public class JournalPage {
 	@Builder.Default
 	private Integer pageNumber = 1; // Page number in journal
 
+	@Column(name = "source_page_index")
+	private Integer sourcePageIndex; // 0-based page within a multi-page upload (PDF); null for single images
+
+	@Column(name = "thumbnail_path")
+	private String thumbnailPath; // Small JPEG for page listings, stored next to the image (null until generated)
+
+	@Column(name = "preview_path")
+	private String previewPath; // Mid-size JPEG for viewing the page (null until generated)
+
 	@Column(name = "thread_id")
 	private String threadId; // For linking related pages (optional threading feature)
 
@@ -0,0 +1,43 @@
+package com.bulletjournal.Companion.App.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * OCR word layout of a journal page, stored once at scan time in the compact binary form of
+ * OcrLayout so content can be re-extracted without OCRing the image again.
+ * Kept out of journal_pages so page listings never load it.
+ */
+@Entity
+@Table(name = "journal_page_layouts")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class JournalPageLayout {
+
+	@Id
+	private Long journalPageId;
+
+	@OneToOne(fetch = FetchType.LAZY)
+	@MapsId
+	@JoinColumn(name = "journal_page_id")
+	private JournalPage journalPage;
+
+	@Lob
+	@Column(nullable = false, columnDefinition = "MEDIUMBLOB")
+	private byte[] layout; // Binary OcrLayout
+
+	@Column(nullable = false)
+	private Integer wordCount;
+
+	@Column(nullable = false, updatable = false)
+	private LocalDateTime createdAt;
+
+	@PrePersist
+	protected void onCreate() {
+		createdAt = LocalDateTime.now();
+	}
+}
@@ -0,0 +1,29 @@
+package com.bulletjournal.Companion.App.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A stored file to delete once it is no longer needed, such as an image left under its old path
+ * by the layout migration. Kept in the database so a restart does not leave the file behind.
+ */
+@Entity
+@Table(name = "pending_file_deletes", indexes = @Index(columnList = "delete_at"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PendingFileDelete {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private String relativePath;
+
+	@Column(name = "delete_at", nullable = false)
+	private LocalDateTime deleteAt;
+}
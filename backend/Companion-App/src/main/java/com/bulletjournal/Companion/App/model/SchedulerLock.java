@@ -0,0 +1,32 @@
+package com.bulletjournal.Companion.App.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lease on a scheduled job that must not run on two application nodes at once, such as the passes
+ * over shared storage. One row per job, taken over by whichever node finds it expired.
+ */
+@Entity
+@Table(name = "scheduler_locks")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SchedulerLock {
+
+	@Id
+	@Column(length = 64)
+	private String name;
+
+	@Column(nullable = false)
+	private LocalDateTime lockedUntil;
+
+	@Column(nullable = false)
+	private String lockedBy; // Host and instance of the node holding, or last holding, the lease
+
+	@Column(nullable = false)
+	private LocalDateTime lockedAt;
+}
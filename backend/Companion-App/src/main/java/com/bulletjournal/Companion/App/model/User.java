@@ -61,6 +61,9 @@ public class User implements UserDetails {
     @Column(name = "last_activity_at")
 	private LocalDateTime lastActivityAt; // Track last activity time for online status
 
+	@Column(name = "ocr_language", length = 64)
+	private String ocrLanguage; // Default OCR language(s) for this user's scans, e.g. "eng+deu" (null = server default)
+
 	@PrePersist
 	protected void onCreate() {
 		createdAt = LocalDateTime.now();
@@ -0,0 +1,38 @@
+package com.bulletjournal.Companion.App.repository;
+
+import com.bulletjournal.Companion.App.model.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, Long> {
+
+	Optional<ImageBlob> findByUserIdAndSha256(Long userId, String sha256);
+
+	Optional<ImageBlob> findByRelativePath(String relativePath);
+
+	@Transactional
+	@Modifying
+	@Query("update ImageBlob b set b.lastStoredAt = :storedAt where b.id = :id")
+	int markStored(@Param("id") Long id, @Param("storedAt") LocalDateTime storedAt);
+
+	@Transactional
+	@Modifying
+	@Query("delete from ImageBlob b where b.relativePath = :relativePath")
+	int deleteByRelativePath(@Param("relativePath") String relativePath);
+
+	/**
+	 * Delete the blob's row unless it was stored after the cutoff; 0 if an upload marked it meanwhile
+	 */
+	@Transactional
+	@Modifying
+	@Query("delete from ImageBlob b where b.relativePath = :relativePath and (b.lastStoredAt is null or b.lastStoredAt <= :cutoff)")
+	int deleteIfStoredBefore(@Param("relativePath") String relativePath, @Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,9 @@
+package com.bulletjournal.Companion.App.repository;
+
+import com.bulletjournal.Companion.App.model.JournalPageLayout;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface JournalPageLayoutRepository extends JpaRepository<JournalPageLayout, Long> {
+}
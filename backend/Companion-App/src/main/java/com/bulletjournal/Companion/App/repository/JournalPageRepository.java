@@ -2,8 +2,13 @@ package com.bulletjournal.Companion.App.repository;
 
 import com.bulletjournal.Companion.App.model.JournalPage;
 import com.bulletjournal.Companion.App.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -18,5 +23,33 @@ public interface JournalPageRepository extends JpaRepository<JournalPage, Long>
 	Optional<JournalPage> findByIdAndUserId(Long id, Long userId);
 	
 	List<JournalPage> findByThreadId(String threadId);
+
+	List<JournalPage> findByImagePath(String imagePath);
+
+	boolean existsByImagePath(String imagePath);
+
+	boolean existsByThumbnailPathOrPreviewPath(String thumbnailPath, String previewPath);
+
+	// Image paths in the older flat "{userId}/{name}" layout; the sharded layout has three slashes
+	@Query("select distinct p.imagePath from JournalPage p where p.imagePath not like '%/%/%/%' and p.imagePath like '%/%' order by p.imagePath")
+	List<String> findFlatLayoutImagePaths(Pageable pageable);
+
+	// Image paths below a prefix, e.g. "7/" for everything stored for user 7
+	@Query("select distinct p.imagePath from JournalPage p where p.imagePath like concat(:prefix, '%')")
+	List<String> findImagePathsStartingWith(@Param("prefix") String prefix);
+
+	boolean existsByImagePathStartingWith(String prefix);
+
+	@Transactional
+	@Modifying
+	@Query("update JournalPage p set p.imagePath = :newPath where p.imagePath = :oldPath")
+	int updateImagePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+	// Only touches the derivative columns, so it cannot overwrite a concurrent edit of the page
+	@Transactional
+	@Modifying
+	@Query("update JournalPage p set p.thumbnailPath = :thumbnailPath, p.previewPath = :previewPath where p.id = :id")
+	int updateDerivatives(@Param("id") Long id, @Param("thumbnailPath") String thumbnailPath,
+			@Param("previewPath") String previewPath);
 }
 
@@ -0,0 +1,15 @@
+package com.bulletjournal.Companion.App.repository;
+
+import com.bulletjournal.Companion.App.model.PendingFileDelete;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface PendingFileDeleteRepository extends JpaRepository<PendingFileDelete, Long> {
+
+	List<PendingFileDelete> findByDeleteAtLessThanEqualOrderByDeleteAt(LocalDateTime deleteAt, Pageable pageable);
+}
@@ -0,0 +1,41 @@
+package com.bulletjournal.Companion.App.repository;
+
+import com.bulletjournal.Companion.App.model.SchedulerLock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface SchedulerLockRepository extends JpaRepository<SchedulerLock, String> {
+
+	// Takes over an expired lease; 0 if the lease is held or the row does not exist yet
+	@Transactional
+	@Modifying
+	@Query("update SchedulerLock l set l.lockedUntil = :until, l.lockedBy = :owner, l.lockedAt = :now " +
+			"where l.name = :name and l.lockedUntil <= :now")
+	int acquire(@Param("name") String name, @Param("owner") String owner,
+			@Param("now") LocalDateTime now, @Param("until") LocalDateTime until);
+
+	// A plain insert, so two nodes creating the same lease collide on the primary key instead of merging
+	@Transactional
+	@Modifying
+	@Query(value = "insert into scheduler_locks (name, locked_until, locked_by, locked_at) values (:name, :until, :owner, :now)",
+			nativeQuery = true)
+	int insert(@Param("name") String name, @Param("owner") String owner,
+			@Param("now") LocalDateTime now, @Param("until") LocalDateTime until);
+
+	@Transactional
+	@Modifying
+	@Query("update SchedulerLock l set l.lockedUntil = :until where l.name = :name and l.lockedBy = :owner")
+	int renew(@Param("name") String name, @Param("owner") String owner, @Param("until") LocalDateTime until);
+
+	@Transactional
+	@Modifying
+	@Query("update SchedulerLock l set l.lockedUntil = :now where l.name = :name and l.lockedBy = :owner")
+	int release(@Param("name") String name, @Param("owner") String owner, @Param("now") LocalDateTime now);
+}
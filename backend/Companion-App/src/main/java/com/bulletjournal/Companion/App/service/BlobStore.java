@@ -0,0 +1,75 @@
+package com.bulletjournal.Companion.App.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Where stored files live: uploads, thumbnails and previews, addressed by their relative path
+ * ("{userId}/{aa}/{bb}/{sha256}.{ext}") as recorded on journal pages.
+ * Readers always get a local file, so decoding, hashing and sendfile work the same whatever the
+ * backend; a remote store keeps a local cache of the files it hands out.
+ */
+public interface BlobStore {
+
+	/**
+	 * Empty temporary file to stage a new file in before {@link #put(String, Path)}, on the same file
+	 * system as the store's local files so handing it over is a rename
+	 */
+	Path createTempFile() throws IOException;
+
+	/**
+	 * Store a file under the given key, taking ownership of it (it is moved, not copied).
+	 * An existing file under the key is replaced.
+	 * @return Completes once the file is durably stored
+	 */
+	CompletableFuture<Void> put(String key, Path file);
+
+	/**
+	 * Local copy of a stored file, to be read only
+	 * @throws java.nio.file.NoSuchFileException If nothing is stored under the key
+	 */
+	Path localPath(String key) throws IOException;
+
+	/**
+	 * Whether the file is stored in the backend itself; a locally cached copy does not count
+	 */
+	boolean exists(String key) throws IOException;
+
+	/**
+	 * Make a stored file also available under another key; nothing happens if the target already exists
+	 */
+	void copy(String fromKey, String toKey) throws IOException;
+
+	/**
+	 * @return Whether a file was stored under the key
+	 */
+	boolean delete(String key) throws IOException;
+
+	/**
+	 * Stored files whose key starts with the prefix, in ascending key order (as String.compareTo),
+	 * fetched lazily; the stream must be closed
+	 */
+	Stream<StoredBlob> list(String prefix) throws IOException;
+
+	/**
+	 * A stored file as listed
+	 */
+	class StoredBlob {
+		private final String key;
+		private final long sizeBytes;
+		private final Instant lastModified;
+
+		public StoredBlob(String key, long sizeBytes, Instant lastModified) {
+			this.key = key;
+			this.sizeBytes = sizeBytes;
+			this.lastModified = lastModified;
+		}
+
+		public String getKey() { return key; }
+		public long getSizeBytes() { return sizeBytes; }
+		public Instant getLastModified() { return lastModified; }
+	}
+}
@@ -0,0 +1,105 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.repository.SchedulerLockRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Runs a scheduled job on one application node at a time, through a lease row per job in the
+ * scheduler_locks table. A node that dies while holding a lease blocks the job only until the lease
+ * runs out; a node still working renews it with {@link Lease#keepAlive()}.
+ * Leases compare the nodes' clocks, so they must be far longer than the clock skew between nodes.
+ */
+@Component
+@Slf4j
+public class ClusterLock {
+
+	private final SchedulerLockRepository schedulerLockRepository;
+	private final Duration leaseDuration;
+	private final String owner;
+
+	public ClusterLock(
+			SchedulerLockRepository schedulerLockRepository,
+			@Value("${journal.scheduler.lease-ms:300000}") long leaseMs) {
+		this.schedulerLockRepository = schedulerLockRepository;
+		this.leaseDuration = Duration.ofMillis(leaseMs);
+		this.owner = hostName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	/**
+	 * Take the job's lease unless another node holds it
+	 * @return The lease, to be closed when the run is over; empty if the job is running elsewhere
+	 */
+	public Optional<Lease> tryAcquire(String name) {
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime until = now.plus(leaseDuration);
+		if (schedulerLockRepository.acquire(name, owner, now, until) == 0) {
+			try {
+				schedulerLockRepository.insert(name, owner, now, until);
+			} catch (DataIntegrityViolationException e) {
+				log.debug("Skipping {}: it is running on another node", name);
+				return Optional.empty();
+			}
+		}
+		log.debug("Acquired the {} lease as {}", name, owner);
+		return Optional.of(new Lease(name, until));
+	}
+
+	private static String hostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "unknown-host";
+		}
+	}
+
+	/**
+	 * A held lease; released on close
+	 */
+	public class Lease implements AutoCloseable {
+		private final String name;
+		private LocalDateTime lockedUntil;
+
+		private Lease(String name, LocalDateTime lockedUntil) {
+			this.name = name;
+			this.lockedUntil = lockedUntil;
+		}
+
+		/**
+		 * Renew the lease once half of it has passed; call regularly during a long run
+		 * @return False if the lease was lost to another node, in which case the run must stop
+		 */
+		public boolean keepAlive() {
+			LocalDateTime now = LocalDateTime.now();
+			if (now.isBefore(lockedUntil.minus(leaseDuration.dividedBy(2)))) {
+				return true;
+			}
+			LocalDateTime until = now.plus(leaseDuration);
+			if (schedulerLockRepository.renew(name, owner, until) == 0) {
+				log.warn("Lost the {} lease to another node; stopping this run", name);
+				return false;
+			}
+			lockedUntil = until;
+			return true;
+		}
+
+		@Override
+		public void close() {
+			try {
+				schedulerLockRepository.release(name, owner, LocalDateTime.now());
+			} catch (RuntimeException e) {
+				// The lease then simply runs out
+				log.warn("Failed to release the {} lease: {}", name, e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size accounting and least-recently-used eviction for a directory of cached files, shared by the
+ * blob store's read-through cache and the OCR result cache. A file's modification time doubles as
+ * its LRU timestamp. Once the files grow beyond the limit, the least recently used ones are deleted
+ * down to a target below it, so eviction does not run on every write.
+ */
+@Slf4j
+class DirectoryCache {
+
+	private static final double EVICTION_TARGET = 0.9;
+
+	private final String name;
+	private final Path directory;
+	private final long maxBytes;
+	private final long minEvictionAgeMs;
+	private final Predicate<Path> isEntry;
+	private final Predicate<Path> isPinned;
+	private final AtomicLong sizeBytes = new AtomicLong();
+
+	/**
+	 * @param name What the cache holds, for logging
+	 * @param minEvictionAgeMs Files used more recently than this are never evicted (they may still be being read)
+	 * @param isEntry Which files below the directory are cached entries (not temp or staging files)
+	 * @param isPinned Entries that must not be evicted at the moment
+	 */
+	DirectoryCache(String name, Path directory, long maxBytes, long minEvictionAgeMs,
+			Predicate<Path> isEntry, Predicate<Path> isPinned) {
+		this.name = name;
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.minEvictionAgeMs = minEvictionAgeMs;
+		this.isEntry = isEntry;
+		this.isPinned = isPinned;
+	}
+
+	/**
+	 * Total the entries already on disk, as after a restart
+	 */
+	void recount() throws IOException {
+		Files.createDirectories(directory);
+		sizeBytes.set(listEntries().stream().mapToLong(entry -> entry.size).sum());
+	}
+
+	long sizeBytes() {
+		return sizeBytes.get();
+	}
+
+	/**
+	 * Mark an entry as just used
+	 * @return Whether the entry exists
+	 */
+	boolean touch(Path entry) {
+		try {
+			Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Account for entries written or grown by the given number of bytes, evicting if over the limit
+	 */
+	void added(long bytes) {
+		if (sizeBytes.addAndGet(bytes) > maxBytes) {
+			evict();
+		}
+	}
+
+	/**
+	 * Delete an entry and stop counting it
+	 * @return Whether there was an entry to delete
+	 */
+	boolean remove(Path entry) {
+		try {
+			long size = Files.size(entry);
+			if (Files.deleteIfExists(entry)) {
+				sizeBytes.addAndGet(-size);
+				return true;
+			}
+		} catch (IOException e) {
+			log.debug("Failed to delete {} entry {}: {}", name, entry, e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is back under its target size
+	 */
+	private synchronized void evict() {
+		if (sizeBytes.get() <= maxBytes) {
+			return; // Another thread already made room
+		}
+		long target = (long) (maxBytes * EVICTION_TARGET);
+		long cutoff = System.currentTimeMillis() - minEvictionAgeMs;
+		int evicted = 0;
+		try {
+			List<Entry> entries = listEntries();
+			entries.sort(Comparator.comparing((Entry entry) -> entry.lastUsed));
+			long total = entries.stream().mapToLong(entry -> entry.size).sum();
+			for (Entry entry : entries) {
+				if (total <= target || entry.lastUsed.toMillis() > cutoff) {
+					break;
+				}
+				if (isPinned.test(entry.path)) {
+					continue;
+				}
+				try {
+					if (Files.deleteIfExists(entry.path)) {
+						total -= entry.size;
+						evicted++;
+					}
+				} catch (IOException e) {
+					log.debug("Failed to evict {} entry {}: {}", name, entry.path, e.getMessage());
+				}
+			}
+			sizeBytes.set(total);
+		} catch (IOException e) {
+			log.warn("Eviction from the {} failed: {}", name, e.getMessage());
+		}
+		log.info("Evicted {} entries from the {}, {} KB remain", evicted, name, sizeBytes.get() / 1024);
+	}
+
+	private List<Entry> listEntries() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			return paths.filter(path -> Files.isRegularFile(path) && isEntry.test(path))
+					.map(Entry::of)
+					.filter(entry -> entry != null)
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static class Entry {
+		private final Path path;
+		private final long size;
+		private final FileTime lastUsed;
+
+		private Entry(Path path, long size, FileTime lastUsed) {
+			this.path = path;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+
+		private static Entry of(Path path) {
+			try {
+				return new Entry(path, Files.size(path), Files.getLastModifiedTime(path));
+			} catch (IOException e) {
+				return null; // Deleted concurrently
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the scan workers fairly between users with deficit round robin (DRR).
+ * Every user with queued pages has a FIFO queue and a place in a round; each time round a user
+ * earns a quantum of work units and may start pages while that credit covers their cost (a
+ * page costs its decoded megapixels, so a 48 MP photo counts for more than a phone screenshot).
+ * A user also never holds more than a bounded number of workers at once, so one bulk upload
+ * cannot occupy the whole pool: a single-page scan from someone else finds a free worker or
+ * waits at most one round, while the bulk upload drains in the background.
+ * Pages are handed to the worker pool only when a worker is free; the queueing happens here.
+ */
+@Component
+@Slf4j
+public class FairScanScheduler {
+
+	private final ThreadPoolTaskExecutor scanJobExecutor;
+	private final int workers;
+	private final int capacity;
+	private final int maxWorkersPerUser;
+	private final int quantum;
+	private final Timer queueWait;
+
+	// All state below is guarded by this
+	private final Map<Long, UserQueue> users = new HashMap<>();
+	private final ArrayDeque<UserQueue> round = new ArrayDeque<>(); // Users with queued pages, in DRR order
+	private int queuedPages;
+	private int runningPages;
+
+	public FairScanScheduler(
+			ThreadPoolTaskExecutor scanJobExecutor,
+			@Value("${scan.jobs.queue-capacity:500}") int capacity,
+			@Value("${scan.jobs.max-workers-per-user:0}") int maxWorkersPerUser,
+			@Value("${scan.jobs.fair-quantum:16}") int quantum,
+			MeterRegistry meterRegistry) {
+		this.scanJobExecutor = scanJobExecutor;
+		this.workers = scanJobExecutor.getMaxPoolSize();
+		this.capacity = capacity;
+		// Default: all workers but one, so someone else's page can always start right away
+		this.maxWorkersPerUser = maxWorkersPerUser > 0 ? Math.min(maxWorkersPerUser, workers) : Math.max(1, workers - 1);
+		this.quantum = Math.max(1, quantum);
+		log.info("Fair scan scheduler: {} workers, at most {} per user, quantum {} work units, capacity {} pages",
+				workers, this.maxWorkersPerUser, this.quantum, capacity);
+
+		Gauge.builder("scan.queue.pages", this, FairScanScheduler::getQueuedPages)
+				.description("Scan pages waiting for a worker").register(meterRegistry);
+		Gauge.builder("scan.queue.users", this, FairScanScheduler::getQueuedUsers)
+				.description("Users with scan pages waiting for a worker").register(meterRegistry);
+		Gauge.builder("scan.queue.max.user.depth", this, FairScanScheduler::getMaxUserDepth)
+				.description("Queued pages of the user with the longest queue").register(meterRegistry);
+		Gauge.builder("scan.workers.running", this, FairScanScheduler::getRunningPages)
+				.description("Scan pages being processed").register(meterRegistry);
+		this.queueWait = Timer.builder("scan.queue.wait").description("Time scan pages wait for a worker").register(meterRegistry);
+	}
+
+	/**
+	 * Queue a page of a user's scan
+	 * @param workUnits Cost of the page, at least 1 (decoded megapixels)
+	 * @param onRejected Runs instead of the task if the worker pool refuses it (while shutting down)
+	 * @throws TaskRejectedException If the queue is full
+	 */
+	public synchronized void submit(Long userId, int workUnits, Runnable task, Runnable onRejected) {
+		if (queuedPages >= capacity) {
+			throw new TaskRejectedException("Scan queue is full. Please retry in a moment.");
+		}
+		UserQueue user = users.computeIfAbsent(userId, UserQueue::new);
+		if (user.pages.isEmpty()) {
+			round.addLast(user); // Joins at the back with no credit, like any newcomer
+		}
+		user.pages.addLast(new QueuedPage(Math.max(1, workUnits), task, onRejected));
+		queuedPages++;
+		dispatch();
+	}
+
+	/**
+	 * Pages that can still be queued before submissions are refused
+	 */
+	public synchronized int remainingCapacity() {
+		return Math.max(0, capacity - queuedPages);
+	}
+
+	/**
+	 * Queued and running pages of one user
+	 */
+	public synchronized UserLoad getUserLoad(Long userId) {
+		UserQueue user = users.get(userId);
+		return user == null ? new UserLoad(0, 0) : new UserLoad(user.pages.size(), user.running);
+	}
+
+	public synchronized int getQueuedPages() { return queuedPages; }
+	public synchronized int getRunningPages() { return runningPages; }
+	public synchronized int getQueuedUsers() { return round.size(); }
+	public int getWorkers() { return workers; }
+	public int getMaxWorkersPerUser() { return maxWorkersPerUser; }
+
+	public synchronized int getMaxUserDepth() {
+		return round.stream().mapToInt(user -> user.pages.size()).max().orElse(0);
+	}
+
+	/**
+	 * Start pages while workers are free, in DRR order. The user at the head of the round keeps
+	 * starting pages while their credit lasts, then goes to the back; users at their worker limit
+	 * are passed over without earning credit.
+	 */
+	private void dispatch() {
+		int passedOver = 0;
+		while (runningPages < workers && !round.isEmpty() && passedOver < round.size()) {
+			UserQueue user = round.peekFirst();
+			if (user.running >= maxWorkersPerUser) {
+				round.addLast(round.pollFirst());
+				passedOver++;
+				continue;
+			}
+			QueuedPage page = user.pages.peekFirst();
+			if (user.deficit < page.workUnits) {
+				user.deficit += quantum;
+				if (user.deficit < page.workUnits) {
+					round.addLast(round.pollFirst()); // Saves up for an expensive page over several rounds
+					passedOver = 0; // Earning credit is progress; the loop ends once the credit covers the page
+					continue;
+				}
+			}
+			passedOver = 0;
+			user.pages.pollFirst();
+			user.deficit -= page.workUnits;
+			queuedPages--;
+			if (user.pages.isEmpty()) {
+				round.pollFirst();
+				user.deficit = 0; // Credit is not kept while idle
+			} else if (user.deficit < user.pages.peekFirst().workUnits) {
+				round.addLast(round.pollFirst());
+			}
+			start(user, page);
+		}
+	}
+
+	private void start(UserQueue user, QueuedPage page) {
+		user.running++;
+		runningPages++;
+		queueWait.record(System.nanoTime() - page.queuedAt, TimeUnit.NANOSECONDS);
+		try {
+			scanJobExecutor.execute(() -> {
+				try {
+					page.task.run();
+				} finally {
+					finished(user);
+				}
+			});
+		} catch (TaskRejectedException e) {
+			// Only happens while the pool shuts down; the page is failed so its job still completes
+			log.warn("Scan worker pool rejected a page of user {}: {}", user.userId, e.getMessage());
+			release(user);
+			try {
+				page.onRejected.run();
+			} catch (RuntimeException callbackFailure) {
+				log.warn("Failed to report a rejected scan page of user {}: {}", user.userId, callbackFailure.getMessage());
+			}
+		}
+	}
+
+	private synchronized void finished(UserQueue user) {
+		release(user);
+		dispatch();
+	}
+
+	private void release(UserQueue user) {
+		user.running--;
+		runningPages--;
+		if (user.running == 0 && user.pages.isEmpty()) {
+			users.remove(user.userId);
+		}
+	}
+
+	/**
+	 * Pages a user has waiting and in progress
+	 */
+	public static class UserLoad {
+		private final int queued;
+		private final int running;
+
+		public UserLoad(int queued, int running) {
+			this.queued = queued;
+			this.running = running;
+		}
+
+		public int getQueued() { return queued; }
+		public int getRunning() { return running; }
+	}
+
+	private static class UserQueue {
+		private final Long userId;
+		private final ArrayDeque<QueuedPage> pages = new ArrayDeque<>();
+		private int running;
+		private long deficit;
+
+		private UserQueue(Long userId) {
+			this.userId = userId;
+		}
+	}
+
+	private static class QueuedPage {
+		private final int workUnits;
+		private final Runnable task;
+		private final Runnable onRejected;
+		private final long queuedAt = System.nanoTime();
+
+		private QueuedPage(int workUnits, Runnable task, Runnable onRejected) {
+			this.workUnits = workUnits;
+			this.task = task;
+			this.onRejected = onRejected;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Sends stored files over HTTP without copying them through the heap.
+ * On Tomcat the file is handed to the connector, which sends it with sendfile(2) after the request
+ * has returned; elsewhere it is streamed with FileChannel.transferTo. Supports single byte ranges
+ * (206, If-Range) and conditional requests on the ETag (304).
+ */
+@Service
+public class FileDeliveryService {
+
+	// Request attributes of Tomcat's sendfile support (org.apache.catalina.Globals)
+	private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	private final Counter sendfileResponses;
+	private final Counter streamedResponses;
+	private final Counter notModifiedResponses;
+
+	public FileDeliveryService(MeterRegistry meterRegistry) {
+		this.sendfileResponses = Counter.builder("journal.files.sent").tag("mode", "sendfile").register(meterRegistry);
+		this.streamedResponses = Counter.builder("journal.files.sent").tag("mode", "transfer").register(meterRegistry);
+		this.notModifiedResponses = Counter.builder("journal.files.sent").tag("mode", "not-modified").register(meterRegistry);
+	}
+
+	/**
+	 * Answer a GET or HEAD request with a file, a byte range of it, or 304
+	 * @param etag Quoted entity tag; a weak one ("W/...") is never used for If-Range
+	 */
+	public void send(HttpServletRequest request, HttpServletResponse response, Path file, String etag,
+			CacheControl cacheControl) throws IOException {
+		long length = Files.size(file);
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+			notModifiedResponses.increment();
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long start = 0;
+		long end = length - 1;
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null && rangeApplies(request.getHeader(HttpHeaders.IF_RANGE), etag)) {
+			List<HttpRange> ranges = parseRanges(rangeHeader);
+			// Several ranges would need a multipart/byteranges body; the whole file is sent instead
+			if (ranges.size() == 1) {
+				start = ranges.get(0).getRangeStart(length);
+				end = ranges.get(0).getRangeEnd(length);
+				if (start >= length || start > end) {
+					response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+					response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					return;
+				}
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+
+		response.setContentType(MediaTypeFactory.getMediaType(file.getFileName().toString())
+				.orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+		long count = end - start + 1;
+		response.setContentLengthLong(count);
+		if (HttpMethod.HEAD.matches(request.getMethod()) || count == 0) {
+			return;
+		}
+
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+			// Tomcat insists on the canonical path
+			request.setAttribute(SENDFILE_FILENAME, file.toRealPath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end + 1);
+			sendfileResponses.increment();
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			long remaining = count;
+			while (remaining > 0) {
+				long sent = channel.transferTo(position, remaining, out);
+				if (sent <= 0) {
+					break; // File shrank underneath us; the client sees a short body
+				}
+				position += sent;
+				remaining -= sent;
+			}
+		}
+		streamedResponses.increment();
+	}
+
+	/**
+	 * Byte ranges of a Range header; none if the header is not valid, which RFC 9110 (14.2) says to
+	 * ignore and answer with the whole file. Only valid ranges that miss the file get 416.
+	 */
+	private static List<HttpRange> parseRanges(String rangeHeader) {
+		try {
+			return HttpRange.parseRanges(rangeHeader);
+		} catch (IllegalArgumentException e) {
+			return List.of();
+		}
+	}
+
+	/**
+	 * Weak comparison, as If-None-Match requires
+	 */
+	private boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String opaque = stripWeak(etag);
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if (tag.equals("*") || stripWeak(tag).equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A range is only served if If-Range is absent or strongly matches the current ETag
+	 */
+	private boolean rangeApplies(String ifRange, String etag) {
+		return ifRange == null || (!etag.startsWith("W/") && ifRange.trim().equals(etag));
+	}
+
+	private static String stripWeak(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+}
@@ -1,68 +1,186 @@
 package com.bulletjournal.Companion.App.service;
 
+import com.bulletjournal.Companion.App.model.ImageBlob;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class FileStorageService {
 
-	@Value("${journal.image.storage-path}")
-	private String storagePath;
+	private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+	private final ImageBlobRepository imageBlobRepository;
+	private final BlobStore blobStore;
 
 	@Value("${journal.image.allowed-extensions}")
 	private String allowedExtensions;
 
-	public String storeFile(MultipartFile file, Long userId) throws IOException {
+	/**
+	 * Store an upload in the sharded content-addressed layout, "{userId}/{aa}/{bb}/{sha256}.{ext}"
+	 * where aa and bb are the first two bytes of the hash, so no directory grows past a few hundred
+	 * entries however many pages a user scans.
+	 * The upload is copied into the blob store's staging area in one pass that hashes it on the way,
+	 * so its bytes are read once; if the user has uploaded the same bytes before (looked up in the
+	 * blob manifest), the stored file is reused and nothing is written to the store.
+	 * Returns once the file is durably stored, so a page never refers to an upload that was lost.
+	 */
+	public StoredFile storeFile(MultipartFile file, Long userId) throws IOException {
 		// Validate file
 		validateFile(file);
 
-		// Create storage directory if it doesn't exist
-		Path storageDir = Paths.get(storagePath, userId.toString());
-		Files.createDirectories(storageDir);
+		Path tempFile = blobStore.createTempFile();
+		try {
+			MessageDigest digest = newSha256();
+			long size;
+			try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+				size = Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			String sha256 = HexFormat.of().formatHex(digest.digest());
+			// Marked before checking the file, so the orphan reclaimer leaves it alone from here on;
+			// a row the reclaimer deleted meanwhile is registered again below
+			Optional<ImageBlob> existing = imageBlobRepository.findByUserIdAndSha256(userId, sha256)
+					.filter(blob -> imageBlobRepository.markStored(blob.getId(), LocalDateTime.now()) > 0);
+			if (existing.isPresent() && fileExists(existing.get().getRelativePath())) {
+				log.info("Upload {} has the same content as {}, reusing it", file.getOriginalFilename(), existing.get().getRelativePath());
+				return new StoredFile(existing.get().getRelativePath(), sha256, false);
+			}
 
-		// Generate unique filename
-		String originalFilename = file.getOriginalFilename();
-		String extension = getFileExtension(originalFilename);
-		String uniqueFilename = UUID.randomUUID().toString() + "." + extension;
-		Path filePath = storageDir.resolve(uniqueFilename);
+			String relativePath = existing.map(ImageBlob::getRelativePath)
+					.orElseGet(() -> blobPath(userId, sha256, getFileExtension(file.getOriginalFilename()).toLowerCase()));
+			boolean created = !blobStore.exists(relativePath);
+			if (created) {
+				await(blobStore.put(relativePath, tempFile));
+				log.info("File saved: {}", relativePath);
+			}
+			if (existing.isEmpty()) {
+				registerBlob(userId, sha256, relativePath, size);
+			}
+			return new StoredFile(relativePath, sha256, created);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
 
-		// Save file
-		Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-		log.info("File saved: {}", filePath);
+	/**
+	 * Store generated content (a thumbnail or preview) under the given path in the background;
+	 * the returned future completes once it is durably stored.
+	 * Readers on this node see the file right away, others once the write has completed.
+	 */
+	public CompletableFuture<Void> writeFile(String relativePath, byte[] content) throws IOException {
+		Path tempFile = blobStore.createTempFile();
+		try {
+			Files.write(tempFile, content);
+		} catch (IOException e) {
+			Files.deleteIfExists(tempFile);
+			throw e;
+		}
+		return blobStore.put(relativePath, tempFile);
+	}
 
-		// Return relative path for database storage
-		return Paths.get(userId.toString(), uniqueFilename).toString().replace("\\", "/");
+	/**
+	 * Bring a file stored under the older flat layout into the sharded one: hard-linked where the file
+	 * system supports it (no data is copied and the old path stays valid), copied otherwise
+	 * @return Relative path of the file in the sharded layout
+	 */
+	public String adoptFile(Long userId, String legacyPath) throws IOException {
+		Path source = getFilePath(legacyPath);
+		String sha256 = sha256(source);
+		Optional<ImageBlob> existing = imageBlobRepository.findByUserIdAndSha256(userId, sha256);
+		String relativePath = existing.map(ImageBlob::getRelativePath)
+				.orElseGet(() -> blobPath(userId, sha256, getFileExtension(legacyPath).toLowerCase()));
+		linkFile(legacyPath, relativePath);
+		if (existing.isEmpty()) {
+			registerBlob(userId, sha256, relativePath, Files.size(source));
+		}
+		return relativePath;
 	}
 
-	public Path getFilePath(String relativePath) {
-		return Paths.get(storagePath, relativePath);
+	/**
+	 * Make a stored file also available under another relative path (hard link, or copy where links
+	 * are not supported); nothing happens if the target already exists
+	 */
+	public void linkFile(String fromPath, String toPath) throws IOException {
+		blobStore.copy(fromPath, toPath);
 	}
 
-	public boolean fileExists(String relativePath) {
-		Path filePath = getFilePath(relativePath);
-		return Files.exists(filePath);
+	/**
+	 * Relative path of content in the sharded layout
+	 */
+	public static String blobPath(Long userId, String sha256, String extension) {
+		return userId + "/" + sha256.substring(0, 2) + "/" + sha256.substring(2, 4) + "/" + sha256
+				+ (extension.isEmpty() ? "" : "." + extension);
 	}
 
-	public void deleteFile(String relativePath) throws IOException {
-		Path filePath = getFilePath(relativePath);
-		if (Files.exists(filePath)) {
-			Files.delete(filePath);
-			log.info("File deleted: {}", filePath);
+	/**
+	 * Content hash of a file stored in the sharded layout, read from its name; null for older files
+	 */
+	public static String contentHash(Path file) {
+		String name = file.getFileName().toString();
+		String stem = name.contains(".") ? name.substring(0, name.indexOf('.')) : name;
+		return SHA256_HEX.matcher(stem).matches() ? stem : null;
+	}
+
+	private void registerBlob(Long userId, String sha256, String relativePath, long sizeBytes) {
+		try {
+			imageBlobRepository.save(ImageBlob.builder()
+					.userId(userId)
+					.sha256(sha256)
+					.relativePath(relativePath)
+					.sizeBytes(sizeBytes)
+					.build());
+		} catch (DataIntegrityViolationException e) {
+			log.debug("Blob {} of user {} was registered concurrently", sha256, userId);
 		}
 	}
 
+	/**
+	 * Local file with the stored content, to be read only (fetched first if the blob store is remote)
+	 */
+	public Path getFilePath(String relativePath) throws IOException {
+		return blobStore.localPath(relativePath);
+	}
+
+	public boolean fileExists(String relativePath) throws IOException {
+		return blobStore.exists(relativePath);
+	}
+
+	public void deleteFile(String relativePath) throws IOException {
+		blobStore.delete(relativePath);
+	}
+
+	/**
+	 * Stored files below a prefix in ascending path order; the stream must be closed
+	 */
+	public Stream<BlobStore.StoredBlob> listFiles(String prefix) throws IOException {
+		return blobStore.list(prefix);
+	}
+
 	private void validateFile(MultipartFile file) {
 		if (file.isEmpty()) {
 			throw new IllegalArgumentException("File is empty");
@@ -88,11 +206,57 @@ public class FileStorageService {
 		}
 	}
 
+	private static void await(CompletableFuture<Void> write) throws IOException {
+		try {
+			write.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while storing the file", e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	private static String sha256(Path file) throws IOException {
+		MessageDigest digest = newSha256();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
 	private String getFileExtension(String filename) {
 		if (filename == null || filename.lastIndexOf('.') == -1) {
 			return "";
 		}
 		return filename.substring(filename.lastIndexOf('.') + 1);
 	}
-}
 
+	/**
+	 * Result of storing an upload
+	 */
+	public static class StoredFile {
+		private final String relativePath;
+		private final String sha256;
+		private final boolean created;
+
+		public StoredFile(String relativePath, String sha256, boolean created) {
+			this.relativePath = relativePath;
+			this.sha256 = sha256;
+			this.created = created;
+		}
+
+		public String getRelativePath() { return relativePath; }
+		public String getSha256() { return sha256; }
+		// False if identical content was already stored and is shared with earlier uploads
+		public boolean isCreated() { return created; }
+	}
+}
@@ -0,0 +1,393 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Decodes uploaded photos for OCR with a bounded amount of memory.
+ * The image header is read first; when the photo is larger than the decode budget the reader
+ * subsamples while decoding, so a 48 MP phone photo never exists in memory at full size. Where the
+ * reader supports it (JPEG does) pixels are decoded straight into an 8-bit gray raster instead of
+ * 32-bit ARGB, since binarization only looks at luma anyway.
+ * Phone photos are turned the way the camera was held (EXIF orientation) as part of decoding.
+ * PDF pages are rasterized one at a time at OCR resolution; the document structure is buffered
+ * in temp files rather than on the heap, so memory stays flat however long the PDF is.
+ */
+@Component
+@Slf4j
+public class ImageDecoder {
+
+	private static final ImageTypeSpecifier GRAY = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY);
+	private static final byte[] PDF_MAGIC = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+	private static final float POINTS_PER_INCH = 72f;
+	private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+	private static final int APP1_MARKER = 0xE1;
+	private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final int ORIENTATION_TAG = 0x0112;
+	private static final int UPRIGHT = 1;
+
+	private final long maxPixels;
+	private final boolean grayscale;
+	private final float pdfDpi;
+
+	public ImageDecoder(
+			@Value("${ocr.decode.max-megapixels:16}") int maxMegapixels,
+			@Value("${ocr.decode.grayscale:true}") boolean grayscale,
+			@Value("${ocr.decode.pdf-dpi:300}") float pdfDpi) {
+		this.maxPixels = maxMegapixels * 1_000_000L;
+		this.grayscale = grayscale;
+		this.pdfDpi = pdfDpi;
+		// Decoding goes through the file directly; the stream cache would only add a temp file copy
+		ImageIO.setUseCache(false);
+	}
+
+	/**
+	 * Decode the first image of a file, subsampled to fit the decode budget
+	 * @throws IOException If the file is not a readable image
+	 */
+	public BufferedImage decode(File imageFile) throws IOException {
+		return decode(imageFile, 0);
+	}
+
+	/**
+	 * Decode one page of a file: a page of a PDF, or the image itself for any other format
+	 * @param pageIndex 0-based page of a PDF (ignored for images)
+	 * @throws IOException If the file is not a readable image or PDF
+	 */
+	public BufferedImage decode(File imageFile, int pageIndex) throws IOException {
+		if (isPdf(imageFile)) {
+			return renderPdfPage(imageFile, pageIndex);
+		}
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+			if (input == null) {
+				throw new IOException("Unable to open image file: " + imageFile.getName());
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				throw new IOException("Unable to read image file: " + imageFile.getName());
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				int subsampling = subsamplingFor(width, height);
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				boolean gray = grayscale && supportsGray(reader);
+				if (gray) {
+					param.setDestinationType(GRAY);
+				}
+				int orientation = exifOrientation(reader);
+				BufferedImage image = applyOrientation(reader.read(0, param), orientation);
+				log.info("Decoded {} {}x{} with subsampling {} into {}x{} {} (EXIF orientation {})", reader.getFormatName(),
+						width, height, subsampling, image.getWidth(), image.getHeight(), gray ? "gray" : "color", orientation);
+				return image;
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Decode one page in color for display, subsampled (or rendered) so its longer side is between
+	 * maxSide and twice that; used for thumbnails and previews rather than OCR
+	 * @param pageIndex 0-based page of a PDF (ignored for images)
+	 * @throws IOException If the file is not a readable image or PDF
+	 */
+	public BufferedImage decodeForDisplay(File imageFile, int pageIndex, int maxSide) throws IOException {
+		if (isPdf(imageFile)) {
+			try (PDDocument document = PDDocument.load(imageFile, MemoryUsageSetting.setupTempFileOnly())) {
+				if (pageIndex < 0 || pageIndex >= document.getNumberOfPages()) {
+					throw new IOException("PDF " + imageFile.getName() + " has no page " + (pageIndex + 1));
+				}
+				PDRectangle box = document.getPage(pageIndex).getCropBox();
+				float dpi = Math.min(dpiFor(box.getWidth(), box.getHeight()),
+						maxSide * POINTS_PER_INCH / Math.max(box.getWidth(), box.getHeight()));
+				return new PDFRenderer(document).renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+			}
+		}
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+			Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+			if (readers == null || !readers.hasNext()) {
+				throw new IOException("Unable to read image file: " + imageFile.getName());
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				int subsampling = Math.max(subsamplingFor(width, height), Math.max(1, Math.max(width, height) / maxSide));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return applyOrientation(reader.read(0, param), exifOrientation(reader));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Size of the raster {@link #decode(File, int)} will produce, read from the image header or
+	 * PDF page box without decoding any pixels
+	 */
+	public RasterSize probe(File imageFile, int pageIndex) throws IOException {
+		if (isPdf(imageFile)) {
+			try (PDDocument document = PDDocument.load(imageFile, MemoryUsageSetting.setupTempFileOnly())) {
+				if (pageIndex < 0 || pageIndex >= document.getNumberOfPages()) {
+					throw new IOException("PDF " + imageFile.getName() + " has no page " + (pageIndex + 1));
+				}
+				PDRectangle box = document.getPage(pageIndex).getCropBox();
+				float scale = dpiFor(box.getWidth(), box.getHeight()) / POINTS_PER_INCH;
+				return new RasterSize((int) Math.ceil(box.getWidth() * scale), (int) Math.ceil(box.getHeight() * scale),
+						grayscale ? 1 : 3);
+			}
+		}
+		try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+			Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+			if (readers == null || !readers.hasNext()) {
+				throw new IOException("Unable to read image file: " + imageFile.getName());
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int subsampling = subsamplingFor(reader.getWidth(0), reader.getHeight(0));
+				int width = (reader.getWidth(0) + subsampling - 1) / subsampling;
+				int height = (reader.getHeight(0) + subsampling - 1) / subsampling;
+				// Non-gray decodes are assumed to be 4 bytes per pixel, the worst common case (ARGB)
+				int bytesPerPixel = grayscale && supportsGray(reader) ? 1 : 4;
+				return exifOrientation(reader) >= 5
+						? new RasterSize(height, width, bytesPerPixel)
+						: new RasterSize(width, height, bytesPerPixel);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Whether the file is a PDF, judged by its header rather than its name
+	 */
+	public boolean isPdf(File file) throws IOException {
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			return isPdf(in);
+		}
+	}
+
+	/**
+	 * Whether a stream starts like a PDF; reads only the header and leaves the stream open
+	 */
+	public boolean isPdf(InputStream in) throws IOException {
+		byte[] header = new byte[PDF_MAGIC.length];
+		return in.readNBytes(header, 0, header.length) == header.length && Arrays.equals(header, PDF_MAGIC);
+	}
+
+	/**
+	 * Number of pages of a PDF, read without rendering anything. The stream (such as an upload not
+	 * stored yet) is buffered in a temp file, not in memory.
+	 */
+	public int pdfPageCount(InputStream pdf) throws IOException {
+		try (PDDocument document = PDDocument.load(pdf, MemoryUsageSetting.setupTempFileOnly())) {
+			return document.getNumberOfPages();
+		}
+	}
+
+	/**
+	 * Rasterize a single PDF page. The document is opened per page so that concurrent workers
+	 * rendering pages of the same PDF share nothing and each holds only its own page.
+	 */
+	private BufferedImage renderPdfPage(File pdfFile, int pageIndex) throws IOException {
+		try (PDDocument document = PDDocument.load(pdfFile, MemoryUsageSetting.setupTempFileOnly())) {
+			if (pageIndex < 0 || pageIndex >= document.getNumberOfPages()) {
+				throw new IOException("PDF " + pdfFile.getName() + " has no page " + (pageIndex + 1));
+			}
+			PDRectangle box = document.getPage(pageIndex).getCropBox();
+			float dpi = dpiFor(box.getWidth(), box.getHeight());
+			BufferedImage image = new PDFRenderer(document).renderImageWithDPI(pageIndex, dpi,
+					grayscale ? ImageType.GRAY : ImageType.RGB);
+			log.info("Rendered page {} of {}-page PDF at {} dpi into {}x{}", pageIndex + 1, document.getNumberOfPages(),
+					Math.round(dpi), image.getWidth(), image.getHeight());
+			return image;
+		}
+	}
+
+	/**
+	 * Configured rendering resolution, lowered for oversized pages so the raster fits the decode budget
+	 */
+	float dpiFor(float widthPoints, float heightPoints) {
+		double pixelsPerSquareInch = maxPixels / ((double) widthPoints * heightPoints / (POINTS_PER_INCH * POINTS_PER_INCH));
+		return (float) Math.min(pdfDpi, Math.floor(Math.sqrt(pixelsPerSquareInch)));
+	}
+
+	/**
+	 * Smallest integer subsampling factor that keeps the decoded image within the pixel budget
+	 */
+	int subsamplingFor(int width, int height) {
+		long pixels = (long) width * height;
+		int subsampling = 1;
+		while (pixels / ((long) subsampling * subsampling) > maxPixels) {
+			subsampling++;
+		}
+		return subsampling;
+	}
+
+	/**
+	 * EXIF orientation (1-8, 1 = upright) of a JPEG, read from the APP1 segment the reader has
+	 * already parsed; 1 for other formats or when the tag is missing
+	 */
+	private int exifOrientation(ImageReader reader) {
+		try {
+			IIOMetadata metadata = reader.getImageMetadata(0);
+			if (metadata == null || !Arrays.asList(metadata.getMetadataFormatNames()).contains(JPEG_METADATA_FORMAT)) {
+				return UPRIGHT;
+			}
+			Node markers = findChild(metadata.getAsTree(JPEG_METADATA_FORMAT), "markerSequence");
+			for (Node marker = markers != null ? markers.getFirstChild() : null; marker != null; marker = marker.getNextSibling()) {
+				Node tag = marker.getAttributes() != null ? marker.getAttributes().getNamedItem("MarkerTag") : null;
+				if ("unknown".equals(marker.getNodeName()) && tag != null && Integer.parseInt(tag.getNodeValue()) == APP1_MARKER
+						&& marker instanceof IIOMetadataNode) {
+					Object data = ((IIOMetadataNode) marker).getUserObject();
+					if (data instanceof byte[]) {
+						int orientation = orientationTag((byte[]) data);
+						if (orientation > 0) {
+							return orientation;
+						}
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			log.debug("Could not read EXIF orientation: {}", e.getMessage());
+		}
+		return UPRIGHT;
+	}
+
+	private Node findChild(Node parent, String name) {
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (name.equals(child.getNodeName())) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Orientation tag of IFD0 in an APP1 Exif segment, or 0 if there is none
+	 */
+	static int orientationTag(byte[] app1) {
+		if (app1.length < EXIF_HEADER.length + 8 || !Arrays.equals(Arrays.copyOf(app1, EXIF_HEADER.length), EXIF_HEADER)) {
+			return 0;
+		}
+		int tiff = EXIF_HEADER.length;
+		boolean littleEndian = app1[tiff] == 'I';
+		int ifd = tiff + (int) readUnsigned(app1, tiff + 4, 4, littleEndian);
+		if (ifd < tiff || ifd + 2 > app1.length) {
+			return 0;
+		}
+		int entries = (int) readUnsigned(app1, ifd, 2, littleEndian);
+		for (int i = 0; i < entries; i++) {
+			int entry = ifd + 2 + i * 12;
+			if (entry + 12 > app1.length) {
+				break;
+			}
+			if (readUnsigned(app1, entry, 2, littleEndian) == ORIENTATION_TAG) {
+				// SHORT value, stored left-justified in the entry's 4-byte value field
+				int orientation = (int) readUnsigned(app1, entry + 8, 2, littleEndian);
+				return orientation >= 1 && orientation <= 8 ? orientation : 0;
+			}
+		}
+		return 0;
+	}
+
+	private static long readUnsigned(byte[] bytes, int offset, int length, boolean littleEndian) {
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			int b = bytes[offset + (littleEndian ? length - 1 - i : i)] & 0xFF;
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+
+	/**
+	 * Turn (and for orientations 2, 4, 5 and 7 mirror) a decoded image upright in one exact pass
+	 */
+	static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		AffineTransform transform;
+		switch (orientation) {
+			case 2: transform = new AffineTransform(-1, 0, 0, 1, w, 0); break;  // mirrored
+			case 3: transform = new AffineTransform(-1, 0, 0, -1, w, h); break; // upside down
+			case 4: transform = new AffineTransform(1, 0, 0, -1, 0, h); break;  // mirrored upside down
+			case 5: transform = new AffineTransform(0, 1, 1, 0, 0, 0); break;   // transposed
+			case 6: transform = new AffineTransform(0, 1, -1, 0, h, 0); break;  // needs a clockwise turn
+			case 7: transform = new AffineTransform(0, -1, -1, 0, h, w); break; // transversed
+			case 8: transform = new AffineTransform(0, -1, 1, 0, 0, w); break;  // needs a counter-clockwise turn
+			default: return image;
+		}
+		AffineTransformOp op = new AffineTransformOp(transform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+		return op.filter(image, op.createCompatibleDestImage(image, null));
+	}
+
+	private boolean supportsGray(ImageReader reader) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		while (types.hasNext()) {
+			if (types.next().getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Dimensions and sample size of a decoded page
+	 */
+	public static class RasterSize {
+		private final int width;
+		private final int height;
+		private final int bytesPerPixel;
+
+		public RasterSize(int width, int height, int bytesPerPixel) {
+			this.width = width;
+			this.height = height;
+			this.bytesPerPixel = bytesPerPixel;
+		}
+
+		public int getWidth() { return width; }
+		public int getHeight() { return height; }
+		public int getBytesPerPixel() { return bytesPerPixel; }
+
+		public long getPixels() {
+			return (long) width * height;
+		}
+
+		public long getBytes() {
+			return getPixels() * bytesPerPixel;
+		}
+	}
+}
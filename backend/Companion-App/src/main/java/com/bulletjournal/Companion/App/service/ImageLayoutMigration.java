@@ -0,0 +1,191 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.model.JournalPage;
+import com.bulletjournal.Companion.App.model.PendingFileDelete;
+import com.bulletjournal.Companion.App.repository.JournalPageRepository;
+import com.bulletjournal.Companion.App.repository.PendingFileDeleteRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Moves images stored under the older flat "{userId}/{name}" layout into the sharded
+ * content-addressed one, online and in small batches, while the application serves requests.
+ * Each file is hard-linked (or copied) to its new path and registered in the blob manifest before
+ * the pages referring to it are switched over, together with their thumbnails and previews; the old
+ * files are only deleted after a grace period, so a request that read the old path just before the
+ * switch still finds its file. Safe to stop and restart at any point: a half-migrated file is picked
+ * up again by the next batch, and the deletes still due are kept in the pending_file_deletes table.
+ * With several application nodes, one at a time runs the migration (see {@link ClusterLock}).
+ */
+@Component
+@Slf4j
+public class ImageLayoutMigration {
+
+	private static final String LOCK_NAME = "image-layout-migration";
+
+	private final JournalPageRepository journalPageRepository;
+	private final PendingFileDeleteRepository pendingFileDeleteRepository;
+	private final FileStorageService fileStorageService;
+	private final ClusterLock clusterLock;
+	private final boolean enabled;
+	private final int batchSize;
+	private final long graceMs;
+	private final Counter migratedFiles;
+
+	// Paths whose file is missing or unreadable; retried after a restart only
+	private final Set<String> skipped = new HashSet<>();
+
+	public ImageLayoutMigration(
+			JournalPageRepository journalPageRepository,
+			PendingFileDeleteRepository pendingFileDeleteRepository,
+			FileStorageService fileStorageService,
+			ClusterLock clusterLock,
+			@Value("${journal.image.migration.enabled:false}") boolean enabled,
+			@Value("${journal.image.migration.batch-size:100}") int batchSize,
+			@Value("${journal.image.migration.grace-ms:600000}") long graceMs,
+			MeterRegistry meterRegistry) {
+		this.journalPageRepository = journalPageRepository;
+		this.pendingFileDeleteRepository = pendingFileDeleteRepository;
+		this.fileStorageService = fileStorageService;
+		this.clusterLock = clusterLock;
+		this.enabled = enabled;
+		this.batchSize = Math.max(1, batchSize);
+		this.graceMs = graceMs;
+		this.migratedFiles = Counter.builder("journal.image.migration.files")
+				.description("Images moved from the flat layout into the sharded one").register(meterRegistry);
+	}
+
+	/**
+	 * Migrate the next batch of flat-layout images and delete old files whose grace period is over
+	 */
+	@Scheduled(initialDelayString = "${journal.image.migration.interval-ms:60000}",
+			fixedDelayString = "${journal.image.migration.interval-ms:60000}")
+	public synchronized void migrateBatch() {
+		if (!enabled) {
+			return;
+		}
+		Optional<ClusterLock.Lease> lease = clusterLock.tryAcquire(LOCK_NAME);
+		if (lease.isEmpty()) {
+			return;
+		}
+		try (ClusterLock.Lease held = lease.get()) {
+			migrateBatch(held);
+		}
+	}
+
+	private void migrateBatch(ClusterLock.Lease lease) {
+		deleteExpired(lease);
+
+		List<String> legacyPaths = journalPageRepository.findFlatLayoutImagePaths(
+				PageRequest.of(0, batchSize + skipped.size()));
+		int migrated = 0;
+		for (String legacyPath : legacyPaths) {
+			if (migrated >= batchSize || !lease.keepAlive()) {
+				break;
+			}
+			if (skipped.contains(legacyPath)) {
+				continue;
+			}
+			try {
+				migrate(legacyPath);
+				migrated++;
+			} catch (IOException | RuntimeException e) {
+				skipped.add(legacyPath);
+				log.warn("Could not migrate image {} to the sharded layout, skipping it: {}", legacyPath, e.getMessage());
+			}
+		}
+		if (migrated > 0) {
+			log.info("Migrated {} images to the sharded layout ({} skipped so far)", migrated, skipped.size());
+		}
+	}
+
+	private void migrate(String legacyPath) throws IOException {
+		if (!fileStorageService.fileExists(legacyPath)) {
+			throw new IOException("file not found");
+		}
+		Long userId = Long.valueOf(legacyPath.substring(0, legacyPath.indexOf('/')));
+		String blobPath = fileStorageService.adoptFile(userId, legacyPath);
+
+		// Thumbnails and previews are named after their original, so they move along with it.
+		// Each old path is scheduled for deletion before pages stop using it: a delete that outlives a
+		// crash before the switch finds the path still in use and is dropped, and the next batch
+		// migrates the file again.
+		LocalDateTime deleteAt = LocalDateTime.now().plus(Duration.ofMillis(graceMs));
+		for (JournalPage page : journalPageRepository.findByImagePath(legacyPath)) {
+			List<String> oldPaths = new ArrayList<>();
+			String thumbnailPath = relocateDerivative(page.getThumbnailPath(), legacyPath, blobPath, oldPaths);
+			String previewPath = relocateDerivative(page.getPreviewPath(), legacyPath, blobPath, oldPaths);
+			if (thumbnailPath != null || previewPath != null) {
+				scheduleDeletes(oldPaths, deleteAt);
+				journalPageRepository.updateDerivatives(page.getId(), thumbnailPath, previewPath);
+			}
+		}
+		scheduleDeletes(List.of(legacyPath), deleteAt);
+		int pages = journalPageRepository.updateImagePath(legacyPath, blobPath);
+		migratedFiles.increment();
+		log.debug("Migrated {} to {} ({} pages)", legacyPath, blobPath, pages);
+	}
+
+	private void scheduleDeletes(List<String> paths, LocalDateTime deleteAt) {
+		pendingFileDeleteRepository.saveAll(paths.stream()
+				.map(path -> PendingFileDelete.builder().relativePath(path).deleteAt(deleteAt).build())
+				.collect(Collectors.toList()));
+	}
+
+	/**
+	 * Link a derivative to the name it gets under the new base path
+	 * @return The new derivative path, or null if the page has none (it is then generated on first request)
+	 */
+	private String relocateDerivative(String derivativePath, String legacyPath, String blobPath, List<String> oldPaths)
+			throws IOException {
+		String oldBase = stripExtension(legacyPath);
+		if (derivativePath == null || !derivativePath.startsWith(oldBase + ".") || !fileStorageService.fileExists(derivativePath)) {
+			return null;
+		}
+		String newPath = stripExtension(blobPath) + derivativePath.substring(oldBase.length());
+		fileStorageService.linkFile(derivativePath, newPath);
+		oldPaths.add(derivativePath);
+		return newPath;
+	}
+
+	private void deleteExpired(ClusterLock.Lease lease) {
+		List<PendingFileDelete> due = pendingFileDeleteRepository.findByDeleteAtLessThanEqualOrderByDeleteAt(
+				LocalDateTime.now(), PageRequest.of(0, batchSize));
+		for (PendingFileDelete pending : due) {
+			if (!lease.keepAlive()) {
+				return;
+			}
+			String path = pending.getRelativePath();
+			// A page re-uploaded or restored meanwhile, or not switched before a crash, may still use the old name
+			if (!journalPageRepository.existsByImagePath(path) && !journalPageRepository.existsByThumbnailPathOrPreviewPath(path, path)) {
+				try {
+					fileStorageService.deleteFile(path);
+				} catch (IOException e) {
+					log.warn("Failed to delete migrated file {}: {}", path, e.getMessage());
+					continue; // Retried next batch
+				}
+			}
+			pendingFileDeleteRepository.delete(pending);
+		}
+	}
+
+	private static String stripExtension(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
+	}
+}
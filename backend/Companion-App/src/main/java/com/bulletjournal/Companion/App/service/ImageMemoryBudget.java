@@ -0,0 +1,133 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global budget for the memory held by decoded and preprocessed page rasters.
+ * Each page reserves its estimated raster bytes before it is decoded and waits while the budget
+ * is exhausted, so a burst of large uploads queues up instead of running the node out of heap.
+ * Waiters are served in arrival order; a page larger than the whole budget runs on its own.
+ */
+@Component
+@Slf4j
+public class ImageMemoryBudget {
+
+	private static final int BYTES_PER_PERMIT = 1024;
+
+	private final long budgetBytes;
+	private final int totalPermits;
+	private final Semaphore permits;
+	private final long acquireTimeoutMs;
+	private final Timer waitTimer;
+	private final Counter timeouts;
+	private final Counter overcommits;
+
+	public ImageMemoryBudget(
+			@Value("${ocr.memory.budget-mb:0}") long budgetMb,
+			@Value("${ocr.memory.acquire-timeout-ms:300000}") long acquireTimeoutMs,
+			MeterRegistry meterRegistry) {
+		// Default: a quarter of the heap, the rest is left to JPA, web requests and everything else
+		this.budgetBytes = budgetMb > 0 ? budgetMb * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 4;
+		this.totalPermits = (int) Math.min(Integer.MAX_VALUE, budgetBytes / BYTES_PER_PERMIT);
+		this.permits = new Semaphore(totalPermits, true);
+		this.acquireTimeoutMs = acquireTimeoutMs;
+		log.info("Image memory budget: {} MB", budgetBytes / (1024 * 1024));
+
+		Gauge.builder("ocr.memory.budget.bytes", () -> budgetBytes).register(meterRegistry);
+		Gauge.builder("ocr.memory.reserved.bytes", this, ImageMemoryBudget::getReservedBytes).register(meterRegistry);
+		Gauge.builder("ocr.memory.utilization", this, budget -> (double) budget.getReservedBytes() / budget.budgetBytes)
+				.description("Share of the image memory budget currently reserved").register(meterRegistry);
+		Gauge.builder("ocr.memory.waiting", permits, Semaphore::getQueueLength)
+				.description("Pages waiting for image memory").register(meterRegistry);
+		this.waitTimer = Timer.builder("ocr.memory.wait").description("Time spent waiting for image memory").register(meterRegistry);
+		this.timeouts = Counter.builder("ocr.memory.timeouts").register(meterRegistry);
+		this.overcommits = Counter.builder("ocr.memory.overcommits")
+				.description("Reservations that grew past the budget instead of waiting").register(meterRegistry);
+	}
+
+	/**
+	 * Reserve memory for a page, waiting until enough of the budget is free
+	 * @throws IOException If the budget did not free up within the acquire timeout
+	 */
+	public Reservation reserve(long bytes) throws IOException {
+		int requested = toPermits(bytes);
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(requested, acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+				timeouts.increment();
+				throw new IOException("Timed out after " + acquireTimeoutMs + " ms waiting for image memory ("
+						+ bytes / 1024 + " KB requested, " + getReservedBytes() / 1024 + " KB in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for image memory");
+		} finally {
+			waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		return new Reservation(requested);
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public long getReservedBytes() {
+		return (long) (totalPermits - permits.availablePermits()) * BYTES_PER_PERMIT;
+	}
+
+	private int toPermits(long bytes) {
+		// Never ask for more than exists, or the request could not be served at all
+		return (int) Math.max(1, Math.min(totalPermits, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+	}
+
+	/**
+	 * Memory held for one page; released on close
+	 */
+	public class Reservation implements AutoCloseable {
+		private int held;
+		private int overcommitted;
+
+		private Reservation(int held) {
+			this.held = held;
+		}
+
+		/**
+		 * Grow the reservation to the given total once the real raster size is known.
+		 * Never waits: a page that already holds memory and waited for more could deadlock with
+		 * another page doing the same, so when the budget is exhausted the page proceeds over
+		 * budget and the overcommit is counted instead.
+		 */
+		public void extendTo(long bytes) {
+			int extra = toPermits(bytes) - held - overcommitted;
+			if (extra <= 0) {
+				return;
+			}
+			if (permits.tryAcquire(extra)) {
+				held += extra;
+			} else {
+				overcommitted += extra;
+				overcommits.increment();
+				log.debug("Image memory budget exhausted; page proceeds {} KB over budget", extra * (long) BYTES_PER_PERMIT / 1024);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (held > 0) {
+				permits.release(held);
+				held = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,654 @@
+package com.bulletjournal.Companion.App.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Raster-level image preprocessing for OCR.
+ * Grayscale conversion, contrast enhancement and thresholding are fused into a single pass that
+ * reads the source {@link DataBuffer} arrays directly and writes packed 1-bit rows, processing
+ * row stripes in parallel. No intermediate full-size images are allocated for the global modes;
+ * the adaptive modes keep one 8-bit luma plane and build summed-area tables per stripe.
+ */
+@Component
+@Slf4j
+public class ImagePreprocessor {
+
+	// Contrast enhancement (more aggressive for handwritten text)
+	private static final float CONTRAST_SCALE = 1.5f;
+	private static final float CONTRAST_OFFSET = -15.0f;
+	// Threshold value applied after contrast enhancement (lower = more sensitive)
+	private static final int THRESHOLD = 128;
+	// Stripes smaller than this are not split further
+	private static final int MIN_STRIPE_ROWS = 32;
+	// Largest adaptive window whose sum of squares (181^2 * 255^2) still fits in an int
+	private static final int MAX_WINDOW_SIZE = 181;
+	private static final int MIN_WINDOW_SIZE = 15;
+	// Dynamic range of the standard deviation for Sauvola (half of the 8-bit range)
+	private static final double SAUVOLA_DYNAMIC_RANGE = 128.0;
+	// Passes 0/1 values through unchanged, for rows that are already thresholded
+	private static final byte[] BIT_LUT = new byte[256];
+
+	static {
+		BIT_LUT[1] = 1;
+	}
+
+	private final ForkJoinPool pool;
+	private final Binarization defaultBinarization;
+	private final int windowSize;
+	private final double sauvolaK;
+	private final double bradleySensitivity;
+	// Maps a luma value straight to its output bit (0 = ink/black, 1 = paper/white)
+	private final byte[] thresholdLut = new byte[256];
+
+	public ImagePreprocessor(@Value("${ocr.preprocess.parallelism:0}") int parallelism,
+			@Value("${ocr.preprocess.binarization:FIXED}") String binarization,
+			@Value("${ocr.preprocess.window-size:0}") int windowSize,
+			@Value("${ocr.preprocess.sauvola-k:0.34}") double sauvolaK,
+			@Value("${ocr.preprocess.bradley-sensitivity:0.15}") double bradleySensitivity) {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.pool = new ForkJoinPool(threads);
+		this.defaultBinarization = Binarization.fromName(binarization);
+		this.windowSize = windowSize;
+		this.sauvolaK = sauvolaK;
+		this.bradleySensitivity = bradleySensitivity;
+		for (int luma = 0; luma < 256; luma++) {
+			int enhanced = Math.round(Math.min(255f, Math.max(0f, luma * CONTRAST_SCALE + CONTRAST_OFFSET)));
+			thresholdLut[luma] = (byte) (enhanced < THRESHOLD ? 0 : 1);
+		}
+		log.info("Image preprocessor initialized with parallelism {}, default binarization {}", threads, defaultBinarization);
+	}
+
+	public Binarization getDefaultBinarization() {
+		return defaultBinarization;
+	}
+
+	/**
+	 * Convert an image of any type into a binary (black/white) image ready for OCR,
+	 * using the configured binarization mode
+	 */
+	public BufferedImage binarize(BufferedImage source) {
+		return binarize(source, defaultBinarization);
+	}
+
+	/**
+	 * Convert an image of any type into a binary (black/white) image ready for OCR
+	 * @param mode Binarization mode, or null for the configured default
+	 */
+	public BufferedImage binarize(BufferedImage source, Binarization mode) {
+		return binarize(source, mode, 1.0);
+	}
+
+	/**
+	 * Rescale the grayscale image by the given factor, then binarize it.
+	 * Resampling happens on 8-bit luma before thresholding, so strokes keep smooth edges.
+	 * @param mode Binarization mode, or null for the configured default
+	 * @param scale Output size relative to the source (1.0 = unchanged)
+	 */
+	public BufferedImage binarize(BufferedImage source, Binarization mode, double scale) {
+		Binarization binarization = mode != null ? mode : defaultBinarization;
+		int width = source.getWidth();
+		int height = source.getHeight();
+		LumaReader reader = LumaReader.forImage(source);
+
+		long start = System.nanoTime();
+		if (scale != 1.0) {
+			int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+			int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+			reader = new PlaneReader(resample(reader, width, height, scaledWidth, scaledHeight), scaledWidth);
+			width = scaledWidth;
+			height = scaledHeight;
+		}
+		BufferedImage binary = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+		byte[] packed = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+
+		switch (binarization) {
+			case OTSU -> {
+				int threshold = otsuThreshold(histogram(reader, width, height));
+				byte[] lut = new byte[256];
+				for (int luma = threshold + 1; luma < 256; luma++) {
+					lut[luma] = 1;
+				}
+				log.debug("Otsu threshold: {}", threshold);
+				thresholdPass(reader, width, height, lut, packed);
+			}
+			case SAUVOLA, BRADLEY -> adaptivePass(lumaPlane(reader, width, height), width, height, binarization, packed);
+			default -> thresholdPass(reader, width, height, thresholdLut, packed);
+		}
+		log.debug("Binarized {}x{} image to {}x{} ({}, {}) in {} ms", source.getWidth(), source.getHeight(),
+				width, height, binarization, reader.getClass().getSimpleName(), (System.nanoTime() - start) / 1_000_000);
+		return binary;
+	}
+
+	/**
+	 * Read, threshold and pack every row in one pass
+	 */
+	private void thresholdPass(LumaReader reader, int width, int height, byte[] lut, byte[] packed) {
+		int packedStride = (width + 7) >> 3;
+		pool.invoke(new StripeTask(0, height, stripeRows(height, MIN_STRIPE_ROWS), (fromRow, toRow) -> {
+			byte[] luma = new byte[width];
+			int[] scratch = reader.newScratch();
+			for (int y = fromRow; y < toRow; y++) {
+				reader.readRow(y, luma, scratch);
+				packRow(luma, width, lut, packed, y * packedStride);
+			}
+		}));
+	}
+
+	/**
+	 * Luma histogram of the whole image; stripes count locally and merge once
+	 */
+	private int[] histogram(LumaReader reader, int width, int height) {
+		int[] histogram = new int[256];
+		pool.invoke(new StripeTask(0, height, stripeRows(height, MIN_STRIPE_ROWS), (fromRow, toRow) -> {
+			byte[] luma = new byte[width];
+			int[] scratch = reader.newScratch();
+			int[] local = new int[256];
+			for (int y = fromRow; y < toRow; y++) {
+				reader.readRow(y, luma, scratch);
+				for (int x = 0; x < width; x++) {
+					local[luma[x] & 0xFF]++;
+				}
+			}
+			synchronized (histogram) {
+				for (int i = 0; i < 256; i++) {
+					histogram[i] += local[i];
+				}
+			}
+		}));
+		return histogram;
+	}
+
+	/**
+	 * Otsu's method: the threshold that maximizes the between-class variance of the histogram.
+	 * Pixels at or below the returned value are ink.
+	 */
+	static int otsuThreshold(int[] histogram) {
+		long total = 0;
+		double weightedTotal = 0;
+		for (int i = 0; i < 256; i++) {
+			total += histogram[i];
+			weightedTotal += (double) i * histogram[i];
+		}
+
+		long backgroundCount = 0;
+		double backgroundSum = 0;
+		double bestVariance = -1;
+		int bestThreshold = THRESHOLD - 1;
+		for (int t = 0; t < 255; t++) {
+			backgroundCount += histogram[t];
+			if (backgroundCount == 0) {
+				continue;
+			}
+			long foregroundCount = total - backgroundCount;
+			if (foregroundCount == 0) {
+				break;
+			}
+			backgroundSum += (double) t * histogram[t];
+			double meanDifference = backgroundSum / backgroundCount
+					- (weightedTotal - backgroundSum) / foregroundCount;
+			double variance = (double) backgroundCount * foregroundCount * meanDifference * meanDifference;
+			if (variance > bestVariance) {
+				bestVariance = variance;
+				bestThreshold = t;
+			}
+		}
+		return bestThreshold;
+	}
+
+	/**
+	 * Full-resolution 8-bit luma plane, needed because adaptive windows look at neighbouring rows
+	 */
+	private byte[] lumaPlane(LumaReader reader, int width, int height) {
+		if (reader instanceof PlaneReader) {
+			return ((PlaneReader) reader).plane; // Already materialized by resampling
+		}
+		byte[] plane = new byte[width * height];
+		pool.invoke(new StripeTask(0, height, stripeRows(height, MIN_STRIPE_ROWS), (fromRow, toRow) -> {
+			byte[] luma = new byte[width];
+			int[] scratch = reader.newScratch();
+			for (int y = fromRow; y < toRow; y++) {
+				reader.readRow(y, luma, scratch);
+				System.arraycopy(luma, 0, plane, y * width, width);
+			}
+		}));
+		return plane;
+	}
+
+	/**
+	 * Resample a luma image to a new size: box averaging when shrinking (every source pixel
+	 * contributes exactly once), bilinear interpolation when enlarging
+	 */
+	private byte[] resample(LumaReader reader, int width, int height, int scaledWidth, int scaledHeight) {
+		byte[] plane = new byte[scaledWidth * scaledHeight];
+		if (scaledWidth < width) {
+			// Destination column of each source column, and how many source columns feed each destination column
+			int[] targetColumn = new int[width];
+			int[] columnCount = new int[scaledWidth];
+			for (int x = 0; x < width; x++) {
+				targetColumn[x] = (int) ((long) x * scaledWidth / width);
+				columnCount[targetColumn[x]]++;
+			}
+			pool.invoke(new StripeTask(0, scaledHeight, stripeRows(scaledHeight, MIN_STRIPE_ROWS), (fromRow, toRow) -> {
+				byte[] row = new byte[width];
+				int[] scratch = reader.newScratch();
+				int[] sums = new int[scaledWidth];
+				for (int dy = fromRow; dy < toRow; dy++) {
+					int y0 = (int) ((long) dy * height / scaledHeight);
+					int y1 = Math.max(y0 + 1, (int) ((long) (dy + 1) * height / scaledHeight));
+					Arrays.fill(sums, 0);
+					for (int y = y0; y < y1; y++) {
+						reader.readRow(y, row, scratch);
+						for (int x = 0; x < width; x++) {
+							sums[targetColumn[x]] += row[x] & 0xFF;
+						}
+					}
+					int rows = y1 - y0;
+					int offset = dy * scaledWidth;
+					for (int dx = 0; dx < scaledWidth; dx++) {
+						int count = columnCount[dx] * rows;
+						plane[offset + dx] = (byte) ((sums[dx] + count / 2) / count);
+					}
+				}
+			}));
+			return plane;
+		}
+
+		// Source coordinates and 8-bit weights of each destination column
+		int[] left = new int[scaledWidth];
+		int[] right = new int[scaledWidth];
+		int[] weight = new int[scaledWidth];
+		for (int dx = 0; dx < scaledWidth; dx++) {
+			double sx = Math.max(0, (dx + 0.5) * width / scaledWidth - 0.5);
+			left[dx] = Math.min(width - 1, (int) sx);
+			right[dx] = Math.min(width - 1, left[dx] + 1);
+			weight[dx] = (int) ((sx - left[dx]) * 256);
+		}
+		pool.invoke(new StripeTask(0, scaledHeight, stripeRows(scaledHeight, MIN_STRIPE_ROWS), (fromRow, toRow) -> {
+			byte[] top = new byte[width];
+			byte[] bottom = new byte[width];
+			int[] scratch = reader.newScratch();
+			int topRow = -1;
+			int bottomRow = -1;
+			for (int dy = fromRow; dy < toRow; dy++) {
+				double sy = Math.max(0, (dy + 0.5) * height / scaledHeight - 0.5);
+				int y0 = Math.min(height - 1, (int) sy);
+				int y1 = Math.min(height - 1, y0 + 1);
+				int wy = (int) ((sy - y0) * 256);
+				// Consecutive destination rows mostly share source rows, so only read what changed
+				if (y0 == bottomRow) {
+					byte[] swap = top;
+					top = bottom;
+					bottom = swap;
+					topRow = bottomRow;
+					bottomRow = -1;
+				}
+				if (y0 != topRow) {
+					reader.readRow(y0, top, scratch);
+					topRow = y0;
+				}
+				if (y1 != bottomRow) {
+					reader.readRow(y1, bottom, scratch);
+					bottomRow = y1;
+				}
+				int offset = dy * scaledWidth;
+				for (int dx = 0; dx < scaledWidth; dx++) {
+					int wx = weight[dx];
+					int upper = (top[left[dx]] & 0xFF) * (256 - wx) + (top[right[dx]] & 0xFF) * wx;
+					int lower = (bottom[left[dx]] & 0xFF) * (256 - wx) + (bottom[right[dx]] & 0xFF) * wx;
+					plane[offset + dx] = (byte) ((upper * (256 - wy) + lower * wy + 32768) >> 16);
+				}
+			}
+		}));
+		return plane;
+	}
+
+	/**
+	 * Sauvola or Bradley local thresholding in O(1) per pixel.
+	 * Each stripe builds summed-area tables (sum and sum of squares) over its own rows plus a
+	 * window-high halo, so memory stays proportional to the stripe rather than the page.
+	 * The tables use wrapping int arithmetic: individual entries overflow on large stripes, but
+	 * every window sum is below 2^31, so the four-corner differences are still exact.
+	 */
+	private void adaptivePass(byte[] plane, int width, int height, Binarization mode, byte[] packed) {
+		int window = windowSize(width, height);
+		int radius = window / 2;
+		int packedStride = (width + 7) >> 3;
+		int tableStride = width + 1;
+		double k = sauvolaK;
+		double keep = 1.0 - bradleySensitivity;
+		boolean sauvola = mode == Binarization.SAUVOLA;
+
+		pool.invoke(new StripeTask(0, height, stripeRows(height, Math.max(MIN_STRIPE_ROWS, 2 * window)), (fromRow, toRow) -> {
+			int top = Math.max(0, fromRow - radius);
+			int bottom = Math.min(height, toRow + radius + 1);
+			int rows = bottom - top;
+			int[] sum = new int[(rows + 1) * tableStride];
+			int[] sumSq = sauvola ? new int[(rows + 1) * tableStride] : null;
+			for (int y = 0; y < rows; y++) {
+				int source = (top + y) * width;
+				int above = y * tableStride + 1;
+				int current = above + tableStride;
+				int rowSum = 0;
+				int rowSumSq = 0;
+				for (int x = 0; x < width; x++) {
+					int value = plane[source + x] & 0xFF;
+					rowSum += value;
+					sum[current + x] = sum[above + x] + rowSum;
+					if (sauvola) {
+						rowSumSq += value * value;
+						sumSq[current + x] = sumSq[above + x] + rowSumSq;
+					}
+				}
+			}
+
+			byte[] bits = new byte[width];
+			for (int y = fromRow; y < toRow; y++) {
+				int y0 = (Math.max(0, y - radius) - top) * tableStride;
+				int y1 = (Math.min(height, y + radius + 1) - top) * tableStride;
+				int windowRows = (y1 - y0) / tableStride;
+				int row = y * width;
+				for (int x = 0; x < width; x++) {
+					int x0 = Math.max(0, x - radius);
+					int x1 = Math.min(width, x + radius + 1);
+					int count = windowRows * (x1 - x0);
+					int windowSum = sum[y1 + x1] - sum[y0 + x1] - sum[y1 + x0] + sum[y0 + x0];
+					int value = plane[row + x] & 0xFF;
+					boolean ink;
+					if (sauvola) {
+						int windowSumSq = sumSq[y1 + x1] - sumSq[y0 + x1] - sumSq[y1 + x0] + sumSq[y0 + x0];
+						double mean = (double) windowSum / count;
+						double variance = Math.max(0, (double) windowSumSq / count - mean * mean);
+						ink = value <= mean * (1 + k * (Math.sqrt(variance) / SAUVOLA_DYNAMIC_RANGE - 1));
+					} else {
+						// Bradley: ink if darker than the local mean by more than the sensitivity
+						ink = (double) value * count <= windowSum * keep;
+					}
+					bits[x] = (byte) (ink ? 0 : 1);
+				}
+				packRow(bits, width, BIT_LUT, packed, y * packedStride);
+			}
+		}));
+	}
+
+	/**
+	 * Adaptive window side (odd): configured, or about 1/40 of the shorter image side
+	 */
+	private int windowSize(int width, int height) {
+		int size = windowSize > 0 ? windowSize : Math.min(width, height) / 40;
+		size = Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, size));
+		return size | 1;
+	}
+
+	private int stripeRows(int height, int minRows) {
+		return Math.max(minRows, height / (pool.getParallelism() * 4));
+	}
+
+	/**
+	 * Threshold one row of luma values and pack it MSB-first into the 1-bit output
+	 */
+	private static void packRow(byte[] luma, int width, byte[] lut, byte[] packed, int offset) {
+		int x = 0;
+		for (; x + 8 <= width; x += 8) {
+			packed[offset++] = (byte) (lut[luma[x] & 0xFF] << 7
+					| lut[luma[x + 1] & 0xFF] << 6
+					| lut[luma[x + 2] & 0xFF] << 5
+					| lut[luma[x + 3] & 0xFF] << 4
+					| lut[luma[x + 4] & 0xFF] << 3
+					| lut[luma[x + 5] & 0xFF] << 2
+					| lut[luma[x + 6] & 0xFF] << 1
+					| lut[luma[x + 7] & 0xFF]);
+		}
+		if (x < width) {
+			int bits = 0;
+			for (int bit = 7; x < width; x++, bit--) {
+				bits |= lut[luma[x] & 0xFF] << bit;
+			}
+			packed[offset] = (byte) bits;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Binarization strategies.
+	 * FIXED: contrast boost and a global threshold of 128 (fastest, fine for evenly lit scans).
+	 * OTSU: global threshold chosen from the page histogram.
+	 * SAUVOLA: local mean and standard deviation; robust to shadows and uneven lighting.
+	 * BRADLEY: local mean only; cheaper than Sauvola, good for gradual lighting changes.
+	 */
+	public enum Binarization {
+		FIXED, OTSU, SAUVOLA, BRADLEY;
+
+		public static Binarization fromName(String name) {
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unsupported binarization mode: " + name
+						+ ". Supported modes: FIXED, OTSU, SAUVOLA, BRADLEY");
+			}
+		}
+	}
+
+	/**
+	 * Work applied to a contiguous range of rows
+	 */
+	@FunctionalInterface
+	interface RowRangeWork {
+		void process(int fromRow, int toRow);
+	}
+
+	/**
+	 * Splits a row range in halves until stripes are small enough, then runs the work on each stripe
+	 */
+	static class StripeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int fromRow;
+		private final int toRow;
+		private final int stripeRows;
+		private final RowRangeWork work;
+
+		StripeTask(int fromRow, int toRow, int stripeRows, RowRangeWork work) {
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.stripeRows = stripeRows;
+			this.work = work;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow <= stripeRows) {
+				work.process(fromRow, toRow);
+				return;
+			}
+			int mid = (fromRow + toRow) >>> 1;
+			invokeAll(new StripeTask(fromRow, mid, stripeRows, work), new StripeTask(mid, toRow, stripeRows, work));
+		}
+	}
+
+	/**
+	 * Reads rows of 8-bit luma (BT.601 weights) from an image, using the backing arrays when the
+	 * layout is known and falling back to bulk {@code getRGB} otherwise
+	 */
+	abstract static class LumaReader {
+
+		abstract void readRow(int y, byte[] luma, int[] scratch);
+
+		/**
+		 * Per-stripe scratch buffer for readers that cannot read the backing array directly
+		 */
+		int[] newScratch() {
+			return null;
+		}
+
+		static LumaReader forImage(BufferedImage image) {
+			Raster raster = image.getRaster();
+			SampleModel sampleModel = raster.getSampleModel();
+			DataBuffer dataBuffer = raster.getDataBuffer();
+			int colorSpaceType = image.getColorModel().getColorSpace().getType();
+			boolean rgb = colorSpaceType == ColorSpace.TYPE_RGB && sampleModel.getNumBands() >= 3;
+			boolean gray = colorSpaceType == ColorSpace.TYPE_GRAY && sampleModel.getNumBands() <= 2;
+
+			if (dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1
+					&& sampleModel instanceof ComponentSampleModel && (rgb || gray)) {
+				return new InterleavedByteReader(raster, (ComponentSampleModel) sampleModel,
+						((DataBufferByte) dataBuffer).getData(), dataBuffer.getOffset(), gray);
+			}
+			if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel && rgb) {
+				return new PackedIntReader(raster, (SinglePixelPackedSampleModel) sampleModel,
+						((DataBufferInt) dataBuffer).getData(), dataBuffer.getOffset());
+			}
+			return new GenericReader(image);
+		}
+
+		static int luma(int r, int g, int b) {
+			return (r * 19595 + g * 38470 + b * 7471) >> 16;
+		}
+	}
+
+	/**
+	 * TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY and the interleaved RGB(A) rasters ImageIO produces
+	 */
+	static final class InterleavedByteReader extends LumaReader {
+		private final byte[] data;
+		private final int width;
+		private final int pixelStride;
+		private final int scanlineStride;
+		private final int baseOffset;
+		private final int redOffset;
+		private final int greenOffset;
+		private final int blueOffset;
+		private final boolean gray;
+
+		InterleavedByteReader(Raster raster, ComponentSampleModel sampleModel, byte[] data, int bufferOffset, boolean gray) {
+			this.data = data;
+			this.width = raster.getWidth();
+			this.pixelStride = sampleModel.getPixelStride();
+			this.scanlineStride = sampleModel.getScanlineStride();
+			// Offset of pixel (0, 0) without any band offset (ComponentSampleModel.getOffset would add band 0)
+			this.baseOffset = bufferOffset
+					+ (raster.getMinY() - raster.getSampleModelTranslateY()) * scanlineStride
+					+ (raster.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			this.redOffset = bandOffsets[0];
+			this.greenOffset = gray ? bandOffsets[0] : bandOffsets[1];
+			this.blueOffset = gray ? bandOffsets[0] : bandOffsets[2];
+			this.gray = gray;
+		}
+
+		@Override
+		void readRow(int y, byte[] luma, int[] scratch) {
+			int index = baseOffset + y * scanlineStride;
+			if (gray) {
+				for (int x = 0; x < width; x++, index += pixelStride) {
+					luma[x] = data[index + redOffset];
+				}
+				return;
+			}
+			for (int x = 0; x < width; x++, index += pixelStride) {
+				luma[x] = (byte) luma(data[index + redOffset] & 0xFF,
+						data[index + greenOffset] & 0xFF,
+						data[index + blueOffset] & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * TYPE_INT_RGB, TYPE_INT_ARGB and TYPE_INT_BGR
+	 */
+	static final class PackedIntReader extends LumaReader {
+		private final int[] data;
+		private final int width;
+		private final int scanlineStride;
+		private final int baseOffset;
+		private final int[] masks;
+		private final int[] shifts;
+
+		PackedIntReader(Raster raster, SinglePixelPackedSampleModel sampleModel, int[] data, int bufferOffset) {
+			this.data = data;
+			this.width = raster.getWidth();
+			this.scanlineStride = sampleModel.getScanlineStride();
+			this.baseOffset = bufferOffset + sampleModel.getOffset(
+					raster.getMinX() - raster.getSampleModelTranslateX(),
+					raster.getMinY() - raster.getSampleModelTranslateY());
+			this.masks = sampleModel.getBitMasks();
+			this.shifts = sampleModel.getBitOffsets();
+		}
+
+		@Override
+		void readRow(int y, byte[] luma, int[] scratch) {
+			int index = baseOffset + y * scanlineStride;
+			int redMask = masks[0], greenMask = masks[1], blueMask = masks[2];
+			int redShift = shifts[0], greenShift = shifts[1], blueShift = shifts[2];
+			for (int x = 0; x < width; x++) {
+				int pixel = data[index + x];
+				luma[x] = (byte) luma((pixel & redMask) >>> redShift,
+						(pixel & greenMask) >>> greenShift,
+						(pixel & blueMask) >>> blueShift);
+			}
+		}
+	}
+
+	/**
+	 * Rows of an 8-bit luma plane produced by resampling
+	 */
+	static final class PlaneReader extends LumaReader {
+		private final byte[] plane;
+		private final int width;
+
+		PlaneReader(byte[] plane, int width) {
+			this.plane = plane;
+			this.width = width;
+		}
+
+		@Override
+		void readRow(int y, byte[] luma, int[] scratch) {
+			System.arraycopy(plane, y * width, luma, 0, width);
+		}
+	}
+
+	/**
+	 * Any other layout (indexed PNGs, 16-bit samples, non-sRGB color spaces)
+	 */
+	static final class GenericReader extends LumaReader {
+		private final BufferedImage image;
+
+		GenericReader(BufferedImage image) {
+			this.image = image;
+		}
+
+		@Override
+		int[] newScratch() {
+			return new int[image.getWidth()];
+		}
+
+		@Override
+		void readRow(int y, byte[] luma, int[] scratch) {
+			int width = scratch.length;
+			image.getRGB(0, y, width, 1, scratch, 0, width);
+			for (int x = 0; x < width; x++) {
+				int pixel = scratch[x];
+				luma[x] = (byte) luma((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF);
+			}
+		}
+	}
+}
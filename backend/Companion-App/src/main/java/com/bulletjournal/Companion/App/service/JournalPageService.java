@@ -1,9 +1,10 @@
 package com.bulletjournal.Companion.App.service;
 
-import com.bulletjournal.Companion.App.dto.ScanRequest;
 import com.bulletjournal.Companion.App.dto.ScanResponse;
 import com.bulletjournal.Companion.App.model.JournalPage;
+import com.bulletjournal.Companion.App.model.JournalPageLayout;
 import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.JournalPageLayoutRepository;
 import com.bulletjournal.Companion.App.repository.JournalPageRepository;
 import com.bulletjournal.Companion.App.repository.UserRepository;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -11,10 +12,15 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sourceforge.tess4j.TesseractException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,139 +28,186 @@ import java.util.stream.Collectors;
 @Slf4j
 public class JournalPageService {
 
+	private static final String MANUAL_ENTRY_IMAGE = "manual-entry"; // Image path of pages created for manual entries
+
 	private final JournalPageRepository journalPageRepository;
+	private final JournalPageLayoutRepository journalPageLayoutRepository;
 	private final UserRepository userRepository;
 	private final FileStorageService fileStorageService;
-	private final OcrService ocrService;
+	private final OcrEngine ocrEngine;
 	private final ContentExtractionService contentExtractionService;
 	private final PasswordEncoder passwordEncoder;
+	private final PageDerivativeService derivativeService;
+	private final TransactionTemplate transactionTemplate;
+	// Pages whose missing derivatives are being generated on request
+	private final Set<Long> derivativesInProgress = ConcurrentHashMap.newKeySet();
 
-	@Transactional
-	public List<ScanResponse> scanAndSavePage(Long userId, ScanRequest request) throws IOException {
+	/**
+	 * Run OCR and content extraction for an already stored upload and persist it as a journal page.
+	 * Called from scan job workers; OCR runs outside any transaction so no DB connection is held meanwhile.
+	 * Saving the page, its layout and its content happens afterwards in a single transaction.
+	 * @param sourcePageIndex 0-based page of a multi-page upload (PDF), or null for a single image
+	 */
+	public ScanResponse processStoredPage(Long userId, String imagePath, String originalFilename,
+			int pageNumber, Integer sourcePageIndex, String threadId, OcrOptions ocrOptions) {
 		// Get user from database (userId comes from authenticated token)
 		User user = userRepository.findById(userId)
 				.orElseThrow(() -> new RuntimeException("User not found. Please ensure you are authenticated."));
 
-		// Validate images list
-		if (request.getImage() == null || request.getImage().isEmpty()) {
-			throw new IllegalArgumentException("At least one image file is required");
+		// Check if OCR is available before attempting extraction (cached by the background health probe)
+		boolean ocrAvailable = ocrEngine.isOcrAvailable();
+		if (!ocrAvailable) {
+			log.warn("Tesseract OCR is not available. Skipping OCR extraction for page {}.", pageNumber);
 		}
-
-		// Process each image in the list
-		List<ScanResponse> responses = new java.util.ArrayList<>();
-		int basePageNumber = request.getPageNumber() != null ? request.getPageNumber() : 1;
 		
-		for (int i = 0; i < request.getImage().size(); i++) {
-			org.springframework.web.multipart.MultipartFile imageFile = request.getImage().get(i);
-			
-			try {
-				// Store image file
-				String imagePath = fileStorageService.storeFile(imageFile, user.getId());
-				
-				// Check if OCR is available before attempting extraction
-				boolean ocrAvailable = ocrService.isOcrAvailable();
-				if (!ocrAvailable) {
-					log.warn("Tesseract OCR is not available. Skipping OCR extraction for image {}.", i + 1);
-				}
-				
-				// Perform OCR extraction
-				String extractedText = "";
-				try {
-					if (ocrAvailable) {
-						File file = fileStorageService.getFilePath(imagePath).toFile();
-						extractedText = ocrService.extractText(file);
-						if (extractedText != null && !extractedText.trim().isEmpty()) {
-							log.info("OCR extraction completed for image {}: {} characters", i + 1, extractedText.length());
-						} else {
-							log.warn("OCR extraction returned empty text for image {}. This may indicate image quality issues or OCR configuration problems.", i + 1);
-							extractedText = "";
-						}
-					} else {
-						extractedText = "";
-					}
-				} catch (TesseractException | IOException | Error e) {
-					log.error("OCR extraction failed for image {}: {}", i + 1, e.getMessage(), e);
+		// Perform OCR extraction
+		String extractedText = "";
+		OcrLayout layout = null;
+		try {
+			if (ocrAvailable) {
+				File file = fileStorageService.getFilePath(imagePath).toFile();
+				OcrResult ocrResult = ocrEngine.recognize(file, imagePath, sourcePageIndex != null ? sourcePageIndex : 0, ocrOptions);
+				extractedText = ocrResult.getText();
+				layout = ocrResult.getLayout();
+				if (extractedText != null && !extractedText.trim().isEmpty()) {
+					log.info("OCR extraction completed for page {}: {} characters", pageNumber, extractedText.length());
+				} else {
+					log.warn("OCR extraction returned empty text for page {}. This may indicate image quality issues or OCR configuration problems.", pageNumber);
 					extractedText = "";
-					log.warn("Continuing without OCR for image {}. Image saved but no text extracted.", i + 1);
 				}
+			} else {
+				extractedText = "";
+			}
+		} catch (TesseractException | IOException | Error e) {
+			log.error("OCR extraction failed for page {}: {}", pageNumber, e.getMessage(), e);
+			extractedText = "";
+			log.warn("Continuing without OCR for page {}. Image saved but no text extracted.", pageNumber);
+		}
 
-				// Calculate page number (increment for each image)
-				int pageNumber = basePageNumber + i;
-
-				// Create JournalPage entity
-				JournalPage journalPage = JournalPage.builder()
-						.user(user)
-						.imagePath(imagePath)
-						.originalFilename(imageFile.getOriginalFilename())
-						.extractedText(extractedText)
-						.pageNumber(pageNumber)
-						.threadId(request.getThreadId())
-						.build();
-
-				// Save to database
-				journalPage = journalPageRepository.save(journalPage);
-				log.info("Journal page saved: ID={}, User={}, Page={}, TextLength={}", 
-						journalPage.getId(), user.getId(), journalPage.getPageNumber(), extractedText.length());
-
-				// Extract and save content (tasks, events, notes, emotions)
-				ContentExtractionService.ExtractionResult extractionResult = null;
-				if (!extractedText.isEmpty() && !extractedText.startsWith("OCR extraction failed")) {
-					try {
-						extractionResult = contentExtractionService.extractAndSaveContent(extractedText, journalPage, user);
-						log.info("Content extraction completed for page {}: {} tasks, {} events, {} notes, {} emotions",
-								journalPage.getPageNumber(),
-								extractionResult.getTasksCount(), extractionResult.getEventsCount(),
-								extractionResult.getNotesCount(), extractionResult.getEmotionsCount());
-					} catch (Exception e) {
-						log.error("Content extraction failed for page {}: {}", journalPage.getPageNumber(), e.getMessage(), e);
-					}
-				}
+		// Create JournalPage entity
+		JournalPage newPage = JournalPage.builder()
+				.user(user)
+				.imagePath(imagePath)
+				.originalFilename(originalFilename)
+				.extractedText(extractedText)
+				.pageNumber(pageNumber)
+				.sourcePageIndex(sourcePageIndex)
+				.threadId(threadId)
+				.build();
 
-				// Build response message
-				String message = "Page scanned and saved successfully.";
-				if (extractedText != null && !extractedText.isEmpty()) {
-					message += " OCR extracted " + extractedText.length() + " characters";
-					if (extractionResult != null) {
-						message += String.format(". Extracted: %d tasks, %d events, %d notes, %d emotions",
-								extractionResult.getTasksCount(), extractionResult.getEventsCount(),
-								extractionResult.getNotesCount(), extractionResult.getEmotionsCount());
-					}
-				} else {
-					// Reuse the ocrAvailable variable declared earlier
-					if (!ocrAvailable) {
-						message += " Note: Tesseract OCR is not installed. ";
-						message += "Please install Tesseract OCR to enable text extraction. ";
-						message += "Windows: Download from https://github.com/UB-Mannheim/tesseract/wiki or use 'choco install tesseract'. ";
-						message += "Linux: 'sudo apt-get install tesseract-ocr'. ";
-						message += "Mac: 'brew install tesseract'.";
-					} else {
-						message += " Note: OCR extraction returned empty text. This may indicate image quality issues.";
-					}
-				}
+		// The page, its layout and its content are saved in one transaction once OCR is done, so a
+		// failure leaves nothing half saved; the scan can be retried (OCR results are cached)
+		String text = extractedText;
+		OcrLayout ocrLayout = layout;
+		return transactionTemplate.execute(status -> {
+			JournalPage journalPage = journalPageRepository.save(newPage);
+			log.info("Journal page saved: ID={}, User={}, Page={}, TextLength={}",
+					journalPage.getId(), user.getId(), journalPage.getPageNumber(), text.length());
+
+			// Keep the word layout so content can be re-extracted later without running OCR again
+			if (ocrLayout != null && !text.isEmpty()) {
+				saveLayout(journalPage, ocrLayout);
+			}
+
+			// Extract and save content (tasks, events, notes, emotions)
+			ContentExtractionService.ExtractionResult extractionResult = null;
+			if (!text.isEmpty() && !text.startsWith("OCR extraction failed")) {
+				extractionResult = contentExtractionService.extractAndSaveContent(text, journalPage, user);
+				log.info("Content extraction completed for page {}: {} tasks, {} events, {} notes, {} emotions",
+						journalPage.getPageNumber(),
+						extractionResult.getTasksCount(), extractionResult.getEventsCount(),
+						extractionResult.getNotesCount(), extractionResult.getEmotionsCount());
+			}
+
+			// Build response for this page
+			return ScanResponse.builder()
+					.journalPageId(journalPage.getId())
+					.imagePath(journalPage.getImagePath())
+					.originalFilename(journalPage.getOriginalFilename())
+					.pageNumber(journalPage.getPageNumber())
+					.threadId(journalPage.getThreadId())
+					.scannedAt(journalPage.getScannedAt())
+					.extractedText(text)
+					.message(scanMessage(text, extractionResult, ocrAvailable))
+					.build();
+		});
+	}
 
-				// Build response for this image
-				ScanResponse response = ScanResponse.builder()
-						.journalPageId(journalPage.getId())
-						.imagePath(journalPage.getImagePath())
-						.originalFilename(journalPage.getOriginalFilename())
-						.pageNumber(journalPage.getPageNumber())
-						.threadId(journalPage.getThreadId())
-						.scannedAt(journalPage.getScannedAt())
-						.extractedText(extractedText)
-						.message(message)
-						.build();
-				
-				responses.add(response);
-			} catch (Exception e) {
-				log.error("Error processing image {}: {}", i + 1, e.getMessage(), e);
-				// Add error response for this image
-				responses.add(ScanResponse.builder()
-						.message("Error processing image " + (i + 1) + ": " + e.getMessage())
-						.build());
+	private String scanMessage(String extractedText, ContentExtractionService.ExtractionResult extractionResult,
+			boolean ocrAvailable) {
+		String message = "Page scanned and saved successfully.";
+		if (extractedText != null && !extractedText.isEmpty()) {
+			message += " OCR extracted " + extractedText.length() + " characters";
+			if (extractionResult != null) {
+				message += String.format(". Extracted: %d tasks, %d events, %d notes, %d emotions",
+						extractionResult.getTasksCount(), extractionResult.getEventsCount(),
+						extractionResult.getNotesCount(), extractionResult.getEmotionsCount());
 			}
+		} else {
+			if (!ocrAvailable) {
+				message += " Note: Tesseract OCR is not installed. ";
+				message += "Please install Tesseract OCR to enable text extraction. ";
+				message += "Windows: Download from https://github.com/UB-Mannheim/tesseract/wiki or use 'choco install tesseract'. ";
+				message += "Linux: 'sudo apt-get install tesseract-ocr'. ";
+				message += "Mac: 'brew install tesseract'.";
+			} else {
+				message += " Note: OCR extraction returned empty text. This may indicate image quality issues.";
+			}
+		}
+		return message;
+	}
+
+	/**
+	 * Re-run content extraction for a page from its stored OCR layout; the image is not OCR'd again.
+	 * Pages scanned before layouts were stored fall back to their saved text.
+	 */
+	public ScanResponse reextractPage(Long pageId, Long userId) {
+		User user = userRepository.findById(userId)
+				.orElseThrow(() -> new RuntimeException("User not found. Please ensure you are authenticated."));
+		JournalPage page = journalPageRepository.findByIdAndUserId(pageId, userId)
+				.orElseThrow(() -> new RuntimeException("Journal page not found"));
+
+		String text = journalPageLayoutRepository.findById(page.getId())
+				.map(stored -> OcrLayout.decode(stored.getLayout()).toText())
+				.orElse(page.getExtractedText() != null ? page.getExtractedText() : "");
+		if (text.isEmpty()) {
+			throw new RuntimeException("No extracted text found for this page. Please scan the page first.");
+		}
+		if (!text.equals(page.getExtractedText())) {
+			page.setExtractedText(text);
+			page = journalPageRepository.save(page);
 		}
 
-		return responses;
+		ContentExtractionService.ExtractionResult extractionResult =
+				contentExtractionService.extractAndSaveContent(text, page, user);
+		log.info("Re-extracted page {} from stored layout: {} tasks, {} events, {} notes, {} emotions", page.getId(),
+				extractionResult.getTasksCount(), extractionResult.getEventsCount(),
+				extractionResult.getNotesCount(), extractionResult.getEmotionsCount());
+
+		return ScanResponse.builder()
+				.journalPageId(page.getId())
+				.imagePath(page.getImagePath())
+				.thumbnailUrl(derivativeUrl(page, PageDerivativeService.Kind.THUMBNAIL))
+				.previewUrl(derivativeUrl(page, PageDerivativeService.Kind.PREVIEW))
+				.originalFilename(page.getOriginalFilename())
+				.pageNumber(page.getPageNumber())
+				.threadId(page.getThreadId())
+				.scannedAt(page.getScannedAt())
+				.extractedText(text)
+				.message(String.format("Content re-extracted successfully. Found: %d tasks, %d events, %d notes, %d emotions",
+						extractionResult.getTasksCount(), extractionResult.getEventsCount(),
+						extractionResult.getNotesCount(), extractionResult.getEmotionsCount()))
+				.build();
+	}
+
+	private void saveLayout(JournalPage journalPage, OcrLayout layout) {
+		byte[] encoded = layout.encode();
+		journalPageLayoutRepository.save(JournalPageLayout.builder()
+				.journalPage(journalPage)
+				.layout(encoded)
+				.wordCount(layout.getWordCount())
+				.build());
+		log.debug("Stored OCR layout of page {}: {} words in {} bytes", journalPage.getId(), layout.getWordCount(), encoded.length);
 	}
 
 	public List<ScanResponse> getUserPages(Long userId) {
@@ -163,6 +216,8 @@ public class JournalPageService {
 				.map(page -> ScanResponse.builder()
 						.journalPageId(page.getId())
 						.imagePath(page.getImagePath())
+						.thumbnailUrl(derivativeUrl(page, PageDerivativeService.Kind.THUMBNAIL))
+						.previewUrl(derivativeUrl(page, PageDerivativeService.Kind.PREVIEW))
 						.originalFilename(page.getOriginalFilename())
 						.pageNumber(page.getPageNumber())
 						.threadId(page.getThreadId())
@@ -178,6 +233,8 @@ public class JournalPageService {
 		return ScanResponse.builder()
 				.journalPageId(page.getId())
 				.imagePath(page.getImagePath())
+				.thumbnailUrl(derivativeUrl(page, PageDerivativeService.Kind.THUMBNAIL))
+				.previewUrl(derivativeUrl(page, PageDerivativeService.Kind.PREVIEW))
 				.originalFilename(page.getOriginalFilename())
 				.pageNumber(page.getPageNumber())
 				.threadId(page.getThreadId())
@@ -186,6 +243,84 @@ public class JournalPageService {
 				.build();
 	}
 
+	/**
+	 * Record the thumbnail and preview generated for a page at ingest
+	 */
+	public void attachDerivatives(Long pageId, PageDerivativeService.Derivatives derivatives) {
+		if (journalPageRepository.updateDerivatives(pageId, derivatives.getThumbnailPath(), derivatives.getPreviewPath()) == 0) {
+			throw new RuntimeException("Journal page not found");
+		}
+	}
+
+	/**
+	 * File of a page's thumbnail or preview. Pages scanned before derivatives existed, or whose
+	 * generation failed, get them generated on the derivative workers when first requested.
+	 * @return The file, or empty while it is being generated
+	 */
+	public Optional<Path> getDerivative(Long pageId, Long userId, PageDerivativeService.Kind kind) throws IOException {
+		JournalPage page = journalPageRepository.findByIdAndUserId(pageId, userId)
+				.orElseThrow(() -> new RuntimeException("Journal page not found"));
+		if (MANUAL_ENTRY_IMAGE.equals(page.getImagePath())) {
+			throw new RuntimeException("Journal page has no image");
+		}
+		String path = kind == PageDerivativeService.Kind.THUMBNAIL ? page.getThumbnailPath() : page.getPreviewPath();
+		if (path != null && fileStorageService.fileExists(path)) {
+			return Optional.of(fileStorageService.getFilePath(path));
+		}
+		if (!fileStorageService.fileExists(page.getImagePath())) {
+			throw new RuntimeException("Journal page has no image");
+		}
+		// One generation per page at a time, however often the client asks meanwhile
+		if (derivativesInProgress.add(page.getId())) {
+			derivativeService.generateInBackground(page.getImagePath(), page.getSourcePageIndex())
+					.whenComplete((derivatives, failure) -> {
+						try {
+							if (failure != null) {
+								log.warn("Failed to generate derivatives of page {}: {}", page.getId(), failure.getMessage());
+							} else {
+								journalPageRepository.updateDerivatives(page.getId(), derivatives.getThumbnailPath(),
+										derivatives.getPreviewPath());
+							}
+						} finally {
+							derivativesInProgress.remove(page.getId());
+						}
+					});
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Stored original of a page: the uploaded image or PDF
+	 */
+	public Path getImage(Long pageId, Long userId) throws IOException {
+		JournalPage page = journalPageRepository.findByIdAndUserId(pageId, userId)
+				.orElseThrow(() -> new RuntimeException("Journal page not found"));
+		if (MANUAL_ENTRY_IMAGE.equals(page.getImagePath())) {
+			throw new RuntimeException("Journal page has no image");
+		}
+		// Served from the local cache where it has the file, without asking a remote store first
+		try {
+			return fileStorageService.getFilePath(page.getImagePath());
+		} catch (NoSuchFileException e) {
+			throw new RuntimeException("Journal page has no image");
+		}
+	}
+
+	/**
+	 * API URL of a page's derivative, versioned by its content hash; null if it has not been generated yet
+	 */
+	public static String derivativeUrl(Long pageId, String derivativePath, PageDerivativeService.Kind kind) {
+		if (derivativePath == null) {
+			return null;
+		}
+		return "/api/journal/pages/" + pageId + "/" + kind.name().toLowerCase() + "?v=" + PageDerivativeService.hashOf(derivativePath);
+	}
+
+	private String derivativeUrl(JournalPage page, PageDerivativeService.Kind kind) {
+		return derivativeUrl(page.getId(),
+				kind == PageDerivativeService.Kind.THUMBNAIL ? page.getThumbnailPath() : page.getPreviewPath(), kind);
+	}
+
 	/**
 	 * Get JournalPage entity by ID (for internal use)
 	 */
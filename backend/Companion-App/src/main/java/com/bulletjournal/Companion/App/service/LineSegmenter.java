@@ -0,0 +1,263 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a binarized page into text-line bands with a horizontal projection profile and OCRs
+ * the bands in parallel across the engine pool. Each band becomes exactly one output line, so
+ * line numbers follow the physical lines of the page instead of Tesseract's paragraph layout.
+ */
+@Component
+@Slf4j
+public class LineSegmenter {
+
+	private static final int PAGE_SEG_MODE_LINE = 7; // Treat the image as a single text line
+	private static final int PAGE_SEG_MODE_BLOCK = 6; // Uniform block, for bands holding several lines
+	// Bands this much taller than the median probably hold several lines or a drawing
+	private static final double TALL_BAND_FACTOR = 2.0;
+	private static final int MIN_BAND_HEIGHT = 4;
+
+	private final TesseractEnginePool enginePool;
+	private final ThreadPoolTaskExecutor ocrCandidateExecutor;
+	private final boolean enabled;
+	private final int minLines;
+	private final double minRowInk;
+
+	public LineSegmenter(
+			TesseractEnginePool enginePool,
+			ThreadPoolTaskExecutor ocrCandidateExecutor,
+			@Value("${ocr.segmentation.enabled:true}") boolean enabled,
+			@Value("${ocr.segmentation.min-lines:3}") int minLines,
+			@Value("${ocr.segmentation.min-row-ink:0.005}") double minRowInk) {
+		this.enginePool = enginePool;
+		this.ocrCandidateExecutor = ocrCandidateExecutor;
+		this.enabled = enabled;
+		this.minLines = minLines;
+		this.minRowInk = minRowInk;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Text-line bands of a binarized page, top to bottom.
+	 * Returns an empty list when segmentation is disabled or the page does not look like
+	 * horizontal lines of text (vertical writing, a single block, a drawing), in which case the
+	 * whole page should be OCR'd at once.
+	 */
+	public List<Band> segment(BufferedImage binary) {
+		if (!enabled || binary.getType() != BufferedImage.TYPE_BYTE_BINARY) {
+			return List.of();
+		}
+		int width = binary.getWidth();
+		int height = binary.getHeight();
+		int[] rowInk = rowInk(binary);
+		int threshold = Math.max(2, (int) (width * minRowInk));
+
+		// Runs of rows with ink
+		List<int[]> runs = new ArrayList<>();
+		int start = -1;
+		for (int y = 0; y <= height; y++) {
+			boolean ink = y < height && rowInk[y] >= threshold;
+			if (ink && start < 0) {
+				start = y;
+			} else if (!ink && start >= 0) {
+				runs.add(new int[] {start, y});
+				start = -1;
+			}
+		}
+		if (runs.isEmpty()) {
+			return List.of();
+		}
+
+		// Close gaps that are small relative to a line (dots of i/j, descenders), then drop
+		// slivers such as ruled lines and dot-grid rows
+		int lineHeight = medianHeight(runs);
+		int minGap = Math.max(2, lineHeight / 4);
+		List<int[]> merged = new ArrayList<>();
+		for (int[] run : runs) {
+			int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && run[0] - last[1] < minGap) {
+				last[1] = run[1];
+			} else {
+				merged.add(run);
+			}
+		}
+		merged.removeIf(run -> run[1] - run[0] < MIN_BAND_HEIGHT);
+		if (merged.isEmpty()) {
+			return List.of();
+		}
+		lineHeight = medianHeight(merged);
+		int minHeight = lineHeight / 3;
+		merged.removeIf(run -> run[1] - run[0] < minHeight);
+		if (merged.size() < minLines) {
+			log.debug("Found {} text line(s), below the minimum of {}; OCR the page as a whole", merged.size(), minLines);
+			return List.of();
+		}
+
+		int margin = Math.max(2, lineHeight / 4);
+		List<Band> bands = new ArrayList<>(merged.size());
+		for (int[] run : merged) {
+			boolean tall = run[1] - run[0] > lineHeight * TALL_BAND_FACTOR;
+			bands.add(new Band(Math.max(0, run[0] - margin), Math.min(height, run[1] + margin),
+					tall ? PAGE_SEG_MODE_BLOCK : PAGE_SEG_MODE_LINE));
+		}
+		log.info("Segmented {}x{} page into {} text line bands (median height {} px)", width, height, bands.size(), lineHeight);
+		return bands;
+	}
+
+	/**
+	 * OCR every band on its own pooled engine and join the results, one line per band.
+	 * Empty bands, and bands whose OCR failed, stay as empty lines so line numbers do not shift.
+	 * @param language OCR language(s) as resolved by {@link TesseractEnginePool#resolveLanguage(String)}
+	 * @return The joined text with a character-weighted mean confidence (null if no band had text) and
+	 *         whether every band was read
+	 * @throws TesseractException If no band could be read at all
+	 */
+	public PooledTesseract.PageRecognition recognize(BufferedImage binary, List<Band> bands, String language) throws TesseractException {
+		long start = System.nanoTime();
+		List<Future<PooledTesseract.Recognition>> futures = new ArrayList<>(bands.size());
+		for (Band band : bands) {
+			BufferedImage bandImage = copyRows(binary, band.top, band.bottom);
+			futures.add(ocrCandidateExecutor.submit(() -> enginePool.execute(language,
+					engine -> engine.recognize(bandImage, band.pageSegMode, () -> false))));
+		}
+
+		StringBuilder text = new StringBuilder();
+		List<OcrLayout.Line> layoutLines = new ArrayList<>(bands.size());
+		long weightedConfidence = 0;
+		long characters = 0;
+		TesseractException firstFailure = null;
+		int failures = 0;
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				if (i > 0) {
+					text.append('\n');
+				}
+				PooledTesseract.Recognition line;
+				try {
+					line = futures.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error) {
+						throw (Error) cause; // Native library problem, the caller handles it
+					}
+					failures++;
+					if (firstFailure == null) {
+						firstFailure = cause instanceof TesseractException
+								? (TesseractException) cause : new TesseractException(cause.getMessage(), cause);
+					}
+					log.debug("Line OCR of band {} failed: {}", i + 1, cause.getMessage());
+					layoutLines.add(new OcrLayout.Line(List.of()));
+					continue;
+				}
+				// A band is one line of the page, whatever Tesseract thinks of its layout
+				String lineText = line.getText().replaceAll("\\s*\\R\\s*", " ").trim();
+				text.append(lineText);
+				layoutLines.add(bandLine(line.getLayout(), bands.get(i).top));
+				weightedConfidence += (long) line.getConfidence() * lineText.length();
+				characters += lineText.length();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TesseractException("Interrupted while waiting for line OCR");
+		} finally {
+			for (Future<PooledTesseract.Recognition> future : futures) {
+				future.cancel(false);
+			}
+		}
+
+		if (failures > 0 && failures == bands.size()) {
+			throw firstFailure;
+		}
+		if (failures > 0) {
+			log.warn("Line OCR failed for {} of {} bands, first: {}", failures, bands.size(), firstFailure.getMessage());
+		}
+		log.info("Line OCR of {} bands finished in {} ms", bands.size(), (System.nanoTime() - start) / 1_000_000);
+		PooledTesseract.Recognition joined = characters == 0 ? null
+				: new PooledTesseract.Recognition(PAGE_SEG_MODE_LINE, text.toString(), (int) (weightedConfidence / characters),
+						new OcrLayout(binary.getWidth(), binary.getHeight(), layoutLines));
+		return new PooledTesseract.PageRecognition(joined, failures == 0);
+	}
+
+	/**
+	 * All words of a band as a single layout line in page coordinates, matching the one-line-per-band text
+	 */
+	private OcrLayout.Line bandLine(OcrLayout bandLayout, int bandTop) {
+		List<OcrLayout.Word> words = new ArrayList<>();
+		for (OcrLayout.Line line : bandLayout.translate(bandTop, bandLayout.getHeight() + bandTop).getLines()) {
+			words.addAll(line.getWords());
+		}
+		return new OcrLayout.Line(words);
+	}
+
+	/**
+	 * Ink pixels per row, counted on the packed bits (0 = ink; padding bits never count as paper)
+	 */
+	private int[] rowInk(BufferedImage binary) {
+		int width = binary.getWidth();
+		int height = binary.getHeight();
+		byte[] packed = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+		int stride = (width + 7) >> 3;
+		int[] ink = new int[height];
+		for (int y = 0; y < height; y++) {
+			int paper = 0;
+			for (int i = y * stride, end = i + stride; i < end; i++) {
+				paper += Integer.bitCount(packed[i] & 0xFF);
+			}
+			ink[y] = width - paper;
+		}
+		return ink;
+	}
+
+	/**
+	 * Standalone 1-bit image of a row range; Tesseract needs its own buffer, not a view into the page
+	 */
+	private BufferedImage copyRows(BufferedImage binary, int top, int bottom) {
+		int width = binary.getWidth();
+		int stride = (width + 7) >> 3;
+		BufferedImage band = new BufferedImage(width, bottom - top, BufferedImage.TYPE_BYTE_BINARY);
+		byte[] source = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+		byte[] target = ((DataBufferByte) band.getRaster().getDataBuffer()).getData();
+		System.arraycopy(source, top * stride, target, 0, (bottom - top) * stride);
+		return band;
+	}
+
+	private int medianHeight(List<int[]> runs) {
+		int[] heights = runs.stream().mapToInt(run -> run[1] - run[0]).toArray();
+		Arrays.sort(heights);
+		return heights[heights.length / 2];
+	}
+
+	/**
+	 * Row range [top, bottom) of the page and the PSM used to read it
+	 */
+	public static class Band {
+		private final int top;
+		private final int bottom;
+		private final int pageSegMode;
+
+		public Band(int top, int bottom, int pageSegMode) {
+			this.top = top;
+			this.bottom = bottom;
+			this.pageSegMode = pageSegMode;
+		}
+
+		public int getTop() { return top; }
+		public int getBottom() { return bottom; }
+		public int getPageSegMode() { return pageSegMode; }
+	}
+}
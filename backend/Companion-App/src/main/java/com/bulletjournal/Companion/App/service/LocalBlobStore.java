@@ -0,0 +1,216 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stores files in a directory on local disk (journal.storage.type=local, the default).
+ * Only suitable for a single application node, or several sharing a network file system.
+ */
+@Slf4j
+public class LocalBlobStore implements BlobStore {
+
+	private final Path root;
+
+	public LocalBlobStore(String storagePath) {
+		this.root = Paths.get(storagePath).toAbsolutePath();
+	}
+
+	@Override
+	public Path createTempFile() throws IOException {
+		Files.createDirectories(root);
+		return Files.createTempFile(root, "upload-", ".tmp");
+	}
+
+	@Override
+	public CompletableFuture<Void> put(String key, Path file) {
+		try {
+			Path target = resolve(key);
+			Files.createDirectories(target.getParent());
+			moveIntoPlace(file, target);
+			log.debug("File saved: {}", target);
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	@Override
+	public Path localPath(String key) throws IOException {
+		Path file = resolve(key);
+		if (!Files.exists(file)) {
+			throw new NoSuchFileException(key);
+		}
+		return file;
+	}
+
+	@Override
+	public boolean exists(String key) {
+		return Files.exists(resolve(key));
+	}
+
+	/**
+	 * Hard link where the file system supports it, so no data is copied; copy otherwise
+	 */
+	@Override
+	public void copy(String fromKey, String toKey) throws IOException {
+		Path source = localPath(fromKey);
+		Path target = resolve(toKey);
+		if (Files.exists(target)) {
+			return;
+		}
+		Files.createDirectories(target.getParent());
+		try {
+			Files.createLink(target, source);
+		} catch (FileAlreadyExistsException e) {
+			// Linked concurrently
+		} catch (UnsupportedOperationException | IOException e) {
+			Path temp = target.resolveSibling("link-" + UUID.randomUUID() + ".tmp");
+			try {
+				Files.copy(source, temp);
+				moveIntoPlace(temp, target);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		boolean deleted = Files.deleteIfExists(resolve(key));
+		if (deleted) {
+			log.info("File deleted: {}", key);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Depth-first walk with each directory's entries sorted as their keys sort: a directory by its
+	 * name plus "/", so "a.jpg" comes before everything in "a/" and the order matches String.compareTo
+	 */
+	@Override
+	public Stream<StoredBlob> list(String prefix) throws IOException {
+		Path start = resolve(prefix.substring(0, prefix.lastIndexOf('/') + 1));
+		if (!Files.isDirectory(start)) {
+			return Stream.empty();
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new SortedWalk(start),
+						Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.filter(blob -> blob.getKey().startsWith(prefix));
+	}
+
+	private Path resolve(String key) {
+		Path file = root.resolve(key).normalize();
+		if (!file.startsWith(root)) {
+			throw new IllegalArgumentException("Invalid storage key: " + key);
+		}
+		return file;
+	}
+
+	private String keyOf(Path file) {
+		return root.relativize(file).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Atomic rename where the file system allows it, so a stored file is never seen half-written.
+	 * Two identical uploads racing each other both end up with the same complete file.
+	 */
+	private static void moveIntoPlace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (FileAlreadyExistsException e) {
+			log.debug("{} was stored concurrently", target);
+			Files.deleteIfExists(source);
+		}
+	}
+
+	private class SortedWalk implements Iterator<StoredBlob> {
+		// Remaining entries of each directory on the current path, innermost first
+		private final Deque<Iterator<Path>> pending = new ArrayDeque<>();
+		private StoredBlob next;
+
+		private SortedWalk(Path start) {
+			enter(start);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && !pending.isEmpty()) {
+				Iterator<Path> entries = pending.peek();
+				if (!entries.hasNext()) {
+					pending.pop();
+					continue;
+				}
+				Path entry = entries.next();
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+					if (attributes.isDirectory()) {
+						enter(entry);
+					} else if (attributes.isRegularFile()) {
+						next = new StoredBlob(keyOf(entry), attributes.size(), attributes.lastModifiedTime().toInstant());
+					}
+				} catch (NoSuchFileException e) {
+					// Deleted while walking
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public StoredBlob next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			StoredBlob blob = next;
+			next = null;
+			return blob;
+		}
+
+		private void enter(Path directory) {
+			List<Path> entries;
+			try (Stream<Path> children = Files.list(directory)) {
+				entries = children.collect(Collectors.toList());
+			} catch (NoSuchFileException e) {
+				return;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Map<Path, String> sortKeys = new HashMap<>();
+			for (Path entry : entries) {
+				sortKeys.put(entry, entry.getFileName() + (Files.isDirectory(entry) ? "/" : ""));
+			}
+			entries.sort(Comparator.comparing(sortKeys::get));
+			pending.push(entries.iterator());
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.bulletjournal.Companion.App.service;
+
+import net.sourceforge.tess4j.TesseractException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Text recognition used by the scan pipeline.
+ * The Tesseract-backed {@link OcrService} is the default; the "synthetic-ocr" profile swaps in
+ * {@link SyntheticOcrEngine} so storage, extraction and persistence can be load-tested without
+ * a native OCR install.
+ */
+public interface OcrEngine {
+
+	/**
+	 * Extract text from an image file
+	 * @return Extracted text (empty string if nothing could be read)
+	 */
+	default String extractText(File imageFile, OcrOptions options) throws TesseractException, IOException {
+		return extractText(imageFile, 0, options);
+	}
+
+	/**
+	 * Extract text from one page of an uploaded file
+	 * @param pageIndex 0-based page of a PDF (ignored for single images)
+	 * @return Extracted text (empty string if nothing could be read)
+	 */
+	default String extractText(File imageFile, int pageIndex, OcrOptions options) throws TesseractException, IOException {
+		return recognize(imageFile, pageIndex, options).getText();
+	}
+
+	/**
+	 * Recognize one page of an uploaded file, including word boxes where the engine provides them
+	 * @param pageIndex 0-based page of a PDF (ignored for single images)
+	 * @return The page's text and layout (empty text if nothing could be read, never null)
+	 */
+	OcrResult recognize(File imageFile, int pageIndex, OcrOptions options) throws TesseractException, IOException;
+
+	/**
+	 * Recognize one page of a stored upload; engines may keep intermediate artifacts next to it
+	 * @param imagePath Relative path of the stored upload the file was read from
+	 * @param pageIndex 0-based page of a PDF (ignored for single images)
+	 */
+	default OcrResult recognize(File imageFile, String imagePath, int pageIndex, OcrOptions options)
+			throws TesseractException, IOException {
+		return recognize(imageFile, pageIndex, options);
+	}
+
+	/**
+	 * Whether OCR should be attempted at all; must be cheap enough to call for every page
+	 */
+	boolean isOcrAvailable();
+}
@@ -0,0 +1,155 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.time.Instant;
+
+/**
+ * Background OCR health probe with a circuit breaker.
+ * Tesseract is probed periodically instead of before every image, so the scan path only reads a
+ * volatile flag. Native {@link Error}s (missing library, broken traineddata) from probes or real
+ * scans count towards the breaker; once it trips, scans skip OCR until a probe after the
+ * cool-down succeeds again.
+ */
+@Component
+@Profile("!" + SyntheticOcrEngine.PROFILE)
+@Slf4j
+public class OcrHealthMonitor {
+
+	private static final int PAGE_SEG_MODE = 12;
+	private static final int PROBE_IMAGE_SIZE = 100;
+
+	private final TesseractEnginePool enginePool;
+	private final int failureThreshold;
+	private final long openDurationMs;
+	private final long probeIntervalMs;
+
+	private volatile BreakerState state = BreakerState.CLOSED;
+	private volatile int consecutiveErrors;
+	private volatile Instant openedAt;
+	private volatile Instant lastProbeAt;
+	private volatile Instant lastSuccessAt;
+	private volatile String lastError;
+
+	public OcrHealthMonitor(
+			TesseractEnginePool enginePool,
+			@Value("${ocr.health.failure-threshold:3}") int failureThreshold,
+			@Value("${ocr.health.open-duration-ms:300000}") long openDurationMs,
+			@Value("${ocr.health.probe-interval-ms:60000}") long probeIntervalMs) {
+		this.enginePool = enginePool;
+		this.failureThreshold = failureThreshold;
+		this.openDurationMs = openDurationMs;
+		this.probeIntervalMs = probeIntervalMs;
+	}
+
+	/**
+	 * Whether scans should attempt OCR. Cheap enough to call for every page.
+	 */
+	public boolean isAvailable() {
+		return state != BreakerState.OPEN;
+	}
+
+	/**
+	 * Periodic self-test on a blank image.
+	 * Skipped while the breaker is open and cooling down, and when a real scan succeeded recently
+	 * (that already proves the engines work).
+	 */
+	@Scheduled(initialDelayString = "${ocr.health.initial-delay-ms:0}", fixedDelayString = "${ocr.health.probe-interval-ms:60000}")
+	public void probe() {
+		Instant now = Instant.now();
+		if (state == BreakerState.OPEN) {
+			if (openedAt != null && now.isBefore(openedAt.plusMillis(openDurationMs))) {
+				return;
+			}
+			state = BreakerState.HALF_OPEN;
+			log.info("OCR circuit breaker half-open, probing Tesseract");
+		} else if (lastSuccessAt != null && now.isBefore(lastSuccessAt.plusMillis(probeIntervalMs))) {
+			return;
+		}
+
+		lastProbeAt = now;
+		try {
+			BufferedImage testImage = new BufferedImage(PROBE_IMAGE_SIZE, PROBE_IMAGE_SIZE, BufferedImage.TYPE_BYTE_BINARY);
+			Graphics2D g = testImage.createGraphics();
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, PROBE_IMAGE_SIZE, PROBE_IMAGE_SIZE);
+			g.dispose();
+
+			enginePool.execute(engine -> engine.doOCR(testImage, PAGE_SEG_MODE));
+			recordSuccess();
+			log.debug("Tesseract OCR probe succeeded");
+		} catch (Error e) {
+			recordFailure(e);
+		} catch (TesseractException e) {
+			// Busy pool or a recoverable engine failure; says nothing about the native library
+			log.debug("Tesseract OCR probe inconclusive: {}", e.getMessage());
+			if (state == BreakerState.HALF_OPEN) {
+				state = BreakerState.OPEN;
+			}
+		}
+	}
+
+	/**
+	 * Called after OCR completed without a native error
+	 */
+	public synchronized void recordSuccess() {
+		lastSuccessAt = Instant.now();
+		consecutiveErrors = 0;
+		if (state != BreakerState.CLOSED) {
+			log.info("Tesseract OCR is available again, closing circuit breaker");
+			state = BreakerState.CLOSED;
+		}
+	}
+
+	/**
+	 * Called when OCR failed with a native error
+	 */
+	public synchronized void recordFailure(Error error) {
+		consecutiveErrors++;
+		lastError = error.getClass().getSimpleName() + ": " + error.getMessage();
+		if (state == BreakerState.HALF_OPEN || (state == BreakerState.CLOSED && consecutiveErrors >= failureThreshold)) {
+			state = BreakerState.OPEN;
+			openedAt = Instant.now();
+			log.warn("Tesseract OCR unavailable after {} consecutive native errors, skipping OCR for {} ms: {}",
+					consecutiveErrors, openDurationMs, lastError);
+		}
+	}
+
+	/**
+	 * Actuator health view of the breaker
+	 */
+	public Health health() {
+		Health.Builder builder = switch (state) {
+			case CLOSED -> lastSuccessAt != null ? Health.up() : Health.unknown();
+			case HALF_OPEN -> Health.unknown();
+			case OPEN -> Health.down();
+		};
+		builder.withDetail("circuitBreaker", state.name())
+				.withDetail("consecutiveErrors", consecutiveErrors)
+				.withDetail("poolSize", enginePool.getSize())
+				.withDetail("activeEngines", enginePool.getActiveCount());
+		if (lastProbeAt != null) {
+			builder.withDetail("lastProbeAt", lastProbeAt.toString());
+		}
+		if (lastSuccessAt != null) {
+			builder.withDetail("lastSuccessAt", lastSuccessAt.toString());
+		}
+		if (lastError != null) {
+			builder.withDetail("lastError", lastError);
+		}
+		return builder.build();
+	}
+
+	public enum BreakerState {
+		CLOSED, OPEN, HALF_OPEN
+	}
+}
@@ -0,0 +1,289 @@
+package com.bulletjournal.Companion.App.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Word boxes and confidences of an OCR'd page, grouped into text lines.
+ * Coordinates are pixels of the raster that was OCR'd ({@link #getWidth()} x {@link #getHeight()}).
+ * The layout is captured once per page and persisted in a compact binary form (see {@link #encode()})
+ * so that content extraction can be re-run, or made layout-aware, without OCRing the image again.
+ */
+public class OcrLayout {
+
+	// Binary format: magic, version, then varints (see encode)
+	private static final byte MAGIC_0 = 'L';
+	private static final byte MAGIC_1 = 'Y';
+	private static final byte FORMAT_VERSION = 1;
+	private static final int UNKNOWN_CONFIDENCE = 0xFF;
+	// Left, top, width, height, confidence and text length of a word take at least a byte each
+	private static final int MIN_WORD_BYTES = 6;
+	// TSV columns: level page_num block_num par_num line_num word_num left top width height conf text
+	private static final int TSV_WORD_LEVEL = 5;
+	private static final int TSV_COLUMNS = 12;
+
+	private final int width;
+	private final int height;
+	private final List<Line> lines;
+
+	public OcrLayout(int width, int height, List<Line> lines) {
+		this.width = width;
+		this.height = height;
+		this.lines = Collections.unmodifiableList(lines);
+	}
+
+	public static OcrLayout empty(int width, int height) {
+		return new OcrLayout(width, height, List.of());
+	}
+
+	/**
+	 * Parse Tesseract's TSV output; words are grouped by their block, paragraph and line numbers
+	 */
+	public static OcrLayout fromTsv(String tsv, int width, int height) {
+		Map<String, List<Word>> lineWords = new LinkedHashMap<>();
+		for (String row : tsv.split("\\R")) {
+			String[] columns = row.split("\t", TSV_COLUMNS);
+			if (columns.length < TSV_COLUMNS || !String.valueOf(TSV_WORD_LEVEL).equals(columns[0])) {
+				continue; // Header, page/block/paragraph/line rows
+			}
+			String text = columns[11].trim();
+			if (text.isEmpty()) {
+				continue;
+			}
+			try {
+				float confidence = Float.parseFloat(columns[10]);
+				Word word = new Word(Integer.parseInt(columns[6]), Integer.parseInt(columns[7]),
+						Integer.parseInt(columns[8]), Integer.parseInt(columns[9]),
+						confidence < 0 ? -1 : Math.round(confidence), text);
+				String lineKey = columns[2] + "/" + columns[3] + "/" + columns[4];
+				lineWords.computeIfAbsent(lineKey, key -> new ArrayList<>()).add(word);
+			} catch (NumberFormatException e) {
+				// Malformed row; skip the word rather than lose the page
+			}
+		}
+		List<Line> lines = lineWords.values().stream().map(Line::new).collect(Collectors.toList());
+		return new OcrLayout(width, height, lines);
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public List<Line> getLines() { return lines; }
+
+	public int getWordCount() {
+		return lines.stream().mapToInt(line -> line.getWords().size()).sum();
+	}
+
+	/**
+	 * Plain text of the layout: words separated by spaces, one line per text line
+	 */
+	public String toText() {
+		return lines.stream().map(Line::getText).collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * This layout moved down by the given number of pixels, e.g. from a band back into page coordinates
+	 */
+	public OcrLayout translate(int dy, int pageHeight) {
+		List<Line> moved = new ArrayList<>(lines.size());
+		for (Line line : lines) {
+			List<Word> words = new ArrayList<>(line.getWords().size());
+			for (Word word : line.getWords()) {
+				words.add(new Word(word.left, word.top + dy, word.width, word.height, word.confidence, word.text));
+			}
+			moved.add(new Line(words));
+		}
+		return new OcrLayout(width, pageHeight, moved);
+	}
+
+	/**
+	 * Compact binary form: "LY", version byte, then unsigned varints for the page size and line count.
+	 * Each line has its word count followed by each word's left/top as zig-zag deltas from the
+	 * previous word, width, height, confidence (255 = unknown) and UTF-8 text with its byte length.
+	 * Typical handwritten pages come to a few bytes per word plus the text itself.
+	 */
+	public byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 + getWordCount() * 12);
+		out.write(MAGIC_0);
+		out.write(MAGIC_1);
+		out.write(FORMAT_VERSION);
+		writeVarint(out, width);
+		writeVarint(out, height);
+		writeVarint(out, lines.size());
+		int previousLeft = 0;
+		int previousTop = 0;
+		for (Line line : lines) {
+			writeVarint(out, line.getWords().size());
+			for (Word word : line.getWords()) {
+				writeVarint(out, zigZag(word.left - previousLeft));
+				writeVarint(out, zigZag(word.top - previousTop));
+				writeVarint(out, word.width);
+				writeVarint(out, word.height);
+				out.write(word.confidence < 0 ? UNKNOWN_CONFIDENCE : Math.min(100, word.confidence));
+				byte[] text = word.text.getBytes(StandardCharsets.UTF_8);
+				writeVarint(out, text.length);
+				out.write(text, 0, text.length);
+				previousLeft = word.left;
+				previousTop = word.top;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read a layout written by {@link #encode()}
+	 * @throws IllegalArgumentException If the bytes are not a complete, well-formed layout of a supported version
+	 */
+	public static OcrLayout decode(byte[] bytes) {
+		if (bytes.length < 3 || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+			throw new IllegalArgumentException("Not an OCR layout");
+		}
+		if (bytes[2] != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported OCR layout version: " + bytes[2]);
+		}
+		Reader in = new Reader(bytes, 3);
+		try {
+			int width = in.varint();
+			int height = in.varint();
+			int lineCount = in.count(1);
+			List<Line> lines = new ArrayList<>(lineCount);
+			int left = 0;
+			int top = 0;
+			for (int i = 0; i < lineCount; i++) {
+				int wordCount = in.count(MIN_WORD_BYTES);
+				List<Word> words = new ArrayList<>(wordCount);
+				for (int j = 0; j < wordCount; j++) {
+					left += unZigZag(in.varint());
+					top += unZigZag(in.varint());
+					int wordWidth = in.varint();
+					int wordHeight = in.varint();
+					int confidence = in.unsignedByte();
+					int length = in.count(1);
+					String text = new String(bytes, in.position, length, StandardCharsets.UTF_8);
+					in.position += length;
+					words.add(new Word(left, top, wordWidth, wordHeight,
+							confidence == UNKNOWN_CONFIDENCE ? -1 : confidence, text));
+				}
+				lines.add(new Line(words));
+			}
+			if (in.position != bytes.length) {
+				throw new IllegalArgumentException("Trailing bytes after OCR layout");
+			}
+			return new OcrLayout(width, height, lines);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated OCR layout", e);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static class Reader {
+		private final byte[] bytes;
+		private int position;
+
+		private Reader(byte[] bytes, int position) {
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		private int varint() {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				byte b = bytes[position++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Malformed varint in OCR layout");
+		}
+
+		/**
+		 * A count or length, checked against the bytes left so corrupt input cannot size a huge allocation
+		 * @param minBytes Smallest encoded size of one counted item
+		 */
+		private int count(int minBytes) {
+			int count = varint();
+			if (count < 0 || count > (bytes.length - position) / minBytes) {
+				throw new IllegalArgumentException("Corrupt OCR layout: count " + count + " exceeds the remaining bytes");
+			}
+			return count;
+		}
+
+		private int unsignedByte() {
+			return bytes[position++] & 0xFF;
+		}
+	}
+
+	/**
+	 * One text line; its box is the union of its word boxes
+	 */
+	public static class Line {
+		private final List<Word> words;
+
+		public Line(List<Word> words) {
+			this.words = Collections.unmodifiableList(words);
+		}
+
+		public List<Word> getWords() { return words; }
+
+		public String getText() {
+			return words.stream().map(Word::getText).collect(Collectors.joining(" "));
+		}
+
+		public int getTop() {
+			return words.stream().mapToInt(Word::getTop).min().orElse(0);
+		}
+
+		public int getBottom() {
+			return words.stream().mapToInt(word -> word.top + word.height).max().orElse(0);
+		}
+	}
+
+	/**
+	 * A recognized word with its bounding box and confidence (0-100, -1 if unknown)
+	 */
+	public static class Word {
+		private final int left;
+		private final int top;
+		private final int width;
+		private final int height;
+		private final int confidence;
+		private final String text;
+
+		public Word(int left, int top, int width, int height, int confidence, String text) {
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			this.confidence = confidence;
+			this.text = text;
+		}
+
+		public int getLeft() { return left; }
+		public int getTop() { return top; }
+		public int getWidth() { return width; }
+		public int getHeight() { return height; }
+		public int getConfidence() { return confidence; }
+		public String getText() { return text; }
+	}
+}
@@ -0,0 +1,27 @@
+package com.bulletjournal.Companion.App.service;
+
+/**
+ * Per-request OCR options; unset values fall back to the configured defaults
+ */
+public class OcrOptions {
+	private final ImagePreprocessor.Binarization binarization;
+	private final String language; // Tesseract language codes joined with '+', e.g. "eng+deu"
+
+	public OcrOptions(ImagePreprocessor.Binarization binarization, String language) {
+		this.binarization = binarization;
+		this.language = language;
+	}
+
+	public static OcrOptions defaults() {
+		return new OcrOptions(null, null);
+	}
+
+	public ImagePreprocessor.Binarization getBinarization() { return binarization; }
+	public String getLanguage() { return language; }
+
+	@Override
+	public String toString() {
+		return "binarization=" + (binarization != null ? binarization : "default")
+				+ ", language=" + (language != null ? language : "default");
+	}
+}
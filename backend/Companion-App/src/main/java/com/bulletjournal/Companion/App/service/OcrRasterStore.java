@@ -0,0 +1,149 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Keeps the OCR-ready 1-bit raster of a page next to its original, as a CCITT G4 TIFF
+ * ("7/3f/2a/3f2a….p1.ocr.5d0c9a7e41b2f386.tif", typically a fifth of the packed raster's size).
+ * Re-OCR of a page, with another language or other engine settings, starts from it instead of
+ * decoding, turning, rescaling and binarizing the original again. The file name carries a hash of
+ * the preprocessing settings, so changing them never picks up a raster made under the old ones.
+ */
+@Component
+@Slf4j
+public class OcrRasterStore {
+
+	private static final int HASH_CHARS = 16;
+	private static final String COMPRESSION = "CCITT T.6"; // Group 4 fax coding
+
+	private final FileStorageService fileStorageService;
+	private final boolean enabled;
+	private final Counter hits;
+	private final Counter misses;
+
+	public OcrRasterStore(
+			FileStorageService fileStorageService,
+			@Value("${ocr.raster.enabled:true}") boolean enabled,
+			MeterRegistry meterRegistry) {
+		this.fileStorageService = fileStorageService;
+		this.enabled = enabled;
+		this.hits = Counter.builder("ocr.raster.hits").register(meterRegistry);
+		this.misses = Counter.builder("ocr.raster.misses").register(meterRegistry);
+	}
+
+	/**
+	 * Stored raster of a page, exactly as it was binarized
+	 * @param imagePath Relative path of the stored original, or null if it is not a stored upload
+	 * @param fingerprint Everything besides the image bytes that changes the binarized raster
+	 */
+	public Optional<BufferedImage> load(String imagePath, int pageIndex, String fingerprint) {
+		if (!enabled || imagePath == null) {
+			return Optional.empty();
+		}
+		String rasterPath = rasterPath(imagePath, pageIndex, fingerprint);
+		try {
+			if (!fileStorageService.fileExists(rasterPath)) {
+				misses.increment(); // First OCR of the page, or settings changed since
+				return Optional.empty();
+			}
+			Path file = fileStorageService.getFilePath(rasterPath);
+			BufferedImage raster = ImageIO.read(file.toFile());
+			if (raster == null || raster.getType() != BufferedImage.TYPE_BYTE_BINARY) {
+				throw new IOException("not a bilevel image");
+			}
+			clearPadding(raster);
+			hits.increment();
+			return Optional.of(raster);
+		} catch (IOException e) {
+			log.warn("Ignoring unreadable OCR raster {}: {}", rasterPath, e.getMessage());
+			misses.increment();
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Store a binarized page in the background; failures only cost the next re-OCR its shortcut
+	 */
+	public void store(String imagePath, int pageIndex, String fingerprint, BufferedImage binary) {
+		if (!enabled || imagePath == null || binary.getType() != BufferedImage.TYPE_BYTE_BINARY) {
+			return;
+		}
+		String rasterPath = rasterPath(imagePath, pageIndex, fingerprint);
+		try {
+			fileStorageService.writeFile(rasterPath, encode(binary)).whenComplete((ignored, failure) -> {
+				if (failure != null) {
+					log.warn("Failed to store OCR raster {}: {}", rasterPath, failure.getMessage());
+				}
+			});
+		} catch (IOException e) {
+			log.warn("Failed to store OCR raster {}: {}", rasterPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * The TIFF reader fills the unused bits at the end of each row with 1s; the pipeline's rasters keep
+	 * them 0, and the line segmenter counts on the packed bytes
+	 */
+	private static void clearPadding(BufferedImage raster) {
+		int width = raster.getWidth();
+		int stride = (width + 7) >> 3;
+		int usedBits = width & 7;
+		if (usedBits == 0) {
+			return;
+		}
+		byte mask = (byte) (0xFF << (8 - usedBits));
+		byte[] packed = ((DataBufferByte) raster.getRaster().getDataBuffer()).getData();
+		for (int i = stride - 1; i < packed.length; i += stride) {
+			packed[i] &= mask;
+		}
+	}
+
+	private byte[] encode(BufferedImage binary) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionType(COMPRESSION);
+			writer.write(null, new IIOImage(binary, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+
+	private static String rasterPath(String imagePath, int pageIndex, String fingerprint) {
+		int dot = imagePath.lastIndexOf('.');
+		String base = dot > imagePath.lastIndexOf('/') ? imagePath.substring(0, dot) : imagePath;
+		return base + ".p" + (pageIndex + 1) + ".ocr." + sha256(fingerprint).substring(0, HASH_CHARS) + ".tif";
+	}
+
+	private static String sha256(String value) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
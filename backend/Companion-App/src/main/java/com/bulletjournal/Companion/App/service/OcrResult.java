@@ -0,0 +1,27 @@
+package com.bulletjournal.Companion.App.service;
+
+/**
+ * Text recognized on one page, with its mean confidence and word layout when the engine provides them
+ */
+public class OcrResult {
+
+	private static final OcrResult EMPTY = new OcrResult("", null, null);
+
+	private final String text;
+	private final Integer confidence; // Mean word confidence (0-100), null if unknown
+	private final OcrLayout layout; // Word boxes, null if the engine captured none
+
+	public OcrResult(String text, Integer confidence, OcrLayout layout) {
+		this.text = text;
+		this.confidence = confidence;
+		this.layout = layout;
+	}
+
+	public static OcrResult empty() {
+		return EMPTY;
+	}
+
+	public String getText() { return text; }
+	public Integer getConfidence() { return confidence; }
+	public OcrLayout getLayout() { return layout; }
+}
@@ -0,0 +1,161 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Persistent OCR result cache keyed by the SHA-256 of the image bytes and a fingerprint of the
+ * OCR configuration that produced the text. Re-uploads of the same photo and retried scans skip
+ * OCR entirely. Entries are small JSON files on local disk; the least recently used ones are
+ * evicted once the cache grows beyond its size limit.
+ */
+@Component
+@Slf4j
+public class OcrResultCache {
+
+	private static final String ENTRY_SUFFIX = ".json";
+
+	private final ObjectMapper objectMapper;
+	private final boolean enabled;
+	private final Path cacheDir;
+	private final DirectoryCache cache;
+	private final Counter hits;
+	private final Counter misses;
+
+	public OcrResultCache(
+			ObjectMapper objectMapper,
+			@Value("${ocr.cache.enabled:true}") boolean enabled,
+			@Value("${ocr.cache.path:./uploads/ocr-cache}") String cachePath,
+			@Value("${ocr.cache.max-size-mb:256}") long maxSizeMb,
+			MeterRegistry meterRegistry) {
+		this.objectMapper = objectMapper;
+		this.enabled = enabled;
+		this.cacheDir = Paths.get(cachePath);
+		this.cache = new DirectoryCache("OCR result cache", cacheDir, maxSizeMb * 1024 * 1024, 0,
+				path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX), path -> false);
+		this.hits = Counter.builder("ocr.cache.hits").register(meterRegistry);
+		this.misses = Counter.builder("ocr.cache.misses").register(meterRegistry);
+		Gauge.builder("ocr.cache.size.bytes", cache, DirectoryCache::sizeBytes).register(meterRegistry);
+
+		if (enabled) {
+			try {
+				cache.recount();
+				log.info("OCR result cache at {}: {} KB of {} MB used", cacheDir.toAbsolutePath(),
+						cache.sizeBytes() / 1024, maxSizeMb);
+			} catch (IOException e) {
+				log.warn("OCR result cache directory {} is not usable: {}", cacheDir, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Cache key for an image under the given OCR configuration fingerprint
+	 * @param imageSha256 Hex SHA-256 of the image bytes, as recorded when the upload was stored
+	 */
+	public String keyFor(String imageSha256, String configFingerprint) {
+		String configDigest = HexFormat.of().formatHex(sha256().digest(configFingerprint.getBytes(StandardCharsets.UTF_8)));
+		return imageSha256 + "-" + configDigest.substring(0, 16);
+	}
+
+	/**
+	 * Hex SHA-256 of a file, for images whose digest is not known from storing them
+	 */
+	public static String imageDigest(Path imageFile) throws IOException {
+		MessageDigest digest = sha256();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(imageFile), digest)) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	public Optional<CachedResult> get(String key) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		Path entry = entryPath(key);
+		try {
+			CachedResult result = objectMapper.readValue(entry.toFile(), CachedResult.class);
+			cache.touch(entry);
+			hits.increment();
+			return Optional.of(result);
+		} catch (NoSuchFileException | FileNotFoundException e) {
+			misses.increment();
+			return Optional.empty();
+		} catch (IOException e) {
+			log.warn("Discarding unreadable OCR cache entry {}: {}", key, e.getMessage());
+			cache.remove(entry);
+			misses.increment();
+			return Optional.empty();
+		}
+	}
+
+	public void put(String key, CachedResult result) {
+		if (!enabled) {
+			return;
+		}
+		Path entry = entryPath(key);
+		try {
+			Files.createDirectories(entry.getParent());
+			// Write to a temp file and move it into place so readers never see a partial entry
+			Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+			objectMapper.writeValue(temp.toFile(), result);
+			long previousSize = Files.exists(entry) ? Files.size(entry) : 0;
+			Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			cache.added(Files.size(entry) - previousSize);
+		} catch (IOException e) {
+			log.warn("Failed to write OCR cache entry {}: {}", key, e.getMessage());
+		}
+	}
+
+	private Path entryPath(String key) {
+		// Two-character fan-out keeps directories small
+		return cacheDir.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * OCR output stored for one image and configuration
+	 */
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class CachedResult {
+		private String text;
+		private Integer confidence; // Mean word confidence of the winning PSM mode (null if no text)
+		private Integer pageSegMode;
+		private Instant createdAt;
+		private byte[] layout; // OcrLayout binary form (base64 in the JSON entry), null if none
+	}
+}
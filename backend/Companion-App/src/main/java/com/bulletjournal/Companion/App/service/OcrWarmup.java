@@ -0,0 +1,260 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the traineddata into every pooled Tesseract engine and runs a calibration OCR on each,
+ * in the background once the application has started, so boot is not held up and the first real
+ * scan does not pay for model loading on its request thread.
+ * Until warm-up is over the "ocrWarmup" health component is OUT_OF_SERVICE; it is part of the
+ * readiness group, so an instance only takes traffic once its engines are loaded. A failed or
+ * timed-out warm-up still ends in ready: scans then degrade through {@link OcrHealthMonitor}
+ * like they would at any other time.
+ */
+@Component
+@Profile("!" + SyntheticOcrEngine.PROFILE)
+@Slf4j
+public class OcrWarmup {
+
+	private static final int CALIBRATION_PAGE_SEG_MODE = 6;
+	private static final String CALIBRATION_TEXT = "Call the dentist at 10am";
+	private static final int CALIBRATION_WIDTH = 900;
+	private static final int CALIBRATION_HEIGHT = 120;
+	private static final int CALIBRATION_FONT_SIZE = 48;
+
+	private final TesseractEnginePool enginePool;
+	private final OcrHealthMonitor healthMonitor;
+	private final boolean enabled;
+	private final long timeoutMs;
+	private final Timer engineWarmupTimer;
+	private final AtomicInteger warmedEngines = new AtomicInteger();
+	private final AtomicInteger calibrationConfidence = new AtomicInteger(-1);
+
+	private volatile WarmupState state = WarmupState.PENDING;
+	private volatile Instant startedAt;
+	private volatile Instant finishedAt;
+	private volatile String lastError;
+
+	public OcrWarmup(
+			TesseractEnginePool enginePool,
+			OcrHealthMonitor healthMonitor,
+			@Value("${ocr.warmup.enabled:true}") boolean enabled,
+			@Value("${ocr.warmup.timeout-ms:120000}") long timeoutMs,
+			MeterRegistry meterRegistry) {
+		this.enginePool = enginePool;
+		this.healthMonitor = healthMonitor;
+		this.enabled = enabled;
+		this.timeoutMs = timeoutMs;
+		this.engineWarmupTimer = Timer.builder("ocr.warmup.engine")
+				.description("Traineddata loading and calibration OCR per engine at startup").register(meterRegistry);
+		if (!enabled) {
+			state = WarmupState.DISABLED;
+		}
+	}
+
+	/**
+	 * Start warming up every engine in parallel; returns immediately
+	 */
+	@EventListener(ApplicationStartedEvent.class)
+	public void start() {
+		if (!enabled || state != WarmupState.PENDING) {
+			return;
+		}
+		state = WarmupState.WARMING;
+		startedAt = Instant.now();
+		int engines = enginePool.getSize();
+		BufferedImage calibrationPage = calibrationPage();
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(engines, runnable -> {
+			Thread thread = new Thread(runnable, "ocr-warmup-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// All engines are checked out before any is warmed: the pool hands out the most recently
+		// returned engine first, so engines taken one task at a time could be warmed twice and others never
+		CompletableFuture.supplyAsync(this::checkoutAll, executor)
+				.thenCompose(checkedOut -> CompletableFuture.allOf(checkedOut.stream()
+						.map(engine -> CompletableFuture.runAsync(() -> warmEngine(engine, calibrationPage), executor))
+						.toArray(CompletableFuture<?>[]::new)))
+				.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+				.whenComplete((ignored, failure) -> {
+					finish(failure);
+					executor.shutdown();
+				});
+		log.info("OCR warm-up started for {} engines", engines);
+	}
+
+	/**
+	 * Every engine of the default language; engines a scan is already using are left to it
+	 */
+	private List<PooledTesseract> checkoutAll() {
+		List<PooledTesseract> engines = new ArrayList<>(enginePool.getSize());
+		try {
+			while (engines.size() < enginePool.getSize()) {
+				engines.add(enginePool.checkout());
+			}
+		} catch (TesseractException e) {
+			lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+			log.warn("OCR warm-up got {} of {} engines: {}", engines.size(), enginePool.getSize(), lastError);
+		}
+		return engines;
+	}
+
+	/**
+	 * Load the models of a checked-out engine and run the calibration OCR on it, then return it to the pool
+	 */
+	private void warmEngine(PooledTesseract engine, BufferedImage calibrationPage) {
+		long start = System.nanoTime();
+		boolean healthy = false;
+		try {
+			engine.ensureInitialized();
+			long loadMs = (System.nanoTime() - start) / 1_000_000;
+			PooledTesseract.Recognition recognition = engine.recognize(calibrationPage, CALIBRATION_PAGE_SEG_MODE, () -> false);
+			healthy = true;
+			log.info("OCR engine {} warmed up: traineddata loaded in {} ms, calibration OCR in {} ms",
+					engine.getEngineId(), loadMs, (System.nanoTime() - start) / 1_000_000 - loadMs);
+			engineWarmupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			warmedEngines.incrementAndGet();
+			healthMonitor.recordSuccess();
+			calibrationConfidence.set(recognition.getConfidence());
+			int matched = matchedWords(recognition.getText());
+			if (matched < CALIBRATION_TEXT.split(" ").length) {
+				log.warn("OCR calibration read only {} of the expected words: '{}' (confidence {})",
+						matched, recognition.getText().trim(), recognition.getConfidence());
+			}
+		} catch (Error e) {
+			// Native library or traineddata problem; the breaker decides whether scans skip OCR
+			healthMonitor.recordFailure(e);
+			lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+		} catch (TesseractException | RuntimeException e) {
+			healthy = true; // Recoverable failure, the native handle is still usable
+			lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+			log.warn("OCR engine warm-up failed: {}", lastError);
+		} finally {
+			if (healthy) {
+				enginePool.checkin(engine);
+			} else {
+				enginePool.invalidate(engine);
+			}
+		}
+	}
+
+	private void finish(Throwable failure) {
+		finishedAt = Instant.now();
+		long durationMs = Duration.between(startedAt, finishedAt).toMillis();
+		if (failure instanceof TimeoutException) {
+			state = WarmupState.TIMED_OUT;
+			log.warn("OCR warm-up did not finish within {} ms ({} of {} engines warm); accepting traffic anyway",
+					timeoutMs, warmedEngines.get(), enginePool.getSize());
+		} else if (warmedEngines.get() == 0) {
+			state = WarmupState.FAILED;
+			log.warn("OCR warm-up failed after {} ms, scans will run without OCR until Tesseract works: {}",
+					durationMs, lastError);
+		} else {
+			state = WarmupState.READY;
+			log.info("OCR warm-up finished in {} ms: {} of {} engines warm, calibration confidence {}",
+					durationMs, warmedEngines.get(), enginePool.getSize(), calibrationConfidence.get());
+			if (warmedEngines.get() < enginePool.getSize()) {
+				log.warn("{} OCR engines were not warmed up and load their models on first use: {}",
+						enginePool.getSize() - warmedEngines.get(), lastError);
+			}
+		}
+	}
+
+	/**
+	 * Words of the calibration line that came back as printed (case-insensitive)
+	 */
+	private int matchedWords(String text) {
+		List<String> read = Arrays.asList(text.toLowerCase(Locale.ROOT).split("\\s+"));
+		int matched = 0;
+		for (String word : CALIBRATION_TEXT.toLowerCase(Locale.ROOT).split(" ")) {
+			if (read.contains(word)) {
+				matched++;
+			}
+		}
+		return matched;
+	}
+
+	/**
+	 * One printed line of journal-like text; blank if the JVM has no usable fonts, which still loads the models
+	 */
+	private BufferedImage calibrationPage() {
+		BufferedImage image = new BufferedImage(CALIBRATION_WIDTH, CALIBRATION_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, CALIBRATION_WIDTH, CALIBRATION_HEIGHT);
+			g.setColor(Color.BLACK);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, CALIBRATION_FONT_SIZE));
+			g.drawString(CALIBRATION_TEXT, 30, CALIBRATION_HEIGHT / 2 + CALIBRATION_FONT_SIZE / 3);
+		} catch (RuntimeException | Error e) {
+			log.debug("Could not render OCR calibration text: {}", e.getMessage());
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Whether the warm-up is over, however it ended
+	 */
+	public boolean isDone() {
+		return state != WarmupState.PENDING && state != WarmupState.WARMING;
+	}
+
+	/**
+	 * Actuator health view of the warm-up: OUT_OF_SERVICE until it is over
+	 */
+	public Health health() {
+		Health.Builder builder = isDone() ? Health.up() : Health.outOfService();
+		builder.withDetail("state", state.name())
+				.withDetail("warmEngines", warmedEngines.get())
+				.withDetail("poolSize", enginePool.getSize());
+		if (startedAt != null) {
+			builder.withDetail("startedAt", startedAt.toString());
+		}
+		if (finishedAt != null) {
+			builder.withDetail("durationMs", Duration.between(startedAt, finishedAt).toMillis());
+		}
+		if (calibrationConfidence.get() >= 0) {
+			builder.withDetail("calibrationConfidence", calibrationConfidence.get());
+		}
+		if (lastError != null) {
+			builder.withDetail("lastError", lastError);
+		}
+		return builder.build();
+	}
+
+	public enum WarmupState {
+		PENDING, WARMING, READY, TIMED_OUT, FAILED, DISABLED
+	}
+}
@@ -0,0 +1,294 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import com.bulletjournal.Companion.App.repository.JournalPageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds stored files no journal page refers to any more and reclaims them: uploads whose scan failed
+ * after the file was stored, files of deleted users and temp files of interrupted uploads.
+ * Storage is listed in key order and walked alongside the pages, one user directory at a time, so
+ * only one user's image paths are held in memory. A file counts as in use while a page's image has
+ * the same base name, which keeps thumbnails, previews and OCR rasters with their original.
+ * Orphans are moved to "quarantine/{date}/" and purged after some days (or deleted right away),
+ * at a throttled rate so a pass does not compete with scans for disk or object store requests.
+ * Passes hold a cluster lease, so only one node walks the storage at a time.
+ */
+@Component
+@Slf4j
+public class OrphanFileReclaimer {
+
+	private static final String QUARANTINE_PREFIX = "quarantine/";
+	private static final String LOCK_NAME = "orphan-file-reclaimer";
+
+	private final JournalPageRepository journalPageRepository;
+	private final ImageBlobRepository imageBlobRepository;
+	private final FileStorageService fileStorageService;
+	private final ClusterLock clusterLock;
+	private final boolean enabled;
+	private final long graceMs;
+	private final boolean quarantine;
+	private final int quarantineDays;
+	private final int maxFilesPerSecond;
+	private final int maxFilesPerRun;
+	private final Counter quarantinedFiles;
+	private final Counter deletedFiles;
+	private final Counter purgedFiles;
+	private final Counter reclaimedBytes;
+
+	public OrphanFileReclaimer(
+			JournalPageRepository journalPageRepository,
+			ImageBlobRepository imageBlobRepository,
+			FileStorageService fileStorageService,
+			ClusterLock clusterLock,
+			@Value("${journal.storage.reclaim.enabled:false}") boolean enabled,
+			@Value("${journal.storage.reclaim.grace-ms:86400000}") long graceMs,
+			@Value("${journal.storage.reclaim.mode:quarantine}") String mode,
+			@Value("${journal.storage.reclaim.quarantine-days:7}") int quarantineDays,
+			@Value("${journal.storage.reclaim.max-files-per-second:200}") int maxFilesPerSecond,
+			@Value("${journal.storage.reclaim.max-files-per-run:1000}") int maxFilesPerRun,
+			MeterRegistry meterRegistry) {
+		if (!mode.equalsIgnoreCase("quarantine") && !mode.equalsIgnoreCase("delete")) {
+			throw new IllegalArgumentException("journal.storage.reclaim.mode must be quarantine or delete, not " + mode);
+		}
+		this.journalPageRepository = journalPageRepository;
+		this.imageBlobRepository = imageBlobRepository;
+		this.fileStorageService = fileStorageService;
+		this.clusterLock = clusterLock;
+		this.enabled = enabled;
+		this.graceMs = graceMs;
+		this.quarantine = mode.equalsIgnoreCase("quarantine");
+		this.quarantineDays = quarantineDays;
+		this.maxFilesPerSecond = maxFilesPerSecond;
+		this.maxFilesPerRun = maxFilesPerRun;
+		this.quarantinedFiles = Counter.builder("journal.storage.reclaim.files").tag("action", "quarantined")
+				.description("Orphaned files moved to quarantine").register(meterRegistry);
+		this.deletedFiles = Counter.builder("journal.storage.reclaim.files").tag("action", "deleted")
+				.description("Orphaned files deleted").register(meterRegistry);
+		this.purgedFiles = Counter.builder("journal.storage.reclaim.files").tag("action", "purged")
+				.description("Quarantined files deleted after the quarantine period").register(meterRegistry);
+		this.reclaimedBytes = Counter.builder("journal.storage.reclaim.bytes").baseUnit("bytes")
+				.description("Storage freed by deleting orphaned and quarantined files").register(meterRegistry);
+	}
+
+	/**
+	 * Purge expired quarantine, then reclaim orphans across the whole storage
+	 */
+	@Scheduled(initialDelayString = "${journal.storage.reclaim.interval-ms:21600000}",
+			fixedDelayString = "${journal.storage.reclaim.interval-ms:21600000}")
+	public synchronized void reclaim() {
+		if (!enabled) {
+			return;
+		}
+		Optional<ClusterLock.Lease> lease = clusterLock.tryAcquire(LOCK_NAME);
+		if (lease.isEmpty()) {
+			return; // Another node is on it
+		}
+		try (ClusterLock.Lease held = lease.get()) {
+			purgeQuarantine(held);
+			reclaimOrphans(held);
+		}
+	}
+
+	private void reclaimOrphans(ClusterLock.Lease lease) {
+		Instant cutoff = Instant.now().minusMillis(graceMs);
+		Throttle throttle = new Throttle();
+		int reclaimed = 0;
+		long bytes = 0;
+		String userPrefix = null;
+		Set<String> liveBases = Set.of();
+		try (Stream<BlobStore.StoredBlob> blobs = fileStorageService.listFiles("")) {
+			Iterator<BlobStore.StoredBlob> iterator = blobs.iterator();
+			while (reclaimed < maxFilesPerRun && iterator.hasNext() && throttle.pass() && lease.keepAlive()) {
+				BlobStore.StoredBlob blob = iterator.next();
+				if (blob.getLastModified().isAfter(cutoff)) {
+					continue; // May belong to a scan still queued or in OCR
+				}
+				String key = blob.getKey();
+				String prefix = userPrefix(key);
+				if (prefix == null) {
+					// Top level: only staging leftovers of interrupted uploads are ours to remove
+					if (key.endsWith(".tmp") && reclaim(blob, false, cutoff)) {
+						reclaimed++;
+						bytes += blob.getSizeBytes();
+					}
+					continue;
+				}
+				if (!prefix.equals(userPrefix)) {
+					userPrefix = prefix;
+					liveBases = journalPageRepository.findImagePathsStartingWith(prefix).stream()
+							.map(OrphanFileReclaimer::baseOf)
+							.collect(Collectors.toSet());
+				}
+				if (liveBases.contains(baseOf(key)) || isInUse(key, cutoff)) {
+					continue;
+				}
+				if (reclaim(blob, quarantine, cutoff)) {
+					reclaimed++;
+					bytes += blob.getSizeBytes();
+				}
+			}
+		} catch (IOException | UncheckedIOException e) {
+			log.warn("Orphan file scan stopped early: {}", e.getMessage());
+		}
+		if (reclaimed > 0) {
+			log.info("Reclaimed {} orphaned files ({} KB) after examining {} stored files", reclaimed, bytes / 1024, throttle.passed);
+		}
+	}
+
+	/**
+	 * Delete quarantined files whose quarantine period is over. Keys sort by their ISO date, so the
+	 * listing stops at the first day still kept.
+	 */
+	private void purgeQuarantine(ClusterLock.Lease lease) {
+		LocalDate oldestKept = LocalDate.now().minusDays(quarantineDays);
+		Throttle throttle = new Throttle();
+		try (Stream<BlobStore.StoredBlob> blobs = fileStorageService.listFiles(QUARANTINE_PREFIX)) {
+			Iterator<BlobStore.StoredBlob> iterator = blobs.iterator();
+			while (iterator.hasNext() && throttle.pass() && lease.keepAlive()) {
+				BlobStore.StoredBlob blob = iterator.next();
+				String key = blob.getKey();
+				int dayEnd = key.indexOf('/', QUARANTINE_PREFIX.length());
+				LocalDate day;
+				try {
+					day = dayEnd < 0 ? null : LocalDate.parse(key.substring(QUARANTINE_PREFIX.length(), dayEnd));
+				} catch (DateTimeParseException e) {
+					day = null;
+				}
+				if (day == null) {
+					continue; // Not put there by us
+				}
+				if (!day.isBefore(oldestKept)) {
+					break;
+				}
+				fileStorageService.deleteFile(key);
+				purgedFiles.increment();
+				reclaimedBytes.increment(blob.getSizeBytes());
+			}
+		} catch (IOException | UncheckedIOException e) {
+			log.warn("Quarantine purge stopped early: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Checked again right before a file is reclaimed: a page may have been saved, or an upload
+	 * deduplicated onto the file, since the user's image paths were read
+	 */
+	private boolean isInUse(String key, Instant cutoff) {
+		if (journalPageRepository.existsByImagePathStartingWith(baseOf(key))) {
+			return true;
+		}
+		LocalDateTime storedCutoff = LocalDateTime.ofInstant(cutoff, ZoneId.systemDefault());
+		return imageBlobRepository.findByRelativePath(key)
+				.map(blob -> blob.getLastStoredAt() != null && blob.getLastStoredAt().isAfter(storedCutoff))
+				.orElse(false);
+	}
+
+	/**
+	 * The file is always moved to quarantine first, and the manifest row deleted only if no upload has
+	 * been deduplicated onto it since isInUse: storeFile marks the row before it checks the file, so
+	 * when the delete finds the row marked, the file is linked back and left in place
+	 */
+	private boolean reclaim(BlobStore.StoredBlob blob, boolean toQuarantine, Instant cutoff) {
+		String key = blob.getKey();
+		String quarantined = QUARANTINE_PREFIX + LocalDate.now() + "/" + key;
+		try {
+			fileStorageService.linkFile(key, quarantined);
+			fileStorageService.deleteFile(key);
+			LocalDateTime storedCutoff = LocalDateTime.ofInstant(cutoff, ZoneId.systemDefault());
+			if (imageBlobRepository.deleteIfStoredBefore(key, storedCutoff) == 0
+					&& imageBlobRepository.findByRelativePath(key).isPresent()) {
+				fileStorageService.linkFile(quarantined, key);
+				fileStorageService.deleteFile(quarantined);
+				log.debug("Kept {}: an upload was deduplicated onto it while it was being reclaimed", key);
+				return false;
+			}
+			if (!toQuarantine) {
+				fileStorageService.deleteFile(quarantined);
+			}
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not reclaim orphaned file {}: {}", key, e.getMessage());
+			return false;
+		}
+		if (toQuarantine) {
+			quarantinedFiles.increment();
+		} else {
+			deletedFiles.increment();
+			reclaimedBytes.increment(blob.getSizeBytes());
+		}
+		log.debug("Reclaimed orphaned file {} ({} bytes){}", key, blob.getSizeBytes(), toQuarantine ? " into quarantine" : "");
+		return true;
+	}
+
+	/**
+	 * "{userId}/" for files stored for a user, null for anything else
+	 */
+	static String userPrefix(String key) {
+		int slash = key.indexOf('/');
+		if (slash <= 0) {
+			return null;
+		}
+		for (int i = 0; i < slash; i++) {
+			if (!Character.isDigit(key.charAt(i))) {
+				return null;
+			}
+		}
+		return key.substring(0, slash + 1);
+	}
+
+	/**
+	 * Path up to the first dot of the file name: "7/3f/2a/3f2a….p1.thumb.9c1e….jpg" -> "7/3f/2a/3f2a…"
+	 */
+	static String baseOf(String path) {
+		int dot = path.indexOf('.', path.lastIndexOf('/') + 1);
+		return dot < 0 ? path : path.substring(0, dot);
+	}
+
+	/**
+	 * Paces a pass at max-files-per-second
+	 */
+	private class Throttle {
+		private final long start = System.nanoTime();
+		private long passed;
+
+		/**
+		 * Wait for the next file's turn
+		 * @return False if the thread was interrupted (shutdown), which ends the pass
+		 */
+		private boolean pass() {
+			passed++;
+			if (maxFilesPerSecond <= 0) {
+				return true;
+			}
+			long waitNanos = start + (passed - 1) * 1_000_000_000L / maxFilesPerSecond - System.nanoTime();
+			if (waitNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(waitNanos);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
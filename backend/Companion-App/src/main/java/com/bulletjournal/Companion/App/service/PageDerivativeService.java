@@ -0,0 +1,246 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the JPEG derivatives of an uploaded page once, at ingest: a small thumbnail for page
+ * listings and a mid-size preview for viewing, so galleries never move or decode the originals.
+ * Derivatives are stored next to the original with a hash of their bytes in the file name, e.g.
+ * "7/3f2a….thumb.9c1e4b2d7a0f5e61.jpg", so a URL carrying that hash can be cached for good.
+ */
+@Service
+@Slf4j
+public class PageDerivativeService {
+
+	private static final int HASH_CHARS = 16;
+	private static final int BYTES_PER_PIXEL = 4; // Color rasters are decoded as (A)RGB at worst
+
+	private final FileStorageService fileStorageService;
+	private final ImageDecoder imageDecoder;
+	private final ImageMemoryBudget memoryBudget;
+	private final ThreadPoolTaskExecutor derivativeExecutor;
+	private final boolean enabled;
+	private final int thumbnailSize;
+	private final int previewSize;
+	private final float jpegQuality;
+	private final Timer generationTimer;
+
+	public PageDerivativeService(
+			FileStorageService fileStorageService,
+			ImageDecoder imageDecoder,
+			ImageMemoryBudget memoryBudget,
+			ThreadPoolTaskExecutor derivativeExecutor,
+			@Value("${journal.derivatives.enabled:true}") boolean enabled,
+			@Value("${journal.derivatives.thumbnail-size:320}") int thumbnailSize,
+			@Value("${journal.derivatives.preview-size:1280}") int previewSize,
+			@Value("${journal.derivatives.jpeg-quality:0.8}") float jpegQuality,
+			MeterRegistry meterRegistry) {
+		this.fileStorageService = fileStorageService;
+		this.imageDecoder = imageDecoder;
+		this.memoryBudget = memoryBudget;
+		this.derivativeExecutor = derivativeExecutor;
+		this.enabled = enabled;
+		this.thumbnailSize = thumbnailSize;
+		this.previewSize = Math.max(previewSize, thumbnailSize);
+		this.jpegQuality = jpegQuality;
+		this.generationTimer = Timer.builder("journal.derivatives.generation")
+				.description("Decoding, scaling and storing the thumbnail and preview of a page").register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Generate the derivatives of a stored page on the derivative workers
+	 * @param pageIndex 0-based page of a PDF upload, or null for a single image
+	 * @return The stored derivatives, or null if derivatives are disabled
+	 */
+	public CompletableFuture<Derivatives> generateAsync(String imagePath, Integer pageIndex) {
+		if (!enabled) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return generateInBackground(imagePath, pageIndex);
+	}
+
+	/**
+	 * Generate the derivatives of a stored page on the derivative workers, also when they are not
+	 * generated at ingest (for pages viewed without them)
+	 * @param pageIndex 0-based page of a PDF upload, or null for a single image
+	 */
+	public CompletableFuture<Derivatives> generateInBackground(String imagePath, Integer pageIndex) {
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return generate(imagePath, pageIndex);
+				} catch (IOException e) {
+					throw new IllegalStateException("Could not generate derivatives of " + imagePath + ": " + e.getMessage(), e);
+				}
+			}, derivativeExecutor);
+		} catch (TaskRejectedException e) {
+			// Backlogged: the derivatives are generated when the page is viewed instead
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Decode a stored page once and store its preview and thumbnail
+	 * @param pageIndex 0-based page of a PDF upload, or null for a single image
+	 */
+	public Derivatives generate(String imagePath, Integer pageIndex) throws IOException {
+		long start = System.nanoTime();
+		File original = fileStorageService.getFilePath(imagePath).toFile();
+		// Subsampled decode: the longer side is below twice the preview size, whatever the upload
+		long decodeBytes = 4L * previewSize * previewSize * BYTES_PER_PIXEL;
+		String previewPath;
+		String thumbnailPath;
+		try (ImageMemoryBudget.Reservation reservation = memoryBudget.reserve(decodeBytes)) {
+			BufferedImage decoded = imageDecoder.decodeForDisplay(original, pageIndex != null ? pageIndex : 0, previewSize);
+			reservation.extendTo((long) decoded.getWidth() * decoded.getHeight() * BYTES_PER_PIXEL);
+			BufferedImage preview = fit(decoded, previewSize);
+			previewPath = store(imagePath, pageIndex, Kind.PREVIEW, encode(preview));
+			thumbnailPath = store(imagePath, pageIndex, Kind.THUMBNAIL, encode(fit(preview, thumbnailSize)));
+		}
+		generationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		log.info("Stored derivatives of {}{} in {} ms: {}, {}", imagePath, pageIndex != null ? " page " + (pageIndex + 1) : "",
+				(System.nanoTime() - start) / 1_000_000, thumbnailPath, previewPath);
+		return new Derivatives(thumbnailPath, previewPath);
+	}
+
+	/**
+	 * Content hash embedded in a derivative's file name
+	 */
+	public static String hashOf(String derivativePath) {
+		String name = derivativePath.substring(derivativePath.lastIndexOf('/') + 1);
+		int end = name.lastIndexOf('.');
+		int begin = name.lastIndexOf('.', end - 1);
+		return begin >= 0 ? name.substring(begin + 1, end) : name;
+	}
+
+	/**
+	 * Scale down to fit a square of the given side, keeping the aspect ratio; halves the size in steps
+	 * so bilinear filtering still averages every source pixel. Alpha is flattened onto white.
+	 */
+	private BufferedImage fit(BufferedImage source, int maxSide) {
+		double scale = Math.min(1.0, (double) maxSide / Math.max(source.getWidth(), source.getHeight()));
+		int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * scale));
+		int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+		BufferedImage current = source;
+		do {
+			int width = Math.max(targetWidth, current.getWidth() / 2);
+			int height = Math.max(targetHeight, current.getHeight() / 2);
+			BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = next.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				g.setColor(Color.WHITE);
+				g.fillRect(0, 0, width, height);
+				g.drawImage(current, 0, 0, width, height, null);
+			} finally {
+				g.dispose();
+			}
+			current = next;
+		} while (current.getWidth() > targetWidth || current.getHeight() > targetHeight);
+		return current;
+	}
+
+	private byte[] encode(BufferedImage image) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(jpegQuality);
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Write a derivative next to its original under a name carrying its content hash
+	 * @return Relative path of the derivative, like the original's
+	 */
+	private String store(String imagePath, Integer pageIndex, Kind kind, byte[] jpeg) throws IOException {
+		String base = imagePath.contains(".") ? imagePath.substring(0, imagePath.lastIndexOf('.')) : imagePath;
+		String relativePath = base + (pageIndex != null ? ".p" + (pageIndex + 1) : "") + "." + kind.suffix
+				+ "." + sha256(jpeg).substring(0, HASH_CHARS) + ".jpg";
+		if (!fileStorageService.fileExists(relativePath)) {
+			// Not awaited: readers on this node see the file at once, and a derivative lost to a failed
+			// write is simply generated again when it is next requested
+			fileStorageService.writeFile(relativePath, jpeg).whenComplete((ignored, failure) -> {
+				if (failure != null) {
+					log.warn("Failed to store derivative {}: {}", relativePath, failure.getMessage());
+				}
+			});
+		}
+		return relativePath;
+	}
+
+	private static String sha256(byte[] bytes) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	public enum Kind {
+		THUMBNAIL("thumb"), PREVIEW("preview");
+
+		private final String suffix;
+
+		Kind(String suffix) {
+			this.suffix = suffix;
+		}
+	}
+
+	/**
+	 * Relative paths of the stored derivatives of one page
+	 */
+	public static class Derivatives {
+		private final String thumbnailPath;
+		private final String previewPath;
+
+		public Derivatives(String thumbnailPath, String previewPath) {
+			this.thumbnailPath = thumbnailPath;
+			this.previewPath = previewPath;
+		}
+
+		public String getThumbnailPath() { return thumbnailPath; }
+		public String getPreviewPath() { return previewPath; }
+
+		public String getPath(Kind kind) {
+			return kind == Kind.THUMBNAIL ? thumbnailPath : previewPath;
+		}
+	}
+}
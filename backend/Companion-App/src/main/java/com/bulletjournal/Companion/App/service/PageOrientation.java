@@ -0,0 +1,446 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Puts a page upright before OCR so a single targeted pass can read it.
+ * Text lines are found with projection profiles of the ink on a small proxy: whichever axis gives
+ * the sharper profile is the line direction, and the angle that sharpens it most is the skew.
+ * Lists in a bullet journal are flush-left with ragged right ends, which tells a page turned
+ * clockwise from one turned counter-clockwise (and an upside-down page from an upright one).
+ * The correction is applied in one affine pass over the decoded raster.
+ */
+@Component
+@Slf4j
+public class PageOrientation {
+
+	private static final int PROXY_MAX_SIDE = 1000;
+	// Ink points used for the projections; more adds time, not accuracy
+	private static final int MAX_POINTS = 60_000;
+	private static final int MIN_POINTS = 300;
+	// Components smaller than this (proxy pixels) are dots of a dot grid or specks
+	private static final int MIN_COMPONENT_SIDE = 3;
+	private static final double COARSE_STEP_DEGREES = 0.5;
+	private static final double FINE_STEP_DEGREES = 0.1;
+	// How much sharper the column profile must be before a page counts as turned sideways
+	private static final double SIDEWAYS_MARGIN = 1.25;
+	// Combined evidence (ragged starts over ragged ends, times descender over ascender ink) to turn a page over
+	private static final double UPSIDE_DOWN_EVIDENCE = 3.5;
+	private static final int MIN_LINES = 3;
+
+	private final boolean enabled;
+	private final double maxSkewDegrees;
+	private final double minSkewDegrees;
+
+	public PageOrientation(
+			@Value("${ocr.orientation.enabled:true}") boolean enabled,
+			@Value("${ocr.orientation.max-skew-degrees:10}") double maxSkewDegrees,
+			@Value("${ocr.orientation.min-skew-degrees:0.3}") double minSkewDegrees) {
+		this.enabled = enabled;
+		this.maxSkewDegrees = maxSkewDegrees;
+		this.minSkewDegrees = minSkewDegrees;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * The page turned upright and deskewed, or the same image if it already is (or nothing could be measured)
+	 */
+	public BufferedImage correct(BufferedImage image) {
+		if (!enabled) {
+			return image;
+		}
+		long start = System.nanoTime();
+		Correction correction = detect(image);
+		if (correction.quarterTurns == 0 && Math.abs(correction.skewDegrees) < minSkewDegrees) {
+			log.info("Page orientation: upright, skew {} degrees ({} ms)", String.format("%.1f", correction.skewDegrees),
+					(System.nanoTime() - start) / 1_000_000);
+			return image;
+		}
+		double skew = Math.abs(correction.skewDegrees) < minSkewDegrees ? 0 : correction.skewDegrees;
+		BufferedImage corrected = rotate(image, correction.quarterTurns, skew);
+		log.info("Page orientation: turned {} degrees clockwise, deskewed by {} degrees ({} ms)",
+				correction.quarterTurns * 90, String.format("%.1f", skew), (System.nanoTime() - start) / 1_000_000);
+		return corrected;
+	}
+
+	/**
+	 * Clockwise quarter turns and residual skew (degrees, positive = lines descend to the right)
+	 */
+	Correction detect(BufferedImage image) {
+		PageProxy proxy = PageProxy.of(image, PROXY_MAX_SIDE);
+		int[][] points = inkPoints(proxy);
+		int width = proxy.getWidth();
+		int height = proxy.getHeight();
+		if (points[0].length < MIN_POINTS) {
+			return new Correction(0, 0);
+		}
+
+		double rowSharpness = bestAngle(points[0], points[1])[1];
+		double columnSharpness = bestAngle(points[1], points[0])[1];
+		int quarterTurns = 0;
+		if (columnSharpness > rowSharpness * SIDEWAYS_MARGIN) {
+			// Lines run top to bottom: a clockwise turn makes them horizontal, possibly upside down
+			quarterTurns = 1;
+			points = turnClockwise(points, height);
+			int swap = width;
+			width = height;
+			height = swap;
+		}
+
+		double skew = bestAngle(points[0], points[1])[0];
+		if (isUpsideDown(points, skew)) {
+			quarterTurns += 2; // A half turn leaves the lines' slope unchanged
+		}
+		return new Correction(quarterTurns % 4, skew);
+	}
+
+	/**
+	 * Coordinates of ink in text-sized components; dots, specks, page edges and shadows are left out
+	 */
+	private int[][] inkPoints(PageProxy proxy) {
+		int width = proxy.getWidth();
+		int height = proxy.getHeight();
+		int pixels = width * height;
+		int maxSide = Math.max(width, height) / 3;
+		boolean[] visited = new boolean[pixels];
+		int[] stack = new int[pixels];
+		int[] component = new int[pixels];
+		int[] xs = new int[1024];
+		int[] ys = new int[1024];
+		int count = 0;
+
+		for (int start = 0; start < pixels; start++) {
+			if (visited[start] || !proxy.isInk(start)) {
+				continue;
+			}
+			visited[start] = true;
+			int top = start / width, bottom = top, left = start % width, right = left;
+			int size = 0;
+			int members = 0;
+			stack[size++] = start;
+			while (size > 0) {
+				int index = stack[--size];
+				component[members++] = index;
+				int y = index / width;
+				int x = index - y * width;
+				top = Math.min(top, y);
+				bottom = Math.max(bottom, y);
+				left = Math.min(left, x);
+				right = Math.max(right, x);
+				for (int dy = -1; dy <= 1; dy++) {
+					int ny = y + dy;
+					if (ny < 0 || ny >= height) {
+						continue;
+					}
+					for (int dx = -1; dx <= 1; dx++) {
+						int nx = x + dx;
+						int neighbour = ny * width + nx;
+						if (nx >= 0 && nx < width && !visited[neighbour] && proxy.isInk(neighbour)) {
+							visited[neighbour] = true;
+							stack[size++] = neighbour;
+						}
+					}
+				}
+			}
+
+			int side = Math.max(bottom - top, right - left) + 1;
+			if (side < MIN_COMPONENT_SIDE || side > maxSide) {
+				continue;
+			}
+			if (count + members > xs.length) {
+				int capacity = Math.max(xs.length * 2, count + members);
+				xs = Arrays.copyOf(xs, capacity);
+				ys = Arrays.copyOf(ys, capacity);
+			}
+			for (int i = 0; i < members; i++) {
+				xs[count] = component[i] % width;
+				ys[count] = component[i] / width;
+				count++;
+			}
+		}
+
+		// Thin out evenly when there is more ink than the projections need
+		int stride = Math.max(1, (count + MAX_POINTS - 1) / MAX_POINTS);
+		int kept = (count + stride - 1) / stride;
+		int[] keptXs = new int[kept];
+		int[] keptYs = new int[kept];
+		for (int i = 0, j = 0; i < count; i += stride, j++) {
+			keptXs[j] = xs[i];
+			keptYs[j] = ys[i];
+		}
+		return new int[][] {keptXs, keptYs};
+	}
+
+	/**
+	 * Angle (degrees) whose projection profile across lines y = x * tan(angle) + c is sharpest,
+	 * and that sharpness: sum of squared bin counts relative to a flat profile of the same span
+	 */
+	private double[] bestAngle(int[] xs, int[] ys) {
+		double bestAngle = 0;
+		double bestSharpness = -1;
+		for (double angle = -maxSkewDegrees; angle <= maxSkewDegrees + 1e-9; angle += COARSE_STEP_DEGREES) {
+			double sharpness = sharpness(xs, ys, angle);
+			if (sharpness > bestSharpness) {
+				bestSharpness = sharpness;
+				bestAngle = angle;
+			}
+		}
+		double coarse = bestAngle;
+		for (double angle = coarse - COARSE_STEP_DEGREES; angle <= coarse + COARSE_STEP_DEGREES + 1e-9; angle += FINE_STEP_DEGREES) {
+			double sharpness = sharpness(xs, ys, angle);
+			if (sharpness > bestSharpness) {
+				bestSharpness = sharpness;
+				bestAngle = angle;
+			}
+		}
+		return new double[] {bestAngle, bestSharpness};
+	}
+
+	private double sharpness(int[] xs, int[] ys, double angle) {
+		int[] profile = profile(xs, ys, angle);
+		long sumOfSquares = 0;
+		int first = -1;
+		int last = -1;
+		for (int bin = 0; bin < profile.length; bin++) {
+			if (profile[bin] > 0) {
+				sumOfSquares += (long) profile[bin] * profile[bin];
+				last = bin;
+				if (first < 0) {
+					first = bin;
+				}
+			}
+		}
+		double n = xs.length;
+		return first < 0 ? 0 : sumOfSquares * (double) (last - first + 1) / (n * n);
+	}
+
+	/**
+	 * Ink counts per line position for lines at the given angle (bin = rounded distance across lines)
+	 */
+	private int[] profile(int[] xs, int[] ys, double angle) {
+		double radians = Math.toRadians(angle);
+		double sin = Math.sin(radians);
+		double cos = Math.cos(radians);
+		int extent = 0;
+		for (int i = 0; i < xs.length; i++) {
+			extent = Math.max(extent, Math.max(xs[i], ys[i]));
+		}
+		int offset = 2 * extent + 2;
+		int[] profile = new int[2 * offset];
+		for (int i = 0; i < xs.length; i++) {
+			profile[(int) Math.round(ys[i] * cos - xs[i] * sin) + offset]++;
+		}
+		return profile;
+	}
+
+	/**
+	 * Whether a page whose lines run horizontally reads upside down. Two independent cues must both
+	 * point that way and be convincing together, since turning an upright page over is far costlier
+	 * than leaving an upside-down one: the lines share their right ends rather than their left ends
+	 * (a flush-left list seen upside down), and more ink hangs below the lines' core than rises above
+	 * it (ascenders outnumber descenders in Latin script). Dashboard-style pages with several columns
+	 * give neither cue and are left as they are.
+	 */
+	private boolean isUpsideDown(int[][] points, double angle) {
+		int[] profile = profile(points[0], points[1], angle);
+		List<int[]> bands = lineBands(profile);
+		if (bands.size() < MIN_LINES) {
+			return false;
+		}
+		double flush = flushRatio(points, angle, profile, bands);
+		double ascender = ascenderRatio(profile, bands);
+		return flush > 1 && ascender < 1 && flush > ascender * UPSIDE_DOWN_EVIDENCE;
+	}
+
+	/**
+	 * Text line bands of a projection profile: runs of well-inked bins, bridging gaps of up to three bins
+	 */
+	private List<int[]> lineBands(int[] profile) {
+		int peak = Arrays.stream(profile).max().orElse(0);
+		int threshold = Math.max(2, peak / 10);
+		List<int[]> bands = new ArrayList<>();
+		int bandStart = -1;
+		int lastInked = -1;
+		for (int bin = 0; bin <= profile.length; bin++) {
+			boolean inked = bin < profile.length && profile[bin] >= threshold;
+			if (inked) {
+				if (bandStart < 0) {
+					bandStart = bin;
+				} else if (bin - lastInked > 3) {
+					bands.add(new int[] {bandStart, lastInked});
+					bandStart = bin;
+				}
+				lastInked = bin;
+			}
+		}
+		if (bandStart >= 0) {
+			bands.add(new int[] {bandStart, lastInked});
+		}
+		bands.removeIf(band -> band[1] - band[0] < 2);
+		return bands;
+	}
+
+	/**
+	 * How much more the lines' starts wander than their ends: high for flush-right text
+	 */
+	private double flushRatio(int[][] points, double angle, int[] profile, List<int[]> bands) {
+		int[] xs = points[0];
+		int[] ys = points[1];
+		double radians = Math.toRadians(angle);
+		double sin = Math.sin(radians);
+		double cos = Math.cos(radians);
+		int offset = profile.length / 2;
+		double[] starts = new double[bands.size()];
+		double[] ends = new double[bands.size()];
+		Arrays.fill(starts, Double.MAX_VALUE);
+		Arrays.fill(ends, -Double.MAX_VALUE);
+		for (int i = 0; i < xs.length; i++) {
+			int band = bandOf(bands, (int) Math.round(ys[i] * cos - xs[i] * sin) + offset);
+			if (band >= 0) {
+				double along = xs[i] * cos + ys[i] * sin;
+				starts[band] = Math.min(starts[band], along);
+				ends[band] = Math.max(ends[band], along);
+			}
+		}
+		return medianDeviation(starts) / Math.max(1, medianDeviation(ends));
+	}
+
+	/**
+	 * Ink above the lines' core (the bins holding at least half of a band's peak) relative to the ink below it
+	 */
+	private double ascenderRatio(int[] profile, List<int[]> bands) {
+		long above = 0;
+		long below = 0;
+		for (int[] band : bands) {
+			int peak = 0;
+			for (int bin = band[0]; bin <= band[1]; bin++) {
+				peak = Math.max(peak, profile[bin]);
+			}
+			int coreTop = band[0];
+			while (profile[coreTop] * 2 < peak) {
+				coreTop++;
+			}
+			int coreBottom = band[1];
+			while (profile[coreBottom] * 2 < peak) {
+				coreBottom--;
+			}
+			for (int bin = band[0]; bin < coreTop; bin++) {
+				above += profile[bin];
+			}
+			for (int bin = coreBottom + 1; bin <= band[1]; bin++) {
+				below += profile[bin];
+			}
+		}
+		return (double) above / Math.max(1, below);
+	}
+
+	private int bandOf(List<int[]> bands, int bin) {
+		int low = 0;
+		int high = bands.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int[] band = bands.get(middle);
+			if (bin < band[0]) {
+				high = middle - 1;
+			} else if (bin > band[1]) {
+				low = middle + 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private double medianDeviation(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		double median = sorted[sorted.length / 2];
+		double[] deviations = new double[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			deviations[i] = Math.abs(sorted[i] - median);
+		}
+		Arrays.sort(deviations);
+		return deviations[deviations.length / 2];
+	}
+
+	private int[][] turnClockwise(int[][] points, int height) {
+		int[] xs = new int[points[0].length];
+		int[] ys = new int[points[0].length];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = height - 1 - points[1][i];
+			ys[i] = points[0][i];
+		}
+		return new int[][] {xs, ys};
+	}
+
+	/**
+	 * Rotate by quarter turns plus a small skew correction in a single pass. Right angles alone are
+	 * exact (nearest neighbour); a skew correction interpolates and fills the uncovered corners white.
+	 */
+	static BufferedImage rotate(BufferedImage image, int quarterTurns, double skewDegrees) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean sideways = quarterTurns % 2 != 0;
+		int targetWidth = sideways ? height : width;
+		int targetHeight = sideways ? width : height;
+
+		AffineTransform transform = new AffineTransform();
+		transform.translate(targetWidth / 2.0, targetHeight / 2.0);
+		transform.rotate(quarterTurns * Math.PI / 2 - Math.toRadians(skewDegrees));
+		transform.translate(-width / 2.0, -height / 2.0);
+
+		int type = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+		BufferedImage target = new BufferedImage(targetWidth, targetHeight, type);
+		Graphics2D graphics = target.createGraphics();
+		try {
+			graphics.setColor(Color.WHITE);
+			graphics.fillRect(0, 0, targetWidth, targetHeight);
+		} finally {
+			graphics.dispose();
+		}
+		int interpolation = skewDegrees == 0 ? AffineTransformOp.TYPE_NEAREST_NEIGHBOR : AffineTransformOp.TYPE_BILINEAR;
+		BufferedImage source = image;
+		if (image.getType() != type) {
+			// AffineTransformOp wants matching source and target types
+			source = new BufferedImage(width, height, type);
+			Graphics2D converter = source.createGraphics();
+			try {
+				converter.drawImage(image, 0, 0, null);
+			} finally {
+				converter.dispose();
+			}
+		}
+		new AffineTransformOp(transform, interpolation).filter(source, target);
+		return target;
+	}
+
+	/**
+	 * Clockwise quarter turns (0-3) followed by a skew correction
+	 */
+	static class Correction {
+		private final int quarterTurns;
+		private final double skewDegrees;
+
+		Correction(int quarterTurns, double skewDegrees) {
+			this.quarterTurns = quarterTurns;
+			this.skewDegrees = skewDegrees;
+		}
+
+		int getQuarterTurns() { return quarterTurns; }
+		double getSkewDegrees() { return skewDegrees; }
+	}
+}
@@ -0,0 +1,67 @@
+package com.bulletjournal.Companion.App.service;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Small min-pooled luma copy of a page with an Otsu ink threshold, for cheap page-level
+ * measurements (text height, orientation) that do not need the full raster.
+ * Min-pooling keeps thin pen strokes that plain subsampling would drop.
+ */
+class PageProxy {
+
+	private final int width;
+	private final int height;
+	private final int step;
+	private final byte[] luma;
+	private final int threshold;
+
+	private PageProxy(int width, int height, int step, byte[] luma, int threshold) {
+		this.width = width;
+		this.height = height;
+		this.step = step;
+		this.luma = luma;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Build a proxy whose longest side is at most maxSide pixels
+	 */
+	static PageProxy of(BufferedImage image, int maxSide) {
+		int sourceWidth = image.getWidth();
+		int sourceHeight = image.getHeight();
+		int step = Math.max(1, (int) Math.ceil((double) Math.max(sourceWidth, sourceHeight) / maxSide));
+		int width = (sourceWidth + step - 1) / step;
+		int height = (sourceHeight + step - 1) / step;
+
+		byte[] proxy = new byte[width * height];
+		Arrays.fill(proxy, (byte) 0xFF);
+		ImagePreprocessor.LumaReader reader = ImagePreprocessor.LumaReader.forImage(image);
+		byte[] row = new byte[sourceWidth];
+		int[] scratch = reader.newScratch();
+		for (int y = 0; y < sourceHeight; y++) {
+			reader.readRow(y, row, scratch);
+			int offset = (y / step) * width;
+			for (int x = 0; x < sourceWidth; x++) {
+				int index = offset + x / step;
+				if ((row[x] & 0xFF) < (proxy[index] & 0xFF)) {
+					proxy[index] = row[x];
+				}
+			}
+		}
+		int[] histogram = new int[256];
+		for (byte value : proxy) {
+			histogram[value & 0xFF]++;
+		}
+		return new PageProxy(width, height, step, proxy, ImagePreprocessor.otsuThreshold(histogram));
+	}
+
+	int getWidth() { return width; }
+	int getHeight() { return height; }
+	/** Source pixels per proxy pixel along each axis */
+	int getStep() { return step; }
+
+	boolean isInk(int index) {
+		return (luma[index] & 0xFF) <= threshold;
+	}
+}
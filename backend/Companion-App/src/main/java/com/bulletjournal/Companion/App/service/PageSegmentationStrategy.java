@@ -0,0 +1,254 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the page segmentation mode (PSM) for a page.
+ * Candidate modes run concurrently on separate pooled engines and are scored by Tesseract's mean
+ * word confidence; the best one wins and the rest are cancelled. A candidate that reaches the
+ * early-stop confidence ends the race immediately. Modes that rarely win are pruned from the
+ * candidate set once enough pages have been seen, with periodic full rounds to keep the
+ * statistics honest.
+ */
+@Component
+@Slf4j
+public class PageSegmentationStrategy {
+
+	private static final int MIN_TEXT_LENGTH = 2; // Shorter results are treated as noise
+	// "Single uniform block of vertically aligned text": only useful while a page may still be sideways
+	private static final int VERTICAL_TEXT_MODE = 5;
+
+	private final TesseractEnginePool enginePool;
+	private final ThreadPoolTaskExecutor ocrCandidateExecutor;
+	private final List<Integer> candidateModes;
+	private final int earlyStopConfidence;
+	private final long pruneMinSamples;
+	private final double pruneMinWinRate;
+	private final int exploreEvery;
+
+	// Per-mode statistics in configured order: psm -> stats
+	private final Map<Integer, ModeStats> modeStats = new LinkedHashMap<>();
+	private final AtomicLong pagesSeen = new AtomicLong();
+	private final Counter cancelledCandidates;
+
+	public PageSegmentationStrategy(
+			TesseractEnginePool enginePool,
+			ThreadPoolTaskExecutor ocrCandidateExecutor,
+			@Value("${ocr.psm.candidates:12,11,6,5,4}") String candidates,
+			@Value("${ocr.psm.early-stop-confidence:85}") int earlyStopConfidence,
+			@Value("${ocr.psm.prune-min-samples:50}") long pruneMinSamples,
+			@Value("${ocr.psm.prune-min-win-rate:0.05}") double pruneMinWinRate,
+			@Value("${ocr.psm.explore-every:20}") int exploreEvery,
+			MeterRegistry meterRegistry) {
+		this.enginePool = enginePool;
+		this.ocrCandidateExecutor = ocrCandidateExecutor;
+		this.candidateModes = Arrays.stream(candidates.split(","))
+				.map(String::trim)
+				.filter(mode -> !mode.isEmpty())
+				.map(Integer::valueOf)
+				.distinct()
+				.collect(Collectors.toList());
+		if (candidateModes.isEmpty()) {
+			throw new IllegalArgumentException("ocr.psm.candidates must list at least one page segmentation mode");
+		}
+		this.earlyStopConfidence = earlyStopConfidence;
+		this.pruneMinSamples = pruneMinSamples;
+		this.pruneMinWinRate = pruneMinWinRate;
+		this.exploreEvery = exploreEvery;
+
+		for (int i = 0; i < candidateModes.size(); i++) {
+			int mode = candidateModes.get(i);
+			ModeStats stats = new ModeStats(mode, i,
+					Counter.builder("ocr.psm.wins").tag("psm", String.valueOf(mode)).register(meterRegistry));
+			modeStats.put(mode, stats);
+			Gauge.builder("ocr.psm.win.rate", stats, ModeStats::winRate)
+					.tag("psm", String.valueOf(mode))
+					.description("Share of pages on which this mode was a candidate and won")
+					.register(meterRegistry);
+		}
+		this.cancelledCandidates = Counter.builder("ocr.psm.cancelled")
+				.description("Candidates cancelled because another mode already won").register(meterRegistry);
+		log.info("PSM strategy: candidates={}, earlyStopConfidence={}, pruning below {} win rate after {} pages",
+				candidateModes, earlyStopConfidence, pruneMinWinRate, pruneMinSamples);
+	}
+
+	/**
+	 * Recognize a preprocessed page with the best-scoring page segmentation mode
+	 * @return The winning recognition (null if no mode produced meaningful text) and whether every candidate finished
+	 */
+	public PooledTesseract.PageRecognition recognize(BufferedImage image) throws TesseractException {
+		return recognize(image, false, enginePool.getLanguage());
+	}
+
+	/**
+	 * Recognize a preprocessed page with the best-scoring page segmentation mode
+	 * @param upright Whether the page has already been turned upright, which rules out the vertical-text mode
+	 * @param language OCR language(s) as resolved by {@link TesseractEnginePool#resolveLanguage(String)}
+	 * @return The winning recognition (null if no mode produced meaningful text) and whether every
+	 *         candidate finished; a candidate that failed may have been the winner
+	 */
+	public PooledTesseract.PageRecognition recognize(BufferedImage image, boolean upright, String language) throws TesseractException {
+		List<ModeStats> candidates = selectCandidates();
+		if (upright && candidates.size() > 1) {
+			candidates.removeIf(stats -> stats.mode == VERTICAL_TEXT_MODE);
+		}
+		AtomicBoolean decided = new AtomicBoolean();
+		CompletionService<PooledTesseract.Recognition> completionService = new ExecutorCompletionService<>(ocrCandidateExecutor);
+		List<Future<PooledTesseract.Recognition>> futures = new ArrayList<>(candidates.size());
+		for (ModeStats candidate : candidates) {
+			futures.add(completionService.submit(() -> enginePool.execute(language,
+					engine -> engine.recognize(image, candidate.mode, decided::get))));
+		}
+
+		PooledTesseract.Recognition best = null;
+		TesseractException firstFailure = null;
+		int failures = 0;
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				Future<PooledTesseract.Recognition> future = completionService.take();
+				try {
+					PooledTesseract.Recognition recognition = future.get();
+					log.debug("PSM mode {} scored confidence {} ({} characters)", recognition.getPageSegMode(),
+							recognition.getConfidence(), recognition.getText().trim().length());
+					if (isMeaningful(recognition) && isBetter(recognition, best)) {
+						best = recognition;
+					}
+					if (best != null && best.getConfidence() >= earlyStopConfidence) {
+						break;
+					}
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error) {
+						throw (Error) cause; // Native library problem, the caller handles it
+					}
+					failures++;
+					if (firstFailure == null) {
+						firstFailure = cause instanceof TesseractException
+								? (TesseractException) cause : new TesseractException(cause.getMessage(), cause);
+					}
+					log.debug("PSM candidate failed: {}", cause.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TesseractException("Interrupted while waiting for OCR candidates");
+		} finally {
+			decided.set(true);
+			for (Future<PooledTesseract.Recognition> future : futures) {
+				if (!future.isDone()) {
+					future.cancel(false);
+					cancelledCandidates.increment();
+				}
+			}
+		}
+
+		if (failures == candidates.size()) {
+			throw firstFailure;
+		}
+		if (failures > 0) {
+			log.warn("{} of {} PSM candidates failed, first: {}", failures, candidates.size(), firstFailure.getMessage());
+		}
+		recordRound(candidates, best);
+		return new PooledTesseract.PageRecognition(best, failures == 0);
+	}
+
+	/**
+	 * Candidate modes for the next page, most frequent winners first
+	 */
+	private List<ModeStats> selectCandidates() {
+		long page = pagesSeen.incrementAndGet();
+		List<ModeStats> ranked = modeStats.values().stream()
+				.sorted(Comparator.comparingLong(ModeStats::wins).reversed()
+						.thenComparingInt(stats -> stats.order))
+				.collect(Collectors.toList());
+		if (exploreEvery > 0 && page % exploreEvery == 0) {
+			return ranked; // Exploration round: every mode gets a chance to prove itself again
+		}
+
+		List<ModeStats> selected = new ArrayList<>();
+		for (ModeStats stats : ranked) {
+			if (selected.isEmpty() || stats.trials() < pruneMinSamples || stats.winRate() >= pruneMinWinRate) {
+				selected.add(stats);
+			}
+		}
+		return selected;
+	}
+
+	private void recordRound(List<ModeStats> candidates, PooledTesseract.Recognition winner) {
+		for (ModeStats stats : candidates) {
+			stats.trials.increment();
+		}
+		if (winner != null) {
+			ModeStats stats = modeStats.get(winner.getPageSegMode());
+			stats.wins.increment();
+			stats.winCounter.increment();
+		}
+	}
+
+	private boolean isMeaningful(PooledTesseract.Recognition recognition) {
+		return recognition.getText() != null && recognition.getText().trim().length() >= MIN_TEXT_LENGTH;
+	}
+
+	/**
+	 * Higher confidence wins; ties go to the mode listed first in the configuration
+	 */
+	private boolean isBetter(PooledTesseract.Recognition candidate, PooledTesseract.Recognition best) {
+		if (best == null) {
+			return true;
+		}
+		if (candidate.getConfidence() != best.getConfidence()) {
+			return candidate.getConfidence() > best.getConfidence();
+		}
+		return modeStats.get(candidate.getPageSegMode()).order < modeStats.get(best.getPageSegMode()).order;
+	}
+
+	private static class ModeStats {
+		private final int mode;
+		private final int order;
+		private final Counter winCounter;
+		private final LongAdder trials = new LongAdder();
+		private final LongAdder wins = new LongAdder();
+
+		private ModeStats(int mode, int order, Counter winCounter) {
+			this.mode = mode;
+			this.order = order;
+			this.winCounter = winCounter;
+		}
+
+		private long trials() {
+			return trials.sum();
+		}
+
+		private long wins() {
+			return wins.sum();
+		}
+
+		private double winRate() {
+			long trials = trials();
+			return trials == 0 ? 0.0 : (double) wins() / trials;
+		}
+	}
+}
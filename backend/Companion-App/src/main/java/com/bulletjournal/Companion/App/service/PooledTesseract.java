@@ -0,0 +1,166 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.Tesseract;
+import net.sourceforge.tess4j.TesseractException;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tesseract instance owned by {@link TesseractEnginePool}.
+ * Unlike {@link Tesseract#doOCR(BufferedImage)}, which creates and deletes a native handle
+ * (and reloads the traineddata) on every call, this keeps its handle alive between pages.
+ * Not thread-safe: an instance must only be used by the thread that checked it out.
+ */
+public class PooledTesseract extends Tesseract {
+
+	private final int engineId;
+	private final String language;
+	private boolean initialized;
+
+	public PooledTesseract(int engineId, String language) {
+		this.engineId = engineId;
+		this.language = language;
+	}
+
+	public int getEngineId() {
+		return engineId;
+	}
+
+	/**
+	 * Language(s) whose models this engine loads, e.g. "eng+deu"
+	 */
+	public String getLanguage() {
+		return language;
+	}
+
+	/**
+	 * Run OCR on an image with the given page segmentation mode
+	 */
+	public String doOCR(BufferedImage image, int pageSegMode) throws TesseractException {
+		ensureInitialized();
+		getAPI().TessBaseAPISetPageSegMode(getHandle(), pageSegMode);
+		try {
+			setImage(image, null);
+			return getOCRText(null, 1);
+		} catch (IOException e) {
+			throw new TesseractException("Unable to pass image to Tesseract", e);
+		} finally {
+			getAPI().TessBaseAPIClear(getHandle());
+		}
+	}
+
+	/**
+	 * Run OCR and report Tesseract's mean word confidence along with the text.
+	 * The cancellation check is polled by Tesseract between words, so a losing candidate
+	 * stops early instead of finishing the page.
+	 * @throws CancellationException if the check returned true while recognizing
+	 */
+	public Recognition recognize(BufferedImage image, int pageSegMode, BooleanSupplier cancelled) throws TesseractException {
+		ensureInitialized();
+		getAPI().TessBaseAPISetPageSegMode(getHandle(), pageSegMode);
+		try {
+			setImage(image, null);
+			ITessAPI.ETEXT_DESC monitor = new ITessAPI.ETEXT_DESC();
+			monitor.cancel = (cancelThis, words) -> cancelled.getAsBoolean();
+			int status = getAPI().TessBaseAPIRecognize(getHandle(), monitor);
+			if (cancelled.getAsBoolean()) {
+				throw new CancellationException("Recognition with PSM " + pageSegMode + " cancelled");
+			}
+			if (status != 0) {
+				throw new TesseractException("Recognition with PSM " + pageSegMode + " failed (status " + status + ")");
+			}
+
+			String text = takeText(getAPI().TessBaseAPIGetUTF8Text(getHandle()));
+			// Word boxes come from the same recognition pass, so capturing them costs no extra OCR
+			OcrLayout layout = OcrLayout.fromTsv(takeText(getAPI().TessBaseAPIGetTsvText(getHandle(), 0)),
+					image.getWidth(), image.getHeight());
+			return new Recognition(pageSegMode, text, getAPI().TessBaseAPIMeanTextConf(getHandle()), layout);
+		} catch (IOException e) {
+			throw new TesseractException("Unable to pass image to Tesseract", e);
+		} finally {
+			getAPI().TessBaseAPIClear(getHandle());
+		}
+	}
+
+	/**
+	 * Copy a string returned by Tesseract and free the native buffer
+	 */
+	private String takeText(Pointer textPointer) {
+		if (textPointer == null) {
+			return "";
+		}
+		try {
+			return textPointer.getString(0, StandardCharsets.UTF_8.name());
+		} finally {
+			getAPI().TessDeleteText(textPointer);
+		}
+	}
+
+	/**
+	 * Create the native handle and load traineddata if not done yet
+	 */
+	public void ensureInitialized() {
+		if (!initialized) {
+			init();
+			setVariables();
+			initialized = true;
+		}
+	}
+
+	/**
+	 * Release the native handle
+	 */
+	public void close() {
+		if (initialized) {
+			initialized = false;
+			getAPI().TessBaseAPIEnd(getHandle());
+			dispose();
+		}
+	}
+
+	/**
+	 * Text recognized with one page segmentation mode, its mean word confidence (0-100) and word layout
+	 */
+	public static class Recognition {
+		private final int pageSegMode;
+		private final String text;
+		private final int confidence;
+		private final OcrLayout layout;
+
+		public Recognition(int pageSegMode, String text, int confidence, OcrLayout layout) {
+			this.pageSegMode = pageSegMode;
+			this.text = text;
+			this.confidence = confidence;
+			this.layout = layout;
+		}
+
+		public int getPageSegMode() { return pageSegMode; }
+		public String getText() { return text; }
+		public int getConfidence() { return confidence; }
+		public OcrLayout getLayout() { return layout; }
+	}
+
+	/**
+	 * Outcome of recognizing a page with several engines at once: the result (null if nothing
+	 * meaningful was read) and whether every candidate finished. A result of an incomplete round
+	 * may change on a retry, so it must not be cached.
+	 */
+	public static class PageRecognition {
+		private final Recognition best;
+		private final boolean complete;
+
+		public PageRecognition(Recognition best, boolean complete) {
+			this.best = best;
+			this.complete = complete;
+		}
+
+		public Recognition getBest() { return best; }
+		public boolean isComplete() { return complete; }
+	}
+}
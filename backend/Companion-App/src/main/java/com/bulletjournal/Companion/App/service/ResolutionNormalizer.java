@@ -0,0 +1,165 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Chooses the OCR raster size from the size of the writing rather than the size of the photo.
+ * The text height is estimated from connected components on a small min-pooled proxy of the page,
+ * then the page is scaled so that text lands at Tesseract's preferred height. Upscaling and
+ * downscaling are both capped; when no text can be measured the old minimum-size rule applies.
+ */
+@Component
+@Slf4j
+public class ResolutionNormalizer {
+
+	// Longest side of the proxy image used for measuring
+	private static final int PROXY_MAX_SIDE = 1600;
+	// Fewer measurable components than this and the estimate is not trusted
+	private static final int MIN_COMPONENTS = 20;
+	// Rescaling by less than this fraction is not worth the resampling pass
+	private static final double SCALE_TOLERANCE = 0.15;
+	// Fallback when no text height can be estimated (previous fixed behaviour)
+	private static final int FALLBACK_MIN_SIDE = 2000;
+
+	private final boolean enabled;
+	private final int targetTextHeight;
+	private final double maxUpscale;
+	private final double maxDownscale;
+	private final long maxPixels;
+
+	public ResolutionNormalizer(
+			@Value("${ocr.resolution.enabled:true}") boolean enabled,
+			@Value("${ocr.resolution.target-text-height:24}") int targetTextHeight,
+			@Value("${ocr.resolution.max-upscale:3.0}") double maxUpscale,
+			@Value("${ocr.resolution.max-downscale:4.0}") double maxDownscale,
+			@Value("${ocr.resolution.max-megapixels:40}") int maxMegapixels) {
+		this.enabled = enabled;
+		this.targetTextHeight = targetTextHeight;
+		this.maxUpscale = maxUpscale;
+		this.maxDownscale = maxDownscale;
+		this.maxPixels = maxMegapixels * 1_000_000L;
+	}
+
+	/**
+	 * Scale factor to apply before binarization (1.0 = keep the original size)
+	 */
+	public double scaleFor(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		double textHeight = enabled ? estimateTextHeight(image) : -1;
+
+		double scale;
+		if (textHeight > 0) {
+			scale = targetTextHeight / textHeight;
+		} else {
+			// Nothing measurable: only make sure small images reach the minimum size
+			scale = Math.max(1.0, Math.max((double) FALLBACK_MIN_SIDE / width, (double) FALLBACK_MIN_SIDE / height));
+		}
+		scale = Math.max(1.0 / maxDownscale, Math.min(maxUpscale, scale));
+		// Tiny writing on an already large photo must not explode into a raster Tesseract cannot handle
+		scale = Math.min(scale, Math.max(1.0, Math.sqrt((double) maxPixels / ((long) width * height))));
+		if (Math.abs(scale - 1.0) < SCALE_TOLERANCE) {
+			scale = 1.0;
+		}
+		log.info("Resolution normalization for {}x{} image: text height {} px, scale {}",
+				width, height, textHeight > 0 ? String.format("%.1f", textHeight) : "unknown",
+				String.format("%.2f", scale));
+		return scale;
+	}
+
+	/**
+	 * Typical height in source pixels of text-sized connected components (close to the x-height
+	 * for print, a little above it for joined handwriting), or -1 if the page has too few of them
+	 */
+	double estimateTextHeight(BufferedImage image) {
+		PageProxy proxy = PageProxy.of(image, PROXY_MAX_SIDE);
+		int step = proxy.getStep();
+
+		long[] components = measureComponents(proxy);
+		if (components.length < MIN_COMPONENTS) {
+			log.debug("Only {} text components found, text height unknown", components.length);
+			return -1;
+		}
+
+		// Median height weighted by component width: a page of dot-grid dots or specks still
+		// has far less horizontal extent than its words
+		Arrays.sort(components);
+		long totalWidth = 0;
+		for (long component : components) {
+			totalWidth += component & 0xFFFFFFFFL;
+		}
+		long covered = 0;
+		for (long component : components) {
+			covered += component & 0xFFFFFFFFL;
+			if (covered * 2 >= totalWidth) {
+				return (component >>> 32) * (double) step;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Bounding boxes of 8-connected ink components that could be characters or words, packed as
+	 * (height << 32 | width) so that sorting orders them by height.
+	 * Specks, rules, margins and shadows are filtered out by size.
+	 */
+	private long[] measureComponents(PageProxy proxy) {
+		int width = proxy.getWidth();
+		int height = proxy.getHeight();
+		int pixels = width * height;
+		int maxHeight = Math.max(3, height / 10);
+		int maxWidth = Math.max(3, width / 4);
+		boolean[] visited = new boolean[pixels];
+		int[] stack = new int[pixels];
+		long[] components = new long[64];
+		int count = 0;
+
+		for (int start = 0; start < pixels; start++) {
+			if (visited[start] || !proxy.isInk(start)) {
+				continue;
+			}
+			visited[start] = true;
+			int top = start / width, bottom = top, left = start % width, right = left;
+			int size = 0;
+			stack[size++] = start;
+			while (size > 0) {
+				int index = stack[--size];
+				int y = index / width;
+				int x = index - y * width;
+				top = Math.min(top, y);
+				bottom = Math.max(bottom, y);
+				left = Math.min(left, x);
+				right = Math.max(right, x);
+				for (int dy = -1; dy <= 1; dy++) {
+					int ny = y + dy;
+					if (ny < 0 || ny >= height) {
+						continue;
+					}
+					for (int dx = -1; dx <= 1; dx++) {
+						int nx = x + dx;
+						int neighbour = ny * width + nx;
+						if (nx >= 0 && nx < width && !visited[neighbour] && proxy.isInk(neighbour)) {
+							visited[neighbour] = true;
+							stack[size++] = neighbour;
+						}
+					}
+				}
+			}
+
+			int componentHeight = bottom - top + 1;
+			int componentWidth = right - left + 1;
+			if (componentHeight >= 2 && componentHeight <= maxHeight && componentWidth <= maxWidth) {
+				if (count == components.length) {
+					components = Arrays.copyOf(components, count * 2);
+				}
+				components[count++] = (long) componentHeight << 32 | componentWidth;
+			}
+		}
+		return Arrays.copyOf(components, count);
+	}
+}
@@ -0,0 +1,327 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stores files in a bucket of an S3-compatible object store (journal.storage.type=s3), so any
+ * number of application nodes can serve the same journals; MinIO works as a local stand-in.
+ * Writes are asynchronous and go out as multipart uploads above the configured size. Every file
+ * written or read through this node is kept in a local read-through cache, which is what readers
+ * are handed; the least recently used files are evicted beyond its size limit, but never one whose
+ * upload is still running.
+ */
+@Slf4j
+public class S3BlobStore implements BlobStore, AutoCloseable {
+
+	private static final String STAGING_DIR = ".staging";
+	// Files handed out this recently may still be being read (or sent by Tomcat after the request)
+	private static final long MIN_EVICTION_AGE_MS = 60_000;
+
+	private final S3AsyncClient client;
+	private final String bucket;
+	private final Path cacheDir;
+	private final Path stagingDir;
+	private final DirectoryCache cache;
+	// Keys whose upload has not completed yet; their cached file is the only copy
+	private final Set<String> pendingUploads = ConcurrentHashMap.newKeySet();
+	// One download per key at a time, shared by concurrent readers
+	private final Map<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+	private final Counter cacheHits;
+	private final Counter cacheMisses;
+
+	public S3BlobStore(S3AsyncClient client, String bucket, String cachePath, long maxCacheMb, MeterRegistry meterRegistry)
+			throws IOException {
+		this.client = client;
+		this.bucket = bucket;
+		this.cacheDir = Paths.get(cachePath).toAbsolutePath();
+		this.stagingDir = cacheDir.resolve(STAGING_DIR);
+		this.cache = new DirectoryCache("blob cache", cacheDir, maxCacheMb * 1024 * 1024, MIN_EVICTION_AGE_MS,
+				path -> !path.startsWith(stagingDir),
+				// Until its upload completes, the cached file is the only copy
+				path -> pendingUploads.contains(cacheDir.relativize(path).toString().replace('\\', '/')));
+		this.cacheHits = Counter.builder("journal.storage.cache.hits").register(meterRegistry);
+		this.cacheMisses = Counter.builder("journal.storage.cache.misses").register(meterRegistry);
+		Gauge.builder("journal.storage.cache.size.bytes", cache, DirectoryCache::sizeBytes).register(meterRegistry);
+		Gauge.builder("journal.storage.uploads.pending", pendingUploads, Set::size).register(meterRegistry);
+
+		try {
+			client.headBucket(HeadBucketRequest.builder().bucket(bucket).build()).join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException("S3 bucket " + bucket + " is not accessible: " + e.getCause().getMessage(), e.getCause());
+		}
+		Files.createDirectories(stagingDir);
+		// Staged files left by a crash were never acknowledged to anyone
+		try (Stream<Path> staged = Files.list(stagingDir)) {
+			for (Path file : staged.collect(Collectors.toList())) {
+				Files.deleteIfExists(file);
+			}
+		}
+		cache.recount();
+		log.info("S3 blob store: bucket {}, local cache at {} ({} KB of {} MB used)", bucket, cacheDir,
+				cache.sizeBytes() / 1024, maxCacheMb);
+	}
+
+	@Override
+	public Path createTempFile() throws IOException {
+		return Files.createTempFile(stagingDir, "upload-", ".tmp");
+	}
+
+	@Override
+	public CompletableFuture<Void> put(String key, Path file) {
+		Path cached = cachePath(key);
+		long size;
+		try {
+			Files.createDirectories(cached.getParent());
+			size = Files.size(file);
+			pendingUploads.add(key);
+			Files.move(file, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			pendingUploads.remove(key);
+			return CompletableFuture.failedFuture(e);
+		}
+		cache.added(size);
+
+		PutObjectRequest request = PutObjectRequest.builder().bucket(bucket).key(key).contentLength(size).build();
+		return client.putObject(request, AsyncRequestBody.fromFile(cached))
+				.handle((response, failure) -> {
+					pendingUploads.remove(key);
+					if (failure != null) {
+						// Not stored after all: no reader may find the file in the cache either
+						log.warn("Upload of {} to bucket {} failed: {}", key, bucket, unwrap(failure).getMessage());
+						cache.remove(cached);
+						throw new CompletionException(unwrap(failure));
+					}
+					log.debug("Uploaded {} ({} KB) to bucket {}", key, size / 1024, bucket);
+					return null;
+				});
+	}
+
+	@Override
+	public Path localPath(String key) throws IOException {
+		Path cached = cachePath(key);
+		if (cache.touch(cached)) {
+			cacheHits.increment();
+			return cached;
+		}
+		cacheMisses.increment();
+		CompletableFuture<Path> download = downloads.computeIfAbsent(key, this::download);
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + key, e);
+		} catch (ExecutionException e) {
+			throw toIOException(key, e.getCause());
+		} finally {
+			downloads.remove(key, download);
+		}
+	}
+
+	/**
+	 * Asked of the bucket, not the local cache: another node may have deleted the object while this
+	 * one still has it cached, and a write skipped on the strength of that copy would be lost
+	 */
+	@Override
+	public boolean exists(String key) throws IOException {
+		if (pendingUploads.contains(key)) {
+			return true; // Being uploaded from this node
+		}
+		try {
+			client.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).join();
+			return true;
+		} catch (CompletionException e) {
+			if (isNotFound(e.getCause())) {
+				return false;
+			}
+			throw toIOException(key, e.getCause());
+		}
+	}
+
+	/**
+	 * Copied inside the object store, without passing the bytes through this node
+	 */
+	@Override
+	public void copy(String fromKey, String toKey) throws IOException {
+		if (exists(toKey)) {
+			return;
+		}
+		try {
+			client.copyObject(CopyObjectRequest.builder()
+					.sourceBucket(bucket).sourceKey(fromKey)
+					.destinationBucket(bucket).destinationKey(toKey)
+					.build()).join();
+		} catch (CompletionException e) {
+			throw toIOException(fromKey, e.getCause());
+		}
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		boolean existed = exists(key);
+		try {
+			client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build()).join();
+		} catch (CompletionException e) {
+			throw toIOException(key, e.getCause());
+		}
+		cache.remove(cachePath(key));
+		if (existed) {
+			log.info("File deleted: {}", key);
+		}
+		return existed;
+	}
+
+	/**
+	 * Listed a page of keys at a time as the stream is consumed; S3 returns keys in UTF-8 byte order,
+	 * which is String order for the ASCII keys stored here
+	 */
+	@Override
+	public Stream<StoredBlob> list(String prefix) {
+		Iterator<StoredBlob> blobs = new Iterator<>() {
+			private Iterator<S3Object> page = Collections.emptyIterator();
+			private String continuationToken;
+			private boolean truncated = true;
+
+			@Override
+			public boolean hasNext() {
+				while (!page.hasNext() && truncated) {
+					ListObjectsV2Response response;
+					try {
+						response = client.listObjectsV2(ListObjectsV2Request.builder()
+								.bucket(bucket).prefix(prefix).continuationToken(continuationToken)
+								.build()).join();
+					} catch (CompletionException e) {
+						throw new UncheckedIOException(toIOException(prefix, e.getCause()));
+					}
+					page = response.contents().iterator();
+					continuationToken = response.nextContinuationToken();
+					truncated = Boolean.TRUE.equals(response.isTruncated());
+				}
+				return page.hasNext();
+			}
+
+			@Override
+			public StoredBlob next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				S3Object object = page.next();
+				return new StoredBlob(object.key(), object.size(), object.lastModified());
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(blobs, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public void close() {
+		if (!pendingUploads.isEmpty()) {
+			log.warn("Closing S3 blob store with {} uploads still running", pendingUploads.size());
+		}
+		client.close();
+	}
+
+	/**
+	 * Fetch an object into a staging file and move it into the cache once complete,
+	 * so a reader never sees a partial file
+	 */
+	private CompletableFuture<Path> download(String key) {
+		Path cached = cachePath(key);
+		Path temp = stagingDir.resolve("download-" + UUID.randomUUID() + ".tmp");
+		try {
+			Files.createDirectories(cached.getParent());
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key).build();
+		return client.getObject(request, AsyncResponseTransformer.<GetObjectResponse>toFile(temp))
+				.thenApply(response -> {
+					try {
+						Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+						cache.added(Files.size(cached));
+						return cached;
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				})
+				.whenComplete((path, failure) -> {
+					if (failure != null) {
+						deleteQuietly(temp);
+					}
+				});
+	}
+
+	private Path cachePath(String key) {
+		Path file = cacheDir.resolve(key).normalize();
+		if (!file.startsWith(cacheDir) || file.startsWith(stagingDir)) {
+			throw new IllegalArgumentException("Invalid storage key: " + key);
+		}
+		return file;
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.debug("Failed to delete {}: {}", file, e.getMessage());
+		}
+	}
+
+	private static Throwable unwrap(Throwable failure) {
+		return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+	}
+
+	private static boolean isNotFound(Throwable failure) {
+		Throwable cause = unwrap(failure);
+		return cause instanceof S3Exception && ((S3Exception) cause).statusCode() == 404;
+	}
+
+	private static IOException toIOException(String key, Throwable failure) {
+		Throwable cause = unwrap(failure);
+		if (isNotFound(cause)) {
+			return new NoSuchFileException(key);
+		}
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		return new IOException("Object store request for " + key + " failed: " + cause.getMessage(), cause);
+	}
+}
@@ -0,0 +1,425 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.dto.ScanJobPageResponse;
+import com.bulletjournal.Companion.App.dto.ScanJobResponse;
+import com.bulletjournal.Companion.App.dto.ScanQueueResponse;
+import com.bulletjournal.Companion.App.dto.ScanRequest;
+import com.bulletjournal.Companion.App.dto.ScanResponse;
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous scan pipeline: uploads are stored on the request thread, then each page is
+ * queued for OCR, persistence and content extraction. Pages are handed to the scan workers by
+ * {@link FairScanScheduler}, which shares the workers between users, so a bulk upload does not
+ * hold up other users' scans. A PDF upload becomes one queued page per PDF page, so its pages
+ * are OCR'd in parallel.
+ * Job state is kept in memory on the node that accepted the upload; the results themselves
+ * are persisted as journal pages.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ScanJobService {
+
+	public static final String JOBS_PATH = "/api/journal/scan/jobs/";
+
+	private final UserRepository userRepository;
+	private final FileStorageService fileStorageService;
+	private final JournalPageService journalPageService;
+	private final ImageDecoder imageDecoder;
+	private final FairScanScheduler scanScheduler;
+	private final TesseractEnginePool enginePool;
+	private final PageDerivativeService derivativeService;
+
+	// Active and recently finished jobs: jobId -> job
+	private final Map<String, ScanJob> jobs = new ConcurrentHashMap<>();
+
+	@Value("${scan.jobs.retention-minutes:60}")
+	private long retentionMinutes;
+
+	@Value("${scan.jobs.max-pdf-pages:200}")
+	private int maxPdfPages;
+
+	/**
+	 * Store the uploaded images and enqueue them for processing
+	 */
+	public ScanJobResponse submit(Long userId, ScanRequest request) {
+		User user = userRepository.findById(userId)
+				.orElseThrow(() -> new RuntimeException("User not found. Please ensure you are authenticated."));
+
+		// Validate images list
+		if (request.getImage() == null || request.getImage().isEmpty()) {
+			throw new IllegalArgumentException("At least one image file is required");
+		}
+
+		// Rejects unknown modes and languages with IllegalArgumentException before anything is stored
+		String language = request.getLanguage() != null && !request.getLanguage().isBlank()
+				? request.getLanguage() : user.getOcrLanguage();
+		OcrOptions ocrOptions = new OcrOptions(request.getBinarization() != null
+				&& !request.getBinarization().isBlank()
+				? ImagePreprocessor.Binarization.fromName(request.getBinarization()) : null,
+				enginePool.resolveLanguage(language));
+
+		// A PDF is queued as one page per PDF page, so count them all and refuse the whole job up
+		// front rather than storing files that can never be processed
+		List<Upload> uploads = request.getImage().stream().map(this::inspect).collect(Collectors.toList());
+		int queuedPages = uploads.stream().mapToInt(Upload::queuedPages).sum();
+		if (scanScheduler.remainingCapacity() < queuedPages) {
+			throw new TaskRejectedException("Scan queue is full. Please retry in a moment.");
+		}
+
+		ScanJob job = new ScanJob(UUID.randomUUID().toString(), userId, ocrOptions);
+		int nextPageNumber = request.getPageNumber() != null ? request.getPageNumber() : 1;
+
+		for (Upload upload : uploads) {
+			MultipartFile imageFile = upload.file;
+			String imagePath = null;
+			boolean created = false;
+			try {
+				upload.validate();
+				// Uploads must be stored on the request thread; the multipart temp files are gone afterwards
+				FileStorageService.StoredFile stored = fileStorageService.storeFile(imageFile, userId);
+				imagePath = stored.getRelativePath();
+				created = stored.isCreated();
+				File storedFile = fileStorageService.getFilePath(imagePath).toFile();
+				if (upload.pdfPages != null) {
+					// One journal page per PDF page; pages are rendered lazily by the workers.
+					// All pages of a PDF usually share a page size, so the first one prices them all
+					int workUnits = workUnits(storedFile, 0);
+					for (int pdfPage = 0; pdfPage < upload.pdfPages; pdfPage++) {
+						job.addPage(imageFile.getOriginalFilename(), nextPageNumber++, imagePath, pdfPage).workUnits = workUnits;
+					}
+				} else {
+					job.addPage(imageFile.getOriginalFilename(), nextPageNumber++, imagePath, null).workUnits =
+							workUnits(storedFile, 0);
+				}
+			} catch (IllegalArgumentException | IOException e) {
+				ScanJobPage page = job.addPage(imageFile.getOriginalFilename(), nextPageNumber++, null, null);
+				log.error("Error storing image {} of scan job {}: {}", page.index, job.id, e.getMessage());
+				page.fail("Error processing image " + page.index + ": " + e.getMessage());
+				if (created) {
+					deleteQuietly(imagePath); // A reused file belongs to earlier pages as well
+				}
+			}
+		}
+
+		jobs.put(job.id, job);
+		if (job.countPending() == 0) {
+			job.completedAt = LocalDateTime.now(); // Nothing was stored, so nothing to wait for
+		}
+		for (ScanJobPage page : job.pages) {
+			if (page.status == PageStatus.QUEUED) {
+				// Thumbnails and previews are rendered alongside, without waiting for a scan worker
+				page.derivatives = derivativeService.generateAsync(page.imagePath, page.sourcePageIndex);
+				enqueue(job, page, request.getThreadId());
+			}
+		}
+		log.info("Scan job {} submitted for user {}: {} page(s)", job.id, userId, job.pages.size());
+		return toResponse(job);
+	}
+
+	public ScanJobResponse getJob(String jobId, Long userId) {
+		ScanJob job = jobs.get(jobId);
+		if (job == null || !job.userId.equals(userId)) {
+			throw new RuntimeException("Scan job not found");
+		}
+		return toResponse(job);
+	}
+
+	public List<ScanJobResponse> getUserJobs(Long userId) {
+		return jobs.values().stream()
+				.filter(job -> job.userId.equals(userId))
+				.sorted(Comparator.comparing((ScanJob job) -> job.submittedAt).reversed())
+				.map(this::toResponse)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * The user's pages waiting for a worker and in progress, and the overall queue
+	 */
+	public ScanQueueResponse getQueue(Long userId) {
+		FairScanScheduler.UserLoad load = scanScheduler.getUserLoad(userId);
+		return ScanQueueResponse.builder()
+				.queuedPages(load.getQueued())
+				.runningPages(load.getRunning())
+				.totalQueuedPages(scanScheduler.getQueuedPages())
+				.queuedUsers(scanScheduler.getQueuedUsers())
+				.workers(scanScheduler.getWorkers())
+				.maxWorkersPerUser(scanScheduler.getMaxWorkersPerUser())
+				.build();
+	}
+
+	/**
+	 * Forget finished jobs after the retention period
+	 */
+	@Scheduled(fixedDelayString = "${scan.jobs.evict-interval-ms:300000}")
+	public void evictFinishedJobs() {
+		LocalDateTime cutoff = LocalDateTime.now().minusMinutes(retentionMinutes);
+		int before = jobs.size();
+		jobs.values().removeIf(job -> job.completedAt != null && job.completedAt.isBefore(cutoff));
+		if (jobs.size() < before) {
+			log.debug("Evicted {} finished scan jobs", before - jobs.size());
+		}
+	}
+
+	/**
+	 * Read what an upload will be queued as, before it is stored
+	 */
+	private Upload inspect(MultipartFile imageFile) {
+		Upload upload = new Upload(imageFile);
+		try {
+			boolean pdf;
+			try (InputStream in = imageFile.getInputStream()) {
+				pdf = imageDecoder.isPdf(in);
+			}
+			if (pdf) {
+				try (InputStream in = imageFile.getInputStream()) {
+					upload.pdfPages = imageDecoder.pdfPageCount(in);
+				}
+			}
+		} catch (IOException e) {
+			upload.failure = e;
+		}
+		return upload;
+	}
+
+	private void deleteQuietly(String imagePath) {
+		if (imagePath == null) {
+			return;
+		}
+		try {
+			fileStorageService.deleteFile(imagePath);
+		} catch (IOException e) {
+			log.warn("Failed to delete rejected upload {}: {}", imagePath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Scheduling cost of a page: its decoded size in megapixels (at least 1)
+	 */
+	private int workUnits(File storedFile, int pageIndex) {
+		try {
+			return (int) Math.max(1, (imageDecoder.probe(storedFile, pageIndex).getPixels() + 999_999) / 1_000_000);
+		} catch (IOException e) {
+			return 1; // The worker will report the unreadable file
+		}
+	}
+
+	private void enqueue(ScanJob job, ScanJobPage page, String threadId) {
+		try {
+			scanScheduler.submit(job.userId, page.workUnits, () -> processPage(job, page, threadId), () -> {
+				page.fail("Scan workers are shutting down. Please upload this page again.");
+				job.pageFinished();
+			});
+		} catch (TaskRejectedException e) {
+			log.warn("Scan queue rejected page {} of job {}", page.index, job.id);
+			page.fail("Scan queue is full. Please upload this page again.");
+			job.pageFinished();
+		}
+	}
+
+	private void processPage(ScanJob job, ScanJobPage page, String threadId) {
+		page.status = PageStatus.PROCESSING;
+		try {
+			page.result = journalPageService.processStoredPage(
+					job.userId, page.imagePath, page.originalFilename, page.pageNumber, page.sourcePageIndex,
+					threadId, job.ocrOptions);
+			page.message = page.result.getMessage();
+			attachDerivatives(job, page);
+			page.status = PageStatus.COMPLETED;
+		} catch (Exception e) {
+			log.error("Error processing page {} of scan job {}: {}", page.index, job.id, e.getMessage(), e);
+			page.fail("Error processing image " + page.index + ": " + e.getMessage());
+		} finally {
+			job.pageFinished();
+		}
+	}
+
+	/**
+	 * Link the page's thumbnail and preview to the saved journal page once they are rendered
+	 * (right away if they already are). If rendering failed they are generated on first request.
+	 */
+	private void attachDerivatives(ScanJob job, ScanJobPage page) {
+		if (page.derivatives == null) {
+			return;
+		}
+		ScanResponse result = page.result;
+		page.derivatives.whenComplete((derivatives, failure) -> {
+			if (failure != null) {
+				log.warn("No thumbnail for page {} of scan job {}: {}", page.index, job.id, failure.getMessage());
+				return;
+			}
+			if (derivatives == null) {
+				return; // Disabled
+			}
+			try {
+				journalPageService.attachDerivatives(result.getJournalPageId(), derivatives);
+				result.setThumbnailUrl(JournalPageService.derivativeUrl(result.getJournalPageId(),
+						derivatives.getThumbnailPath(), PageDerivativeService.Kind.THUMBNAIL));
+				result.setPreviewUrl(JournalPageService.derivativeUrl(result.getJournalPageId(),
+						derivatives.getPreviewPath(), PageDerivativeService.Kind.PREVIEW));
+			} catch (RuntimeException e) {
+				log.warn("Failed to link thumbnail of page {} of scan job {}: {}", page.index, job.id, e.getMessage());
+			}
+		});
+	}
+
+	private ScanJobResponse toResponse(ScanJob job) {
+		List<ScanJobPageResponse> pages = job.pages.stream()
+				.map(page -> ScanJobPageResponse.builder()
+						.index(page.index)
+						.originalFilename(page.originalFilename)
+						.pageNumber(page.pageNumber)
+						.status(page.status.name())
+						.message(page.message)
+						.result(page.result)
+						.build())
+				.collect(Collectors.toList());
+
+		int completed = (int) job.pages.stream().filter(page -> page.status == PageStatus.COMPLETED).count();
+		int failed = (int) job.pages.stream().filter(page -> page.status == PageStatus.FAILED).count();
+
+		return ScanJobResponse.builder()
+				.jobId(job.id)
+				.status(job.status(completed, failed).name())
+				.totalPages(job.pages.size())
+				.completedPages(completed)
+				.failedPages(failed)
+				.submittedAt(job.submittedAt)
+				.completedAt(job.completedAt)
+				.statusUrl(JOBS_PATH + job.id)
+				.pages(pages)
+				.build();
+	}
+
+	public enum JobStatus {
+		QUEUED, PROCESSING, COMPLETED, FAILED
+	}
+
+	public enum PageStatus {
+		QUEUED, PROCESSING, COMPLETED, FAILED
+	}
+
+	/**
+	 * One uploaded file of a scan request as inspected before storing it
+	 */
+	private class Upload {
+		private final MultipartFile file;
+		private Integer pdfPages; // Null for a single image
+		private IOException failure; // The PDF could not be read
+
+		private Upload(MultipartFile file) {
+			this.file = file;
+		}
+
+		// Queue slots the upload takes; uploads that will be refused take none
+		private int queuedPages() {
+			if (failure != null) {
+				return 0;
+			}
+			return pdfPages == null ? 1 : pdfPages <= maxPdfPages ? pdfPages : 0;
+		}
+
+		private void validate() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+			if (pdfPages != null && (pdfPages == 0 || pdfPages > maxPdfPages)) {
+				throw new IllegalArgumentException("PDF must have between 1 and " + maxPdfPages + " pages, found " + pdfPages);
+			}
+		}
+	}
+
+	/**
+	 * In-memory state of one scan request
+	 */
+	private static class ScanJob {
+		private final String id;
+		private final Long userId;
+		private final OcrOptions ocrOptions;
+		private final LocalDateTime submittedAt = LocalDateTime.now();
+		private final List<ScanJobPage> pages = new ArrayList<>();
+		private volatile LocalDateTime completedAt;
+		private int finishedPages;
+
+		private ScanJob(String id, Long userId, OcrOptions ocrOptions) {
+			this.id = id;
+			this.userId = userId;
+			this.ocrOptions = ocrOptions;
+		}
+
+		private ScanJobPage addPage(String originalFilename, int pageNumber, String imagePath, Integer sourcePageIndex) {
+			ScanJobPage page = new ScanJobPage(pages.size() + 1, originalFilename, pageNumber, imagePath, sourcePageIndex);
+			pages.add(page);
+			return page;
+		}
+
+		private synchronized void pageFinished() {
+			finishedPages++;
+			if (finishedPages >= countPending()) {
+				completedAt = LocalDateTime.now();
+			}
+		}
+
+		// Pages that went through the queue (pages rejected during upload are already final)
+		private int countPending() {
+			return (int) pages.stream().filter(page -> page.imagePath != null).count();
+		}
+
+		private JobStatus status(int completed, int failed) {
+			if (completed + failed < pages.size()) {
+				boolean started = pages.stream().anyMatch(page -> page.status != PageStatus.QUEUED);
+				return started ? JobStatus.PROCESSING : JobStatus.QUEUED;
+			}
+			return completed == 0 ? JobStatus.FAILED : JobStatus.COMPLETED;
+		}
+	}
+
+	private static class ScanJobPage {
+		private final int index;
+		private final String originalFilename;
+		private final int pageNumber;
+		private final String imagePath;
+		private final Integer sourcePageIndex; // Page within a PDF upload, null for single images
+		private int workUnits = 1; // Scheduling cost, see FairScanScheduler
+		private volatile PageStatus status = PageStatus.QUEUED;
+		private volatile String message;
+		private volatile ScanResponse result;
+		private volatile CompletableFuture<PageDerivativeService.Derivatives> derivatives; // Null for pages never queued
+
+		private ScanJobPage(int index, String originalFilename, int pageNumber, String imagePath, Integer sourcePageIndex) {
+			this.index = index;
+			this.originalFilename = originalFilename;
+			this.pageNumber = pageNumber;
+			this.imagePath = imagePath;
+			this.sourcePageIndex = sourcePageIndex;
+		}
+
+		private void fail(String message) {
+			this.message = message;
+			this.status = PageStatus.FAILED;
+			this.result = ScanResponse.builder().message(message).build();
+		}
+	}
+}
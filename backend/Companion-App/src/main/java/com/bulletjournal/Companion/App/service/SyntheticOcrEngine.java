@@ -0,0 +1,176 @@
+package com.bulletjournal.Companion.App.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fake OCR engine for load testing the scan pipeline on machines without Tesseract.
+ * Returns canned bullet-journal text chosen deterministically from the image bytes (the same
+ * upload always gives the same page), after a configurable delay and with a configurable share
+ * of failures. Enabled with the "synthetic-ocr" Spring profile.
+ */
+@Service
+@Profile(SyntheticOcrEngine.PROFILE)
+@Slf4j
+public class SyntheticOcrEngine implements OcrEngine {
+
+	public static final String PROFILE = "synthetic-ocr";
+
+	private static final String[] TASKS = {
+			"Call the dentist", "Pay electricity bill", "Finish project report", "Buy groceries",
+			"Reply to Sam's email", "Book train tickets", "Water the plants", "Renew library books",
+			"Prepare slides for Monday", "Clean the kitchen"
+	};
+	private static final String[] EVENTS = {
+			"Team meeting 10am", "Lunch with Priya", "Yoga class 6pm", "Doctor appointment 3pm",
+			"Birthday party on Saturday", "Parent teacher meeting", "Flight to Chennai 7am"
+	};
+	private static final String[] NOTES = {
+			"Ideas for the garden", "Read chapter 4 of the book", "Try the new pasta recipe",
+			"Budget looks fine this month", "Remember to stretch every hour", "Podcast recommendation from Alex"
+	};
+	private static final String[] EMOTIONS = {
+			"feeling: happy about the progress today", "mood: calm after the walk",
+			"feeling: anxious about the deadline", "grateful: for a quiet morning",
+			"feeling: stressed with too many meetings", "mood: excited for the weekend"
+	};
+	// Bullet symbols the extraction service recognises: open task, done, in progress, event, note
+	private static final String[] TASK_BULLETS = {"•", "X", "/"};
+	private static final String EVENT_BULLET = "O";
+	private static final String NOTE_BULLET = "-";
+	// Geometry of the fake layout: an A4 page at 150 dpi with evenly spaced lines
+	private static final int PAGE_WIDTH = 1240;
+	private static final int PAGE_HEIGHT = 1754;
+	private static final int LINE_PITCH = 64;
+	private static final int CHAR_WIDTH = 18;
+	private static final int WORD_HEIGHT = 32;
+
+	private final long latencyMs;
+	private final long latencyJitterMs;
+	private final double errorRate;
+
+	public SyntheticOcrEngine(
+			@Value("${ocr.synthetic.latency-ms:800}") long latencyMs,
+			@Value("${ocr.synthetic.latency-jitter-ms:400}") long latencyJitterMs,
+			@Value("${ocr.synthetic.error-rate:0.0}") double errorRate) {
+		this.latencyMs = latencyMs;
+		this.latencyJitterMs = latencyJitterMs;
+		this.errorRate = errorRate;
+		log.warn("Synthetic OCR engine active: latency {} ms (+/- {} ms), error rate {}. Extracted text is fake.",
+				latencyMs, latencyJitterMs, errorRate);
+	}
+
+	@Override
+	public OcrResult recognize(File imageFile, int pageIndex, OcrOptions options) throws TesseractException, IOException {
+		// Same bytes, same page; reading them also keeps the file I/O of a real scan in the benchmark
+		SplittableRandom random = new SplittableRandom(seedFor(imageFile) + pageIndex);
+		simulateLatency();
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			throw new TesseractException("Synthetic OCR failure for file: " + imageFile.getName());
+		}
+		OcrLayout layout = layoutOf(cannedPage(random), random);
+		String text = layout.toText();
+		log.info("Synthetic OCR for file {}: {} characters", imageFile.getName(), text.length());
+		int confidence = (int) layout.getLines().stream().flatMap(line -> line.getWords().stream())
+				.mapToInt(OcrLayout.Word::getConfidence).average().orElse(0);
+		return new OcrResult(text, confidence, layout);
+	}
+
+	@Override
+	public boolean isOcrAvailable() {
+		return true;
+	}
+
+	private String cannedPage(SplittableRandom random) {
+		StringBuilder page = new StringBuilder();
+		int tasks = 2 + random.nextInt(5);
+		for (int i = 0; i < tasks; i++) {
+			appendLine(page, pick(TASK_BULLETS, random), pick(TASKS, random));
+		}
+		int events = 1 + random.nextInt(3);
+		for (int i = 0; i < events; i++) {
+			appendLine(page, EVENT_BULLET, pick(EVENTS, random));
+		}
+		int notes = random.nextInt(3);
+		for (int i = 0; i < notes; i++) {
+			appendLine(page, NOTE_BULLET, pick(NOTES, random));
+		}
+		if (random.nextBoolean()) {
+			page.append(pick(EMOTIONS, random)).append('\n');
+		}
+		return page.toString().trim();
+	}
+
+	/**
+	 * Word boxes for the canned text, laid out left to right on evenly spaced lines
+	 */
+	private OcrLayout layoutOf(String text, SplittableRandom random) {
+		List<OcrLayout.Line> lines = new ArrayList<>();
+		int top = LINE_PITCH;
+		for (String lineText : text.split("\n")) {
+			List<OcrLayout.Word> words = new ArrayList<>();
+			int left = 80;
+			for (String word : lineText.split(" ")) {
+				int width = word.length() * CHAR_WIDTH;
+				words.add(new OcrLayout.Word(left, top, width, WORD_HEIGHT, 70 + random.nextInt(30), word));
+				left += width + CHAR_WIDTH;
+			}
+			lines.add(new OcrLayout.Line(words));
+			top += LINE_PITCH;
+		}
+		return new OcrLayout(PAGE_WIDTH, PAGE_HEIGHT, lines);
+	}
+
+	private void appendLine(StringBuilder page, String bullet, String content) {
+		page.append(bullet).append(' ').append(content).append('\n');
+	}
+
+	private String pick(String[] values, SplittableRandom random) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private void simulateLatency() throws TesseractException {
+		long delay = latencyMs;
+		if (latencyJitterMs > 0) {
+			delay += ThreadLocalRandom.current().nextLong(-latencyJitterMs, latencyJitterMs + 1);
+		}
+		if (delay <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TesseractException("Interrupted during synthetic OCR");
+		}
+	}
+
+	/**
+	 * FNV-1a hash of the file contents
+	 */
+	private long seedFor(File imageFile) throws IOException {
+		long hash = 0xcbf29ce484222325L;
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(imageFile.toPath())) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				for (int i = 0; i < read; i++) {
+					hash = (hash ^ (buffer[i] & 0xFF)) * 0x100000001b3L;
+				}
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,450 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded pools of independently configured Tesseract engines, one pool per OCR language
+ * (or language combination such as "eng+deu").
+ * Each engine is used by one thread at a time, so concurrent scans no longer
+ * race on a shared native handle and OCR can run on every core. An engine keeps the models of
+ * its language loaded, so pages in another language go to that language's own pool instead of
+ * reloading a shared engine. Pools for languages other than the default are created on first
+ * use and closed again once they have been idle for a while.
+ * <p>
+ * Engines are expensive outside the heap: once used, each holds its own native handle and a copy
+ * of its language models, roughly 100 MB or more per engine (more for combined languages), none of
+ * which counts against -Xmx. Up to {@code ocr.pool.size × ocr.pool.max-languages} engines can be
+ * loaded at once, and a single page fans its page segmentation mode candidates out over several
+ * engines of its pool, so both settings default low; size the container for the worst case
+ * before raising them.
+ */
+@Component
+@Slf4j
+public class TesseractEnginePool {
+
+	// PSM modes useful for handwritten journal pages:
+	// PSM 11 = Sparse text (good for lists)
+	// PSM 12 = Sparse text with OSD (orientation and script detection) - BEST for vertical text
+	// PSM 6 = Uniform block (default for handwritten)
+	// PSM 5 = Single vertical line of text (for vertical handwriting)
+	// PSM 4 = Single column of text (for vertical lists)
+	private static final int DEFAULT_PAGE_SEG_MODE = 12;
+	private static final int OCR_ENGINE_MODE = 1; // Neural nets LSTM engine only
+	private static final Pattern LANGUAGE_CODE = Pattern.compile("[A-Za-z0-9_]{2,32}");
+	private static final int MAX_LANGUAGES_PER_PAGE = 4;
+	private static final long ENGINE_NATIVE_MEMORY_MB = 100; // Rough lower bound, for the startup log only
+
+	private final String datapath;
+	private final String language;
+	private final int size;
+	private final long checkoutTimeoutMs;
+	private final long idleEvictionMs;
+	private final int maxPools;
+	private final Map<String, LanguagePool> pools = new ConcurrentHashMap<>();
+	// Checked-out engine -> the pool it came from (which may have been closed since)
+	private final Map<PooledTesseract, LanguagePool> owners = new ConcurrentHashMap<>();
+	private final AtomicInteger nextEngineId = new AtomicInteger();
+
+	private final Counter checkouts;
+	private final Counter checkoutTimeouts;
+	private final Counter invalidations;
+	private final Counter evictions;
+	private final Timer checkoutWait;
+
+	public TesseractEnginePool(
+			@Value("${ocr.tesseract.datapath:}") String tessdataPath,
+			@Value("${ocr.tesseract.language:eng}") String language,
+			@Value("${ocr.pool.size:2}") int poolSize,
+			@Value("${ocr.pool.checkout-timeout-ms:30000}") long checkoutTimeoutMs,
+			@Value("${ocr.pool.idle-eviction-ms:600000}") long idleEvictionMs,
+			@Value("${ocr.pool.max-languages:2}") int maxPools,
+			MeterRegistry meterRegistry) {
+		this.datapath = resolveDatapath(tessdataPath);
+		this.language = normalizeLanguage(language);
+		this.size = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+		this.checkoutTimeoutMs = checkoutTimeoutMs;
+		this.idleEvictionMs = idleEvictionMs;
+		this.maxPools = Math.max(1, maxPools);
+		for (String code : this.language.split("\\+")) {
+			if (datapath != null && !new File(datapath, code + ".traineddata").isFile()) {
+				log.warn("{}.traineddata not found in {}; OCR in the default language will fail", code, datapath);
+			}
+		}
+
+		// The default language is always there; its engines are loaded by the startup warm-up
+		pools.put(this.language, new LanguagePool(this.language));
+		log.info("Tesseract engine pool created: size={} per language, default language={}, checkoutTimeout={}ms, "
+				+ "up to {} languages, idle languages closed after {}ms", size, this.language, checkoutTimeoutMs,
+				this.maxPools, idleEvictionMs);
+		log.info("Up to {} Tesseract engines can be loaded at once, using about {} MB or more of native memory",
+				size * this.maxPools, size * this.maxPools * ENGINE_NATIVE_MEMORY_MB);
+
+		Gauge.builder("ocr.pool.size", () -> size).description("Configured number of Tesseract engines per language").register(meterRegistry);
+		Gauge.builder("ocr.pool.active", this, TesseractEnginePool::getActiveCount).description("Engines currently checked out").register(meterRegistry);
+		Gauge.builder("ocr.pool.idle", this, TesseractEnginePool::getIdleCount).description("Engines waiting in the pools").register(meterRegistry);
+		Gauge.builder("ocr.pool.languages", pools, Map::size).description("Languages with an engine pool").register(meterRegistry);
+		this.checkouts = Counter.builder("ocr.pool.checkouts").register(meterRegistry);
+		this.checkoutTimeouts = Counter.builder("ocr.pool.checkout.timeouts").register(meterRegistry);
+		this.invalidations = Counter.builder("ocr.pool.invalidations").register(meterRegistry);
+		this.evictions = Counter.builder("ocr.pool.evictions").description("Idle language pools closed").register(meterRegistry);
+		this.checkoutWait = Timer.builder("ocr.pool.checkout.wait").description("Time spent waiting for a free engine").register(meterRegistry);
+	}
+
+	/**
+	 * Canonical form of a requested OCR language, or the default language if none was requested
+	 * @param requested Tesseract language codes joined with '+', e.g. "eng+deu"
+	 * @throws IllegalArgumentException If the value is malformed or a language is not installed
+	 */
+	public String resolveLanguage(String requested) {
+		if (requested == null || requested.isBlank()) {
+			return language;
+		}
+		String normalized = normalizeLanguage(requested);
+		if (datapath != null) {
+			for (String code : normalized.split("\\+")) {
+				if (!new File(datapath, code + ".traineddata").isFile()) {
+					throw new IllegalArgumentException("OCR language '" + code + "' is not installed");
+				}
+			}
+		}
+		return normalized;
+	}
+
+	/**
+	 * Borrow an engine for the default language
+	 */
+	public PooledTesseract checkout() throws TesseractException {
+		return checkout(language);
+	}
+
+	/**
+	 * Borrow an engine for a language, waiting up to the configured timeout for one to become free
+	 * @param language A language as returned by {@link #resolveLanguage(String)}
+	 */
+	public PooledTesseract checkout(String language) throws TesseractException {
+		LanguagePool pool = poolFor(language);
+		pool.lastUsedAt = System.currentTimeMillis();
+		long start = System.nanoTime();
+		PooledTesseract engine;
+		try {
+			// Most recently returned first: a quiet language only ever loads as many engines as it needs
+			engine = pool.idleEngines.pollFirst(checkoutTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TesseractException("Interrupted while waiting for an OCR engine");
+		} finally {
+			checkoutWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+
+		if (engine == null) {
+			checkoutTimeouts.increment();
+			throw new TesseractException("No OCR engine for " + language + " became available within " + checkoutTimeoutMs
+					+ " ms (pool size " + size + ")");
+		}
+		pool.activeEngines.incrementAndGet();
+		owners.put(engine, pool);
+		checkouts.increment();
+		return engine;
+	}
+
+	/**
+	 * Return a healthy engine to its pool
+	 */
+	public void checkin(PooledTesseract engine) {
+		LanguagePool pool = owners.remove(engine);
+		if (pool == null || !pool.release(engine)) {
+			// Its pool was closed while the engine was out
+			closeQuietly(engine);
+		}
+	}
+
+	/**
+	 * Discard an engine whose native state can no longer be trusted (e.g. after a native Error)
+	 * and put a fresh one in its place so the pool keeps its size
+	 */
+	public void invalidate(PooledTesseract engine) {
+		invalidations.increment();
+		closeQuietly(engine);
+		LanguagePool pool = owners.remove(engine);
+		if (pool != null) {
+			PooledTesseract replacement = createEngine(pool.language);
+			if (!pool.release(replacement)) {
+				closeQuietly(replacement); // The pool was closed while the engine was out
+			}
+		}
+		log.warn("Tesseract engine {} invalidated and replaced", engine.getEngineId());
+	}
+
+	/**
+	 * Run a task on a borrowed engine of the default language and return it afterwards
+	 */
+	public <T> T execute(EngineTask<T> task) throws TesseractException {
+		return execute(language, task);
+	}
+
+	/**
+	 * Run a task on a borrowed engine of the given language and return it afterwards
+	 */
+	public <T> T execute(String language, EngineTask<T> task) throws TesseractException {
+		PooledTesseract engine = checkout(language);
+		boolean healthy = false;
+		try {
+			T result = task.run(engine);
+			healthy = true;
+			return result;
+		} catch (TesseractException | RuntimeException e) {
+			healthy = true; // Recoverable failure, the native handle is still usable
+			throw e;
+		} finally {
+			if (healthy) {
+				checkin(engine);
+			} else {
+				invalidate(engine);
+			}
+		}
+	}
+
+	/**
+	 * Engines per language
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The default language
+	 */
+	public String getLanguage() {
+		return language;
+	}
+
+	public int getActiveCount() {
+		return pools.values().stream().mapToInt(pool -> pool.activeEngines.get()).sum();
+	}
+
+	public int getIdleCount() {
+		return pools.values().stream().mapToInt(pool -> pool.idleEngines.size()).sum();
+	}
+
+	/**
+	 * Close the pools of languages that have not been used for the idle eviction time.
+	 * The default language keeps its engines.
+	 */
+	@Scheduled(fixedDelayString = "${ocr.pool.eviction-interval-ms:60000}")
+	public void evictIdlePools() {
+		long cutoff = System.currentTimeMillis() - idleEvictionMs;
+		for (LanguagePool pool : pools.values()) {
+			if (!pool.language.equals(language) && pool.lastUsedAt < cutoff && pool.activeEngines.get() == 0) {
+				evict(pool);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		int closed = 0;
+		for (LanguagePool pool : pools.values()) {
+			closed += pool.close();
+		}
+		pools.clear();
+		log.info("Tesseract engine pools shut down ({} idle engines closed)", closed);
+	}
+
+	/**
+	 * The pool of a language, created on first use. When the language limit is reached the least
+	 * recently used idle pool makes room; if every pool is busy the page cannot be served.
+	 */
+	private LanguagePool poolFor(String language) throws TesseractException {
+		LanguagePool pool = pools.get(language);
+		if (pool != null) {
+			return pool;
+		}
+		synchronized (pools) {
+			pool = pools.get(language);
+			if (pool != null) {
+				return pool;
+			}
+			if (pools.size() >= maxPools) {
+				LanguagePool leastRecentlyUsed = pools.values().stream()
+						.filter(candidate -> !candidate.language.equals(this.language) && candidate.activeEngines.get() == 0)
+						.min(Comparator.comparingLong(candidate -> candidate.lastUsedAt))
+						.orElseThrow(() -> new TesseractException("Too many OCR languages in use at once (limit "
+								+ maxPools + "); please retry " + language + " later"));
+				evict(leastRecentlyUsed);
+			}
+			pool = new LanguagePool(language);
+			pools.put(language, pool);
+			log.info("Tesseract engine pool opened for language {}", language);
+			return pool;
+		}
+	}
+
+	private void evict(LanguagePool pool) {
+		if (pools.remove(pool.language, pool)) {
+			int closed = pool.close();
+			evictions.increment();
+			log.info("Closed idle Tesseract engine pool for language {} ({} engines)", pool.language, closed);
+		}
+	}
+
+	private PooledTesseract createEngine(String language) {
+		PooledTesseract engine = new PooledTesseract(nextEngineId.incrementAndGet(), language);
+		if (datapath != null) {
+			engine.setDatapath(datapath);
+		}
+		engine.setLanguage(language);
+		engine.setPageSegMode(DEFAULT_PAGE_SEG_MODE);
+		engine.setOcrEngineMode(OCR_ENGINE_MODE);
+		return engine;
+	}
+
+	private void closeQuietly(PooledTesseract engine) {
+		try {
+			engine.close();
+		} catch (Throwable t) {
+			log.debug("Failed to close engine {}: {}", engine.getEngineId(), t.getMessage());
+		}
+	}
+
+	/**
+	 * Language codes joined with '+', trimmed and without duplicates, in the order given
+	 */
+	private static String normalizeLanguage(String requested) {
+		Set<String> codes = new LinkedHashSet<>();
+		for (String code : requested.split("\\+")) {
+			String trimmed = code.trim();
+			if (!LANGUAGE_CODE.matcher(trimmed).matches()) {
+				throw new IllegalArgumentException("Invalid OCR language: '" + requested
+						+ "'. Use Tesseract language codes joined with '+', e.g. eng+deu");
+			}
+			codes.add(trimmed);
+		}
+		if (codes.size() > MAX_LANGUAGES_PER_PAGE) {
+			throw new IllegalArgumentException("At most " + MAX_LANGUAGES_PER_PAGE + " OCR languages can be combined");
+		}
+		return String.join("+", codes);
+	}
+
+	/**
+	 * Resolve the tessdata directory from configuration, falling back to common install locations
+	 */
+	private String resolveDatapath(String tessdataPath) {
+		String finalPath = null;
+		if (tessdataPath != null && !tessdataPath.isEmpty()) {
+			// Normalize path for the current OS
+			finalPath = new File(tessdataPath).getAbsolutePath();
+		} else {
+			// Try common default paths
+			String[] defaultPaths = {
+				"C:\\Program Files\\Tesseract-OCR\\tessdata",  // Windows default
+				"C:\\Tesseract-OCR\\tessdata",                 // Windows alternative
+				"/usr/share/tesseract-ocr/5/tessdata",        // Linux (Ubuntu/Debian)
+				"/usr/share/tesseract-ocr/4.00/tessdata",      // Linux older version
+				"/usr/local/share/tessdata",                   // Mac/Linux alternative
+				"/opt/homebrew/share/tessdata"                 // Mac Homebrew
+			};
+
+			for (String path : defaultPaths) {
+				File pathFile = new File(path);
+				if (pathFile.isDirectory() && new File(pathFile, "eng.traineddata").exists()) {
+					finalPath = path;
+					log.info("Tesseract data path auto-detected: {}", path);
+					break;
+				}
+			}
+
+			if (finalPath == null) {
+				log.warn("Tesseract data path not found. Please set 'ocr.tesseract.datapath' in application.properties");
+				log.warn("Common locations:");
+				log.warn("  Windows: C:\\Program Files\\Tesseract-OCR\\tessdata");
+				log.warn("  Linux: /usr/share/tesseract-ocr/5/tessdata");
+				log.warn("  Mac: /usr/local/share/tessdata");
+				return null;
+			}
+		}
+
+		File pathFile = new File(finalPath);
+		if (!pathFile.isDirectory()) {
+			log.warn("Tesseract data path does not exist: {}", finalPath);
+		} else if (!new File(pathFile, "eng.traineddata").exists()) {
+			log.warn("eng.traineddata not found in: {}", finalPath);
+		} else {
+			log.info("Tesseract data path verified: {}", finalPath);
+		}
+
+		// Also set TESSDATA_PREFIX (helps with some Tesseract versions)
+		System.setProperty("TESSDATA_PREFIX", finalPath);
+		return finalPath;
+	}
+
+	/**
+	 * Engines of one language. Engines are cheap until first use; the native handle and models
+	 * are loaded lazily by the thread that checks an engine out.
+	 */
+	private class LanguagePool {
+		private final String language;
+		private final BlockingDeque<PooledTesseract> idleEngines = new LinkedBlockingDeque<>();
+		private final AtomicInteger activeEngines = new AtomicInteger();
+		private volatile long lastUsedAt = System.currentTimeMillis();
+		private volatile boolean closed;
+
+		private LanguagePool(String language) {
+			this.language = language;
+			for (int i = 0; i < size; i++) {
+				idleEngines.add(createEngine(language));
+			}
+		}
+
+		/**
+		 * Put a checked-out engine back; false if the pool has been closed in the meantime
+		 */
+		private boolean release(PooledTesseract engine) {
+			activeEngines.decrementAndGet();
+			if (closed) {
+				return false;
+			}
+			idleEngines.offerFirst(engine);
+			// Closed concurrently: take the engine back out unless close() already did
+			return !closed || !idleEngines.remove(engine);
+		}
+
+		private int close() {
+			closed = true;
+			List<PooledTesseract> engines = new ArrayList<>();
+			idleEngines.drainTo(engines);
+			engines.forEach(TesseractEnginePool.this::closeQuietly);
+			return engines.size();
+		}
+	}
+
+	/**
+	 * Work performed on a borrowed engine
+	 */
+	@FunctionalInterface
+	public interface EngineTask<T> {
+		T run(PooledTesseract engine) throws TesseractException;
+	}
+}
@@ -22,6 +22,7 @@ public class UserService {
 	private final UserRepository userRepository;
 	private final UserMapper userMapper;
 	private final PasswordEncryptionService passwordEncryptionService;
+	private final TesseractEnginePool enginePool;
 
 
 	public UserResponse getUserByEmail(String email) {
@@ -76,6 +77,19 @@ public class UserService {
 
 
 
+	/**
+	 * Set the user's default OCR language(s); blank clears it back to the server default
+	 * @throws IllegalArgumentException If a language is malformed or not installed
+	 */
+	@Transactional
+	public UserResponse updateOcrLanguage(Long id, String language) {
+		User user = userRepository.findById(id)
+				.orElseThrow(() -> new RuntimeException("User not found with id: " + id));
+		user.setOcrLanguage(language == null || language.isBlank() ? null : enginePool.resolveLanguage(language));
+		user = userRepository.save(user);
+		return userMapper.toUserResponse(user);
+	}
+
 	public OriginalPasswordResponse getOriginalPassword(String email) {
 		User user = userRepository.findByEmail(email)
 				.orElseThrow(() -> new RuntimeException("User not found with email: " + email));
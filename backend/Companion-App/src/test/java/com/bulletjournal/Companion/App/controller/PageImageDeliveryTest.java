@@ -0,0 +1,250 @@
+package com.bulletjournal.Companion.App.controller;
+
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.service.FileDeliveryService;
+import com.bulletjournal.Companion.App.service.JournalEntryService;
+import com.bulletjournal.Companion.App.service.JournalPageService;
+import com.bulletjournal.Companion.App.service.PageDerivativeService;
+import com.bulletjournal.Companion.App.service.ScanJobService;
+import com.bulletjournal.Companion.App.service.SearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * GET /api/journal/pages/{pageId}/image through FileDeliveryService: conditional requests, byte
+ * ranges, HEAD, and both the Tomcat sendfile hand-off and the streaming fallback
+ */
+class PageImageDeliveryTest {
+
+	private static final String HASH = "3f2a9c1e" + "0".repeat(56);
+	private static final String ETAG = "\"" + HASH + "\"";
+	private static final long USER_ID = 7L;
+	private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+
+	@TempDir
+	private Path storage;
+
+	private final byte[] image = new byte[100];
+	private Path stored;
+	private Path legacy;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte) i;
+		}
+		stored = Files.write(storage.resolve(HASH + ".jpg"), image);
+		legacy = Files.write(storage.resolve("scan.jpg"), image); // Older name without a content hash
+
+		JournalPageService journalPageService = mock(JournalPageService.class);
+		when(journalPageService.getImage(1L, USER_ID)).thenReturn(stored);
+		when(journalPageService.getImage(2L, USER_ID)).thenReturn(legacy);
+		when(journalPageService.getImage(3L, USER_ID)).thenThrow(new RuntimeException("Journal page not found"));
+		Path thumbnail = Files.write(storage.resolve(HASH + ".thumb.9b1c4e07.jpg"), image);
+		when(journalPageService.getDerivative(1L, USER_ID, PageDerivativeService.Kind.THUMBNAIL)).thenReturn(Optional.of(thumbnail));
+		when(journalPageService.getDerivative(2L, USER_ID, PageDerivativeService.Kind.THUMBNAIL)).thenReturn(Optional.empty());
+		JournalController controller = new JournalController(journalPageService, mock(ScanJobService.class),
+				mock(SearchService.class), mock(JournalEntryService.class), new FileDeliveryService(new SimpleMeterRegistry()));
+		mockMvc = MockMvcBuilders.standaloneSetup(controller)
+				.setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+				.build();
+
+		User user = User.builder().id(USER_ID).email("reader@example.com").build();
+		SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, List.of()));
+	}
+
+	@AfterEach
+	void clearSecurityContext() {
+		SecurityContextHolder.clearContext();
+	}
+
+	@Test
+	void streamsTheWholeFileWithValidators() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, ETAG))
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, private"))
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 100))
+				.andExpect(content().contentType("image/jpeg"))
+				.andExpect(content().bytes(image));
+	}
+
+	@Test
+	void answersAMatchingIfNoneMatchWith304() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.IF_NONE_MATCH, "\"other\", " + ETAG))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, ETAG))
+				.andExpect(content().bytes(new byte[0]));
+		// Weak comparison: a weak validator of the same tag matches too
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.IF_NONE_MATCH, "W/" + ETAG))
+				.andExpect(status().isNotModified());
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.IF_NONE_MATCH, "*"))
+				.andExpect(status().isNotModified());
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+	}
+
+	@Test
+	void servesASingleRange() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=10-19"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/100"))
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10))
+				.andExpect(content().bytes(Arrays.copyOfRange(image, 10, 20)));
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=-5"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 95-99/100"))
+				.andExpect(content().bytes(Arrays.copyOfRange(image, 95, 100)));
+		// An end past the file is cut to its last byte
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=90-500"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 90-99/100"))
+				.andExpect(content().bytes(Arrays.copyOfRange(image, 90, 100)));
+	}
+
+	@Test
+	void rejectsValidRangesOutsideTheFileWith416() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=100-"))
+				.andExpect(status().isRequestedRangeNotSatisfiable())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */100"))
+				.andExpect(content().bytes(new byte[0]));
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=-0"))
+				.andExpect(status().isRequestedRangeNotSatisfiable());
+	}
+
+	@Test
+	void ignoresInvalidRangeHeaders() throws Exception {
+		// RFC 9110 14.2: a Range header that does not parse is ignored, not answered with 416
+		for (String invalid : List.of("bytes=abc", "bytes=20-10", "items=0-5", "bytes 0-5", "bytes=")) {
+			mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, invalid))
+					.andExpect(status().isOk())
+					.andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+					.andExpect(content().bytes(image));
+		}
+	}
+
+	@Test
+	void sendsTheWholeFileForSeveralRanges() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=0-4,10-14"))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+	}
+
+	@Test
+	void servesTheRangeOnlyIfIfRangeMatchesStrongly() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/image")
+						.header(HttpHeaders.RANGE, "bytes=0-9")
+						.header(HttpHeaders.IF_RANGE, ETAG))
+				.andExpect(status().isPartialContent())
+				.andExpect(content().bytes(Arrays.copyOfRange(image, 0, 10)));
+		mockMvc.perform(get("/api/journal/pages/1/image")
+						.header(HttpHeaders.RANGE, "bytes=0-9")
+						.header(HttpHeaders.IF_RANGE, "\"changed\""))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+
+		// Files without a content hash have a weak ETag, which If-Range never matches
+		MvcResult legacyResult = mockMvc.perform(get("/api/journal/pages/2/image")).andReturn();
+		String weakEtag = legacyResult.getResponse().getHeader(HttpHeaders.ETAG);
+		assertThat(weakEtag).startsWith("W/\"100-");
+		mockMvc.perform(get("/api/journal/pages/2/image")
+						.header(HttpHeaders.RANGE, "bytes=0-9")
+						.header(HttpHeaders.IF_RANGE, weakEtag))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(image));
+	}
+
+	@Test
+	void answersHeadWithHeadersOnly() throws Exception {
+		mockMvc.perform(head("/api/journal/pages/1/image"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, ETAG))
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 100))
+				.andExpect(content().bytes(new byte[0]));
+		mockMvc.perform(head("/api/journal/pages/1/image").header(HttpHeaders.RANGE, "bytes=0-9"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10))
+				.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void handsTheFileToTomcatWhenSendfileIsSupported() throws Exception {
+		MvcResult result = mockMvc.perform(get("/api/journal/pages/1/image")
+						.requestAttr(SENDFILE_SUPPORTED, true)
+						.header(HttpHeaders.RANGE, "bytes=10-19"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10))
+				.andExpect(content().bytes(new byte[0])) // Tomcat writes the body after the request returns
+				.andReturn();
+
+		assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"))
+				.isEqualTo(stored.toRealPath().toString());
+		assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(10L);
+		assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(20L);
+	}
+
+	@Test
+	void streamsTheFileWhenSendfileIsNotAvailable() throws Exception {
+		MvcResult result = mockMvc.perform(get("/api/journal/pages/1/image")
+						.requestAttr(SENDFILE_SUPPORTED, false)
+						.header(HttpHeaders.RANGE, "bytes=10-19"))
+				.andExpect(status().isPartialContent())
+				.andExpect(content().bytes(Arrays.copyOfRange(image, 10, 20)))
+				.andReturn();
+
+		assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename")).isNull();
+	}
+
+	@Test
+	void servesAThumbnailAsImmutable() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/1/thumbnail"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"9b1c4e07\""))
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, private, immutable"))
+				.andExpect(content().bytes(image));
+	}
+
+	@Test
+	void answers202WhileAThumbnailIsBeingGenerated() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/2/thumbnail"))
+				.andExpect(status().isAccepted())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"))
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"))
+				.andExpect(header().doesNotExist(HttpHeaders.ETAG))
+				.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void answers404ForAnotherUsersPage() throws Exception {
+		mockMvc.perform(get("/api/journal/pages/3/image"))
+				.andExpect(status().isNotFound());
+	}
+}
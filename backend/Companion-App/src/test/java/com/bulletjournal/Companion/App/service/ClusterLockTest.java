@@ -0,0 +1,109 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.repository.SchedulerLockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two ClusterLock instances on one database stand in for two application nodes
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // Every node commits on its own, as in production
+class ClusterLockTest {
+
+	@Autowired
+	private SchedulerLockRepository schedulerLockRepository;
+
+	@AfterEach
+	void clear() {
+		schedulerLockRepository.deleteAll();
+	}
+
+	@Test
+	void onlyOneNodeHoldsALeaseUntilItIsReleased() {
+		ClusterLock first = new ClusterLock(schedulerLockRepository, 60_000);
+		ClusterLock second = new ClusterLock(schedulerLockRepository, 60_000);
+
+		Optional<ClusterLock.Lease> held = first.tryAcquire("job");
+		assertThat(held).isPresent();
+		assertThat(second.tryAcquire("job")).isEmpty();
+		assertThat(second.tryAcquire("other-job")).isPresent();
+
+		held.get().close();
+
+		assertThat(second.tryAcquire("job")).isPresent();
+	}
+
+	@Test
+	void expiredLeaseIsTakenOverAndItsHolderLearnsItLostIt() throws InterruptedException {
+		ClusterLock crashed = new ClusterLock(schedulerLockRepository, 100);
+		ClusterLock survivor = new ClusterLock(schedulerLockRepository, 100);
+
+		ClusterLock.Lease stale = crashed.tryAcquire("job").orElseThrow();
+		Thread.sleep(150);
+		Optional<ClusterLock.Lease> takenOver = survivor.tryAcquire("job");
+
+		assertThat(takenOver).isPresent();
+		assertThat(stale.keepAlive()).isFalse();
+		assertThat(takenOver.get().keepAlive()).isTrue();
+		stale.close(); // Must not release the survivor's lease
+		assertThat(crashed.tryAcquire("job")).isEmpty();
+	}
+
+	@Test
+	void keepAliveExtendsTheLease() throws InterruptedException {
+		ClusterLock worker = new ClusterLock(schedulerLockRepository, 400);
+		ClusterLock other = new ClusterLock(schedulerLockRepository, 400);
+
+		ClusterLock.Lease lease = worker.tryAcquire("job").orElseThrow();
+		Thread.sleep(250); // Past half of the lease, so keepAlive renews it
+		assertThat(lease.keepAlive()).isTrue();
+		Thread.sleep(250); // Past the original expiry
+
+		assertThat(other.tryAcquire("job")).isEmpty();
+	}
+
+	@Test
+	void nodesCreatingTheSameLeaseAtOnceGetItOnce() throws Exception {
+		int nodes = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nodes);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<CompletableFuture<Boolean>> attempts = new ArrayList<>();
+			for (int i = 0; i < nodes; i++) {
+				ClusterLock node = new ClusterLock(schedulerLockRepository, 60_000);
+				attempts.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return node.tryAcquire("new-job").isPresent();
+				}, executor));
+			}
+			start.countDown();
+
+			long holders = 0;
+			for (CompletableFuture<Boolean> attempt : attempts) {
+				holders += attempt.get() ? 1 : 0;
+			}
+			assertThat(holders).isEqualTo(1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.bulletjournal.Companion.App.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryCacheTest {
+
+	@TempDir
+	private Path directory;
+
+	@Test
+	void countsTheEntriesAlreadyOnDisk() throws IOException {
+		write("aa/one.json", 100, 3);
+		write("bb/two.json", 50, 2);
+		write("bb/two.json.tmp", 70, 1); // Not an entry
+
+		DirectoryCache cache = cache(1000, 0, Set.of());
+		cache.recount();
+
+		assertThat(cache.sizeBytes()).isEqualTo(150);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedDownToTheTarget() throws IOException {
+		DirectoryCache cache = cache(1000, 0, Set.of());
+		cache.recount();
+		Path oldest = write("aa/a.json", 300, 40);
+		Path older = write("aa/b.json", 300, 30);
+		Path touched = write("aa/c.json", 300, 50);
+		cache.added(900);
+		assertThat(cache.touch(touched)).isTrue(); // Now the most recently used
+
+		Path newest = write("aa/d.json", 300, 1);
+		cache.added(300);
+
+		// 1200 bytes against a limit of 1000: evicted down to 900, oldest first
+		assertThat(oldest).doesNotExist();
+		assertThat(older).exists();
+		assertThat(touched).exists();
+		assertThat(newest).exists();
+		assertThat(cache.sizeBytes()).isEqualTo(900);
+
+		Path another = write("aa/e.json", 300, 0);
+		cache.added(300);
+
+		// The touched entry outlives the one last used before it
+		assertThat(older).doesNotExist();
+		assertThat(touched).exists();
+		assertThat(another).exists();
+	}
+
+	@Test
+	void doesNotEvictWhileUnderTheLimit() throws IOException {
+		DirectoryCache cache = cache(1000, 0, Set.of());
+		Path entry = write("aa/a.json", 1000, 40);
+
+		cache.added(1000);
+
+		assertThat(entry).exists();
+		assertThat(cache.sizeBytes()).isEqualTo(1000);
+	}
+
+	@Test
+	void skipsPinnedAndRecentlyUsedEntries() throws IOException {
+		Path pinned = write("aa/pinned.json", 400, 40);
+		Path old = write("aa/old.json", 400, 30);
+		Path recent = write("aa/recent.json", 400, 0);
+		DirectoryCache cache = cache(1000, Duration.ofMinutes(1).toMillis(), Set.of(pinned));
+
+		cache.added(1200);
+
+		assertThat(pinned).exists();
+		assertThat(old).doesNotExist();
+		// Still over the target, but the remaining entry may still be being read
+		assertThat(recent).exists();
+		assertThat(cache.sizeBytes()).isEqualTo(800);
+	}
+
+	@Test
+	void removesAnEntryFromTheCount() throws IOException {
+		DirectoryCache cache = cache(1000, 0, Set.of());
+		Path entry = write("aa/a.json", 100, 1);
+		cache.recount();
+
+		assertThat(cache.remove(entry)).isTrue();
+		assertThat(cache.remove(entry)).isFalse();
+		assertThat(cache.sizeBytes()).isZero();
+		assertThat(cache.touch(entry)).isFalse();
+	}
+
+	private DirectoryCache cache(long maxBytes, long minEvictionAgeMs, Set<Path> pinned) {
+		return new DirectoryCache("test cache", directory, maxBytes, minEvictionAgeMs,
+				path -> path.getFileName().toString().endsWith(".json"), pinned::contains);
+	}
+
+	private Path write(String relativePath, int size, int minutesAgo) throws IOException {
+		Path file = directory.resolve(relativePath);
+		Files.createDirectories(file.getParent());
+		Files.write(file, new byte[size]);
+		Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofMinutes(minutesAgo))));
+		return file;
+	}
+}
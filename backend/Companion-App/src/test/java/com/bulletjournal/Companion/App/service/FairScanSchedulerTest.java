@@ -0,0 +1,178 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Deterministic: pages handed to the worker pool are held until the test runs them, one at a time
+ */
+class FairScanSchedulerTest {
+
+	private final List<String> ran = new ArrayList<>();
+	private final List<String> rejected = new ArrayList<>();
+
+	@Test
+	void roundRobinsBetweenUsersWithEqualPages() {
+		ManualExecutor executor = new ManualExecutor(1);
+		FairScanScheduler scheduler = scheduler(executor, 100, 0, 1);
+
+		submit(scheduler, 1L, "a1", 1);
+		submit(scheduler, 1L, "a2", 1);
+		submit(scheduler, 1L, "a3", 1);
+		submit(scheduler, 2L, "b1", 1);
+		submit(scheduler, 2L, "b2", 1);
+		submit(scheduler, 2L, "b3", 1);
+		executor.runAll();
+
+		// a1 starts on submit; a2 was queued first, then the users alternate
+		assertThat(ran).containsExactly("a1", "a2", "b1", "a3", "b2", "b3");
+		assertThat(scheduler.getQueuedPages()).isZero();
+		assertThat(scheduler.getRunningPages()).isZero();
+		assertThat(scheduler.getQueuedUsers()).isZero();
+	}
+
+	@Test
+	void expensivePageSavesUpCreditOverSeveralRounds() {
+		ManualExecutor executor = new ManualExecutor(1);
+		FairScanScheduler scheduler = scheduler(executor, 100, 0, 4);
+
+		submit(scheduler, 3L, "busy", 1); // Holds the worker while the others queue
+		submit(scheduler, 1L, "photo", 10);
+		for (int i = 1; i <= 12; i++) {
+			submit(scheduler, 2L, "s" + i, 1);
+		}
+		executor.runAll();
+
+		// Quantum 4: the 10-unit photo starts in its third round, after two rounds of four screenshots
+		assertThat(ran).containsExactly("busy", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8",
+				"photo", "s9", "s10", "s11", "s12");
+	}
+
+	@Test
+	void capsWorkersPerUserSoOthersStartRightAway() {
+		ManualExecutor executor = new ManualExecutor(3);
+		FairScanScheduler scheduler = scheduler(executor, 100, 0, 16);
+		assertThat(scheduler.getMaxWorkersPerUser()).isEqualTo(2); // All workers but one by default
+
+		for (int i = 1; i <= 5; i++) {
+			submit(scheduler, 1L, "bulk" + i, 1);
+		}
+		assertThat(executor.pending()).isEqualTo(2);
+		assertThat(load(scheduler, 1L)).containsExactly(3, 2);
+
+		submit(scheduler, 2L, "single", 1);
+
+		assertThat(executor.pending()).isEqualTo(3);
+		assertThat(load(scheduler, 2L)).containsExactly(0, 1);
+		assertThat(scheduler.getMaxUserDepth()).isEqualTo(3);
+
+		executor.runNext(); // bulk1 frees a worker, which goes to the bulk user's next page
+		assertThat(load(scheduler, 1L)).containsExactly(2, 2);
+		executor.runAll();
+		assertThat(ran).containsExactly("bulk1", "bulk2", "single", "bulk3", "bulk4", "bulk5");
+		assertThat(load(scheduler, 1L)).containsExactly(0, 0);
+	}
+
+	@Test
+	void configuredCapIsHonoured() {
+		ManualExecutor executor = new ManualExecutor(4);
+		FairScanScheduler scheduler = scheduler(executor, 100, 1, 16);
+
+		for (int i = 1; i <= 3; i++) {
+			submit(scheduler, 1L, "a" + i, 1);
+		}
+
+		assertThat(executor.pending()).isEqualTo(1);
+		assertThat(scheduler.getRunningPages()).isEqualTo(1);
+	}
+
+	@Test
+	void refusesPagesBeyondCapacity() {
+		ManualExecutor executor = new ManualExecutor(1);
+		FairScanScheduler scheduler = scheduler(executor, 2, 0, 16);
+
+		submit(scheduler, 1L, "a1", 1); // Starts, so it no longer counts against the queue
+		submit(scheduler, 1L, "a2", 1);
+		submit(scheduler, 2L, "b1", 1);
+		assertThat(scheduler.remainingCapacity()).isZero();
+
+		assertThatThrownBy(() -> submit(scheduler, 3L, "c1", 1)).isInstanceOf(TaskRejectedException.class);
+		assertThat(scheduler.getQueuedPages()).isEqualTo(2);
+	}
+
+	@Test
+	void pagesRejectedByThePoolAreReportedAndReleaseTheirWorker() {
+		ManualExecutor executor = new ManualExecutor(1);
+		FairScanScheduler scheduler = scheduler(executor, 100, 0, 16);
+		submit(scheduler, 1L, "a1", 1);
+		submit(scheduler, 1L, "a2", 1);
+		submit(scheduler, 2L, "b1", 1);
+
+		executor.rejecting = true;
+		executor.runNext();
+
+		// a1's worker went to a2, which the shutting-down pool refused, and then to b1
+		assertThat(ran).containsExactly("a1");
+		assertThat(rejected).containsExactly("a2", "b1");
+		assertThat(scheduler.getQueuedPages()).isZero();
+		assertThat(scheduler.getRunningPages()).isZero();
+		assertThat(load(scheduler, 1L)).containsExactly(0, 0);
+		assertThat(load(scheduler, 2L)).containsExactly(0, 0);
+	}
+
+	private void submit(FairScanScheduler scheduler, Long userId, String page, int workUnits) {
+		scheduler.submit(userId, workUnits, () -> ran.add(page), () -> rejected.add(page));
+	}
+
+	private static List<Integer> load(FairScanScheduler scheduler, Long userId) {
+		FairScanScheduler.UserLoad load = scheduler.getUserLoad(userId);
+		return List.of(load.getQueued(), load.getRunning());
+	}
+
+	private static FairScanScheduler scheduler(ManualExecutor executor, int capacity, int maxWorkersPerUser, int quantum) {
+		return new FairScanScheduler(executor, capacity, maxWorkersPerUser, quantum, new SimpleMeterRegistry());
+	}
+
+	/**
+	 * Worker pool that holds handed-over pages until the test runs them
+	 */
+	private static class ManualExecutor extends ThreadPoolTaskExecutor {
+		private final ArrayDeque<Runnable> handedOver = new ArrayDeque<>();
+		private boolean rejecting;
+
+		private ManualExecutor(int workers) {
+			setMaxPoolSize(workers);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			if (rejecting) {
+				throw new TaskRejectedException("Executor is shutting down");
+			}
+			handedOver.addLast(task);
+		}
+
+		private int pending() {
+			return handedOver.size();
+		}
+
+		private void runNext() {
+			handedOver.pollFirst().run();
+		}
+
+		private void runAll() {
+			while (!handedOver.isEmpty()) {
+				runNext();
+			}
+		}
+	}
+}
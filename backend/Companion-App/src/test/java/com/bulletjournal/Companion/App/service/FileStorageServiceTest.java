@@ -0,0 +1,146 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.model.ImageBlob;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FileStorageServiceTest {
+
+	private static final long USER_ID = 7L;
+	private static final byte[] CONTENT = "a journal page".getBytes(StandardCharsets.UTF_8);
+
+	@Autowired
+	private ImageBlobRepository imageBlobRepository;
+
+	@TempDir
+	private Path storage;
+
+	private FileStorageService fileStorageService;
+	private String sha256;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		fileStorageService = new FileStorageService(imageBlobRepository, new LocalBlobStore(storage.toString()));
+		ReflectionTestUtils.setField(fileStorageService, "allowedExtensions", "jpg,jpeg,png,pdf");
+		sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+	}
+
+	@AfterEach
+	void clear() {
+		imageBlobRepository.deleteAll();
+	}
+
+	@Test
+	void storesAnUploadUnderItsContentHash() throws IOException {
+		FileStorageService.StoredFile stored = fileStorageService.storeFile(upload("scan.JPG", CONTENT), USER_ID);
+
+		assertThat(stored.getSha256()).isEqualTo(sha256);
+		assertThat(stored.getRelativePath()).isEqualTo(
+				USER_ID + "/" + sha256.substring(0, 2) + "/" + sha256.substring(2, 4) + "/" + sha256 + ".jpg");
+		assertThat(stored.isCreated()).isTrue();
+		assertThat(storage.resolve(stored.getRelativePath())).hasBinaryContent(CONTENT);
+		assertThat(FileStorageService.contentHash(storage.resolve(stored.getRelativePath()))).isEqualTo(sha256);
+		assertThat(imageBlobRepository.findByUserIdAndSha256(USER_ID, sha256)).get()
+				.satisfies(blob -> {
+					assertThat(blob.getRelativePath()).isEqualTo(stored.getRelativePath());
+					assertThat(blob.getSizeBytes()).isEqualTo(CONTENT.length);
+				});
+		assertThat(stagedFiles()).isZero();
+	}
+
+	@Test
+	void reusesTheFileForTheSameContent() throws IOException {
+		FileStorageService.StoredFile first = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+		ImageBlob blob = imageBlobRepository.findByRelativePath(first.getRelativePath()).orElseThrow();
+		imageBlobRepository.markStored(blob.getId(), LocalDateTime.now().minusDays(3));
+
+		// Same bytes under another name and extension
+		FileStorageService.StoredFile second = fileStorageService.storeFile(upload("again.png", CONTENT), USER_ID);
+
+		assertThat(second.getRelativePath()).isEqualTo(first.getRelativePath());
+		assertThat(second.isCreated()).isFalse();
+		assertThat(imageBlobRepository.count()).isEqualTo(1);
+		// Marked, so the orphan reclaimer leaves it alone during the grace period
+		assertThat(imageBlobRepository.findById(blob.getId()).orElseThrow().getLastStoredAt())
+				.isAfter(LocalDateTime.now().minusMinutes(1));
+		assertThat(stagedFiles()).isZero();
+	}
+
+	@Test
+	void keepsUsersApart() throws IOException {
+		FileStorageService.StoredFile mine = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+		FileStorageService.StoredFile theirs = fileStorageService.storeFile(upload("scan.jpg", CONTENT), 8L);
+
+		assertThat(theirs.getRelativePath()).isNotEqualTo(mine.getRelativePath()).startsWith("8/");
+		assertThat(theirs.isCreated()).isTrue();
+		assertThat(imageBlobRepository.count()).isEqualTo(2);
+	}
+
+	@Test
+	void storesTheFileAgainWhenOnlyItsRowWasLeftBehind() throws IOException {
+		// A rejected upload is deleted with deleteFile; its manifest row stays
+		FileStorageService.StoredFile first = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+		fileStorageService.deleteFile(first.getRelativePath());
+
+		FileStorageService.StoredFile second = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+
+		assertThat(second.getRelativePath()).isEqualTo(first.getRelativePath());
+		assertThat(second.isCreated()).isTrue();
+		assertThat(storage.resolve(second.getRelativePath())).hasBinaryContent(CONTENT);
+		assertThat(imageBlobRepository.count()).isEqualTo(1);
+	}
+
+	@Test
+	void registersTheFileAgainWhenItsRowWasDeleted() throws IOException {
+		FileStorageService.StoredFile first = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+		imageBlobRepository.deleteByRelativePath(first.getRelativePath());
+
+		FileStorageService.StoredFile second = fileStorageService.storeFile(upload("scan.jpg", CONTENT), USER_ID);
+
+		assertThat(second.getRelativePath()).isEqualTo(first.getRelativePath());
+		assertThat(second.isCreated()).isFalse(); // The file itself was still there
+		assertThat(imageBlobRepository.findByRelativePath(first.getRelativePath())).isPresent();
+	}
+
+	@Test
+	void rejectsUploadsItCannotStore() {
+		assertThatThrownBy(() -> fileStorageService.storeFile(upload("notes.txt", CONTENT), USER_ID))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> fileStorageService.storeFile(upload("scan.jpg", new byte[0]), USER_ID))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThat(imageBlobRepository.count()).isZero();
+	}
+
+	private static MockMultipartFile upload(String filename, byte[] content) {
+		return new MockMultipartFile("image", filename, "application/octet-stream", content);
+	}
+
+	private long stagedFiles() throws IOException {
+		try (Stream<Path> files = Files.list(storage)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.model.JournalPage;
+import com.bulletjournal.Companion.App.model.PendingFileDelete;
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import com.bulletjournal.Companion.App.repository.JournalPageRepository;
+import com.bulletjournal.Companion.App.repository.PendingFileDeleteRepository;
+import com.bulletjournal.Companion.App.repository.SchedulerLockRepository;
+import com.bulletjournal.Companion.App.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ImageLayoutMigrationTest {
+
+	@Autowired
+	private JournalPageRepository journalPageRepository;
+	@Autowired
+	private PendingFileDeleteRepository pendingFileDeleteRepository;
+	@Autowired
+	private ImageBlobRepository imageBlobRepository;
+	@Autowired
+	private SchedulerLockRepository schedulerLockRepository;
+	@Autowired
+	private UserRepository userRepository;
+
+	@TempDir
+	private Path storage;
+
+	private FileStorageService fileStorageService;
+	private User user;
+
+	@BeforeEach
+	void setUp() {
+		fileStorageService = new FileStorageService(imageBlobRepository, new LocalBlobStore(storage.toString()));
+		user = userRepository.save(User.builder()
+				.email("migration@example.com")
+				.password("secret")
+				.firstName("Ada")
+				.lastName("Lovelace")
+				.enabled(true)
+				.build());
+	}
+
+	@AfterEach
+	void clear() {
+		journalPageRepository.deleteAll();
+		userRepository.deleteAll();
+		imageBlobRepository.deleteAll();
+		pendingFileDeleteRepository.deleteAll();
+		schedulerLockRepository.deleteAll();
+	}
+
+	@Test
+	void oldFilesAreDeletedAfterARestart() throws IOException {
+		String legacyPath = user.getId() + "/scan.jpg";
+		String thumbnailPath = user.getId() + "/scan.thumb.0123456789abcdef.jpg";
+		store(legacyPath, "page");
+		store(thumbnailPath, "thumb");
+		JournalPage page = savePage(legacyPath, thumbnailPath);
+
+		migration(new ClusterLock(schedulerLockRepository, 60_000)).migrateBatch();
+
+		JournalPage migrated = journalPageRepository.findById(page.getId()).orElseThrow();
+		assertThat(migrated.getImagePath()).matches(user.getId() + "/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}\\.jpg");
+		assertThat(migrated.getThumbnailPath()).isEqualTo(
+				migrated.getImagePath().replace(".jpg", "") + ".thumb.0123456789abcdef.jpg");
+		assertThat(storage.resolve(migrated.getImagePath())).hasContent("page");
+		assertThat(storage.resolve(migrated.getThumbnailPath())).hasContent("thumb");
+		// Still there during the grace period, and due for deletion in the database
+		assertThat(storage.resolve(legacyPath)).exists();
+		assertThat(pendingFileDeleteRepository.findAll()).extracting(PendingFileDelete::getRelativePath)
+				.containsExactlyInAnyOrder(legacyPath, thumbnailPath);
+
+		// A fresh instance, as after a restart: the pending deletes come from the database
+		makeDeletesDue();
+		migration(new ClusterLock(schedulerLockRepository, 60_000)).migrateBatch();
+
+		assertThat(storage.resolve(legacyPath)).doesNotExist();
+		assertThat(storage.resolve(thumbnailPath)).doesNotExist();
+		assertThat(storage.resolve(migrated.getImagePath())).exists();
+		assertThat(pendingFileDeleteRepository.count()).isZero();
+	}
+
+	@Test
+	void fileStillReferencedIsKeptWhenItsDeleteComesDue() throws IOException {
+		// As after a crash between scheduling the delete and switching the page
+		String legacyPath = user.getId() + "/scan.jpg";
+		store(legacyPath, "page");
+		savePage(legacyPath, null);
+		pendingFileDeleteRepository.save(PendingFileDelete.builder()
+				.relativePath(legacyPath)
+				.deleteAt(LocalDateTime.now().minusMinutes(1))
+				.build());
+		ImageLayoutMigration migration = migration(new ClusterLock(schedulerLockRepository, 60_000));
+
+		migration.migrateBatch();
+
+		// The stale delete is dropped and the file migrated again, with a new delete of its own
+		assertThat(storage.resolve(legacyPath)).exists();
+		assertThat(journalPageRepository.existsByImagePath(legacyPath)).isFalse();
+		assertThat(pendingFileDeleteRepository.findAll()).singleElement()
+				.satisfies(pending -> assertThat(pending.getDeleteAt()).isAfter(LocalDateTime.now()));
+	}
+
+	@Test
+	void doesNothingWhileAnotherNodeRunsTheMigration() throws IOException {
+		String legacyPath = user.getId() + "/scan.jpg";
+		store(legacyPath, "page");
+		JournalPage page = savePage(legacyPath, null);
+		ClusterLock.Lease otherNode = new ClusterLock(schedulerLockRepository, 60_000)
+				.tryAcquire("image-layout-migration").orElseThrow();
+
+		migration(new ClusterLock(schedulerLockRepository, 60_000)).migrateBatch();
+
+		assertThat(journalPageRepository.findById(page.getId()).orElseThrow().getImagePath()).isEqualTo(legacyPath);
+		assertThat(imageBlobRepository.count()).isZero();
+
+		otherNode.close();
+		migration(new ClusterLock(schedulerLockRepository, 60_000)).migrateBatch();
+
+		assertThat(journalPageRepository.findById(page.getId()).orElseThrow().getImagePath()).isNotEqualTo(legacyPath);
+	}
+
+	private ImageLayoutMigration migration(ClusterLock clusterLock) {
+		return new ImageLayoutMigration(journalPageRepository, pendingFileDeleteRepository, fileStorageService,
+				clusterLock, true, 100, 600_000, new SimpleMeterRegistry());
+	}
+
+	private void makeDeletesDue() {
+		for (PendingFileDelete pending : pendingFileDeleteRepository.findAll()) {
+			pending.setDeleteAt(LocalDateTime.now().minusSeconds(1));
+			pendingFileDeleteRepository.save(pending);
+		}
+	}
+
+	private JournalPage savePage(String imagePath, String thumbnailPath) {
+		return journalPageRepository.save(JournalPage.builder()
+				.user(user)
+				.imagePath(imagePath)
+				.originalFilename("scan.jpg")
+				.thumbnailPath(thumbnailPath)
+				.build());
+	}
+
+	private void store(String relativePath, String content) throws IOException {
+		Path file = storage.resolve(relativePath);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, content);
+	}
+}
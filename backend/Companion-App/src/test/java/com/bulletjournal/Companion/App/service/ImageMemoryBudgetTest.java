@@ -0,0 +1,162 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * A 1 MB budget; pages waiting for memory run on their own threads
+ */
+class ImageMemoryBudgetTest {
+
+	private static final long KB = 1024;
+	private static final long MB = 1024 * KB;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ExecutorService pages = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void stopPages() {
+		pages.shutdownNow();
+	}
+
+	@Test
+	void releasesTheReservationOnClose() throws IOException {
+		ImageMemoryBudget budget = budget(60_000);
+
+		try (ImageMemoryBudget.Reservation reservation = budget.reserve(300 * KB)) {
+			assertThat(budget.getReservedBytes()).isEqualTo(300 * KB);
+			reservation.extendTo(500 * KB);
+			assertThat(budget.getReservedBytes()).isEqualTo(500 * KB);
+			assertThat(meterRegistry.get("ocr.memory.utilization").gauge().value()).isEqualTo(500.0 / 1024);
+		}
+
+		assertThat(budget.getReservedBytes()).isZero();
+	}
+
+	@Test
+	void waitsWhileTheBudgetIsExhausted() throws IOException {
+		ImageMemoryBudget budget = budget(60_000);
+		ImageMemoryBudget.Reservation holder = budget.reserve(MB);
+
+		CompletableFuture<ImageMemoryBudget.Reservation> waiting = reserveAsync(budget, 100 * KB, null, "waiting");
+		awaitWaiting(1);
+		assertStillWaiting(waiting);
+
+		holder.close();
+		await().atMost(Duration.ofSeconds(5)).until(waiting::isDone);
+		assertThat(budget.getReservedBytes()).isEqualTo(100 * KB);
+		assertThat(waitingPages()).isZero();
+	}
+
+	@Test
+	void givesUpAfterTheAcquireTimeout() throws IOException {
+		ImageMemoryBudget budget = budget(100);
+		budget.reserve(900 * KB);
+
+		assertThatThrownBy(() -> budget.reserve(200 * KB))
+				.isInstanceOf(IOException.class)
+				.hasMessageContaining("Timed out after 100 ms")
+				.hasMessageContaining("900 KB in use");
+		assertThat(meterRegistry.counter("ocr.memory.timeouts").count()).isEqualTo(1);
+		assertThat(budget.getReservedBytes()).isEqualTo(900 * KB);
+	}
+
+	@Test
+	void servesWaitingPagesInArrivalOrder() throws IOException {
+		ImageMemoryBudget budget = budget(60_000);
+		ImageMemoryBudget.Reservation first = budget.reserve(MB / 2);
+		ImageMemoryBudget.Reservation second = budget.reserve(MB / 2);
+		List<String> served = new CopyOnWriteArrayList<>();
+
+		CompletableFuture<ImageMemoryBudget.Reservation> large = reserveAsync(budget, MB, served, "large");
+		awaitWaiting(1);
+
+		// Half the budget is free: enough for a small page arriving now, but the large one is first in line
+		first.close();
+		CompletableFuture<ImageMemoryBudget.Reservation> small = reserveAsync(budget, KB, served, "small");
+		awaitWaiting(2);
+		assertStillWaiting(small);
+
+		second.close();
+		await().atMost(Duration.ofSeconds(5)).until(large::isDone);
+		assertStillWaiting(small);
+
+		large.join().close();
+		await().atMost(Duration.ofSeconds(5)).until(small::isDone);
+		assertThat(served).containsExactly("large", "small");
+	}
+
+	@Test
+	void runsAPageLargerThanTheWholeBudgetOnItsOwn() throws IOException {
+		ImageMemoryBudget budget = budget(100);
+
+		try (ImageMemoryBudget.Reservation ignored = budget.reserve(5 * MB)) {
+			assertThat(budget.getReservedBytes()).isEqualTo(MB);
+		}
+		assertThat(budget.getReservedBytes()).isZero();
+	}
+
+	@Test
+	void extendsOverBudgetWithoutWaiting() throws IOException {
+		ImageMemoryBudget budget = budget(60_000);
+		ImageMemoryBudget.Reservation other = budget.reserve(800 * KB);
+
+		ImageMemoryBudget.Reservation page = budget.reserve(100 * KB);
+		page.extendTo(400 * KB); // 300 KB more, only 124 KB free
+
+		assertThat(meterRegistry.counter("ocr.memory.overcommits").count()).isEqualTo(1);
+		assertThat(budget.getReservedBytes()).isEqualTo(900 * KB);
+		page.extendTo(350 * KB); // Already covered by the overcommit
+		assertThat(meterRegistry.counter("ocr.memory.overcommits").count()).isEqualTo(1);
+
+		// Only what was actually reserved goes back
+		page.close();
+		assertThat(budget.getReservedBytes()).isEqualTo(800 * KB);
+		other.close();
+		assertThat(budget.getReservedBytes()).isZero();
+	}
+
+	private ImageMemoryBudget budget(long acquireTimeoutMs) {
+		return new ImageMemoryBudget(1, acquireTimeoutMs, meterRegistry);
+	}
+
+	private CompletableFuture<ImageMemoryBudget.Reservation> reserveAsync(ImageMemoryBudget budget, long bytes,
+			List<String> served, String name) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				ImageMemoryBudget.Reservation reservation = budget.reserve(bytes);
+				if (served != null) {
+					served.add(name);
+				}
+				return reservation;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}, pages);
+	}
+
+	private void awaitWaiting(int waiting) {
+		await().atMost(Duration.ofSeconds(5)).until(() -> waitingPages() == waiting);
+	}
+
+	private void assertStillWaiting(CompletableFuture<?> page) {
+		await().during(Duration.ofMillis(200)).atMost(Duration.ofSeconds(1)).until(() -> !page.isDone());
+	}
+
+	private int waitingPages() {
+		return (int) meterRegistry.get("ocr.memory.waiting").gauge().value();
+	}
+}
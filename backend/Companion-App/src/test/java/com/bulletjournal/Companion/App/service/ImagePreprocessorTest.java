@@ -0,0 +1,155 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.service.ImagePreprocessor.Binarization;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The adaptive modes use per-stripe summed-area tables; these tests compare them pixel by pixel
+ * with a brute-force window mean and standard deviation
+ */
+class ImagePreprocessorTest {
+
+	private static final double SAUVOLA_K = 0.34;
+	private static final double BRADLEY_SENSITIVITY = 0.15;
+
+	private ImagePreprocessor preprocessor;
+
+	@AfterEach
+	void shutdown() {
+		if (preprocessor != null) {
+			preprocessor.shutdown();
+		}
+	}
+
+	@Test
+	void sauvolaMatchesBruteForceAcrossStripes() {
+		// 200 rows on 2 threads split into 25-row stripes; a width that is not a multiple of 8
+		preprocessor = new ImagePreprocessor(2, "FIXED", 15, SAUVOLA_K, BRADLEY_SENSITIVITY);
+		BufferedImage page = unevenPage(77, 200, 1);
+
+		assertMatchesBruteForce(page, Binarization.SAUVOLA, 15, 1);
+	}
+
+	@Test
+	void bradleyMatchesBruteForceAcrossStripes() {
+		preprocessor = new ImagePreprocessor(2, "FIXED", 15, SAUVOLA_K, BRADLEY_SENSITIVITY);
+		BufferedImage page = unevenPage(77, 200, 2);
+
+		assertMatchesBruteForce(page, Binarization.BRADLEY, 15, 1);
+	}
+
+	@Test
+	void windowsCoverEdgesOfImagesSmallerThanTheWindow() {
+		preprocessor = new ImagePreprocessor(3, "FIXED", 31, SAUVOLA_K, BRADLEY_SENSITIVITY);
+		BufferedImage page = unevenPage(20, 9, 3);
+
+		assertMatchesBruteForce(page, Binarization.SAUVOLA, 31, 1);
+		assertMatchesBruteForce(page, Binarization.BRADLEY, 31, 1);
+	}
+
+	@Test
+	void largestWindowStaysExactWhenTableEntriesOverflow() {
+		// Sum-of-squares entries of a 400x400 stripe exceed 2^31; only the window sums have to fit
+		preprocessor = new ImagePreprocessor(1, "FIXED", 181, SAUVOLA_K, BRADLEY_SENSITIVITY);
+		BufferedImage page = unevenPage(400, 400, 4);
+
+		assertMatchesBruteForce(page, Binarization.SAUVOLA, 181, 7);
+	}
+
+	@Test
+	void otsuSplitsABimodalPage() {
+		preprocessor = new ImagePreprocessor(2, "FIXED", 0, SAUVOLA_K, BRADLEY_SENSITIVITY);
+		BufferedImage page = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) page.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = (byte) ((i / 64) % 8 == 0 ? 60 + i % 11 : 190 + i % 13);
+		}
+
+		BufferedImage binary = preprocessor.binarize(page, Binarization.OTSU);
+
+		for (int y = 0; y < 64; y++) {
+			for (int x = 0; x < 64; x++) {
+				assertThat(binary.getRaster().getSample(x, y, 0)).as("(%d, %d)", x, y).isEqualTo(y % 8 == 0 ? 0 : 1);
+			}
+		}
+	}
+
+	@Test
+	void otsuThresholdLiesBetweenTheModes() {
+		int[] histogram = new int[256];
+		histogram[40] = 300;
+		histogram[45] = 200;
+		histogram[200] = 1000;
+		histogram[210] = 500;
+
+		int threshold = ImagePreprocessor.otsuThreshold(histogram);
+
+		assertThat(threshold).isBetween(45, 199);
+	}
+
+	private void assertMatchesBruteForce(BufferedImage page, Binarization mode, int window, int step) {
+		BufferedImage binary = preprocessor.binarize(page, mode);
+		int width = page.getWidth();
+		int height = page.getHeight();
+		int radius = window / 2;
+		for (int y = 0; y < height; y++) {
+			boolean edgeRow = y < radius || y >= height - radius;
+			for (int x = 0; x < width; x++) {
+				if (!edgeRow && (x + y) % step != 0 && x != 0 && x != width - 1) {
+					continue;
+				}
+				long sum = 0;
+				long sumSq = 0;
+				int count = 0;
+				for (int wy = Math.max(0, y - radius); wy < Math.min(height, y + radius + 1); wy++) {
+					for (int wx = Math.max(0, x - radius); wx < Math.min(width, x + radius + 1); wx++) {
+						int value = luma(page, wx, wy);
+						sum += value;
+						sumSq += (long) value * value;
+						count++;
+					}
+				}
+				int value = luma(page, x, y);
+				boolean ink;
+				if (mode == Binarization.SAUVOLA) {
+					double mean = (double) sum / count;
+					double variance = Math.max(0, (double) sumSq / count - mean * mean);
+					ink = value <= mean * (1 + SAUVOLA_K * (Math.sqrt(variance) / 128.0 - 1));
+				} else {
+					ink = (double) value * count <= sum * (1.0 - BRADLEY_SENSITIVITY);
+				}
+				assertThat(binary.getRaster().getSample(x, y, 0)).as("%s at (%d, %d)", mode, x, y).isEqualTo(ink ? 0 : 1);
+			}
+		}
+	}
+
+	private static int luma(BufferedImage gray, int x, int y) {
+		return gray.getRaster().getSample(x, y, 0);
+	}
+
+	/**
+	 * Paper with a lighting gradient, strokes and heavy noise, so many pixels sit close to their
+	 * local threshold and any error in a window sum flips some of them
+	 */
+	private static BufferedImage unevenPage(int width, int height, long seed) {
+		Random random = new Random(seed);
+		BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) page.getRaster().getDataBuffer()).getData();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int paper = 120 + 120 * x / width;
+				boolean stroke = (x * 7 + y * 3) % 23 < 3;
+				int value = (stroke ? paper / 3 : paper) + random.nextInt(121) - 60;
+				pixels[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+			}
+		}
+		return page;
+	}
+}
@@ -0,0 +1,151 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.dto.ScanResponse;
+import com.bulletjournal.Companion.App.model.JournalPage;
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.JournalPageLayoutRepository;
+import com.bulletjournal.Companion.App.repository.JournalPageRepository;
+import com.bulletjournal.Companion.App.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JournalPageServiceTest {
+
+	private static final String IMAGE_PATH = "7/3f/2a/3f2a9c1e.jpg";
+	private static final String TEXT = "- Buy milk\no Dentist at 3";
+
+	@Autowired
+	private JournalPageRepository journalPageRepository;
+
+	@Autowired
+	private JournalPageLayoutRepository journalPageLayoutRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private final FileStorageService fileStorageService = mock(FileStorageService.class);
+	private final OcrEngine ocrEngine = mock(OcrEngine.class);
+	private final ContentExtractionService contentExtractionService = mock(ContentExtractionService.class);
+	private final PageDerivativeService derivativeService = mock(PageDerivativeService.class);
+	private JournalPageService journalPageService;
+	private User user;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(fileStorageService.getFilePath(IMAGE_PATH)).thenReturn(Path.of(IMAGE_PATH));
+		when(ocrEngine.isOcrAvailable()).thenReturn(true);
+		OcrLayout layout = new OcrLayout(600, 200, List.of(
+				new OcrLayout.Line(List.of(new OcrLayout.Word(10, 10, 120, 30, 91, "- Buy milk"))),
+				new OcrLayout.Line(List.of(new OcrLayout.Word(10, 60, 180, 30, 88, "o Dentist at 3")))));
+		when(ocrEngine.recognize(any(File.class), eq(IMAGE_PATH), anyInt(), any())).thenReturn(new OcrResult(TEXT, 90, layout));
+
+		journalPageService = new JournalPageService(journalPageRepository, journalPageLayoutRepository, userRepository,
+				fileStorageService, ocrEngine, contentExtractionService, mock(PasswordEncoder.class),
+				derivativeService, new TransactionTemplate(transactionManager));
+		user = userRepository.save(User.builder()
+				.email("reader@example.com")
+				.password("secret")
+				.firstName("Jo")
+				.lastName("Reader")
+				.enabled(true)
+				.build());
+	}
+
+	@AfterEach
+	void clear() {
+		journalPageLayoutRepository.deleteAll();
+		journalPageRepository.deleteAll();
+		userRepository.deleteAll();
+	}
+
+	@Test
+	void savesThePageItsLayoutAndItsContentAfterOcr() {
+		when(contentExtractionService.extractAndSaveContent(eq(TEXT), any(JournalPage.class), any(User.class)))
+				.thenReturn(new ContentExtractionService.ExtractionResult(1, 1, 0, 0));
+
+		ScanResponse response = scan();
+
+		assertThat(response.getJournalPageId()).isNotNull();
+		assertThat(response.getMessage()).contains("Extracted: 1 tasks, 1 events");
+		assertThat(journalPageRepository.findById(response.getJournalPageId()))
+				.hasValueSatisfying(page -> assertThat(page.getExtractedText()).isEqualTo(TEXT));
+		assertThat(journalPageLayoutRepository.findById(response.getJournalPageId())).isPresent();
+	}
+
+	@Test
+	void savesNothingWhenContentExtractionFails() {
+		when(contentExtractionService.extractAndSaveContent(anyString(), any(JournalPage.class), any(User.class)))
+				.thenThrow(new IllegalStateException("Unparseable date"));
+
+		assertThatThrownBy(this::scan).hasMessageContaining("Unparseable date");
+
+		assertThat(journalPageRepository.count()).isZero();
+		assertThat(journalPageLayoutRepository.count()).isZero();
+	}
+
+	@Test
+	void generatesAMissingThumbnailInTheBackgroundOnce() throws Exception {
+		JournalPage page = journalPageRepository.save(JournalPage.builder()
+				.user(user).imagePath(IMAGE_PATH).originalFilename("page.jpg").pageNumber(1).build());
+		when(fileStorageService.fileExists(IMAGE_PATH)).thenReturn(true);
+		CompletableFuture<PageDerivativeService.Derivatives> generation = new CompletableFuture<>();
+		when(derivativeService.generateInBackground(IMAGE_PATH, null)).thenReturn(generation);
+
+		assertThat(journalPageService.getDerivative(page.getId(), user.getId(), PageDerivativeService.Kind.THUMBNAIL)).isEmpty();
+		assertThat(journalPageService.getDerivative(page.getId(), user.getId(), PageDerivativeService.Kind.PREVIEW)).isEmpty();
+		verify(derivativeService, times(1)).generateInBackground(IMAGE_PATH, null);
+		verify(derivativeService, never()).generate(any(), any());
+
+		String thumbnailPath = "7/3f/2a/3f2a9c1e.thumb.9b1c4e07.jpg";
+		generation.complete(new PageDerivativeService.Derivatives(thumbnailPath, "7/3f/2a/3f2a9c1e.preview.5d0e7a21.jpg"));
+		when(fileStorageService.fileExists(thumbnailPath)).thenReturn(true);
+		when(fileStorageService.getFilePath(thumbnailPath)).thenReturn(Path.of(thumbnailPath));
+
+		assertThat(journalPageService.getDerivative(page.getId(), user.getId(), PageDerivativeService.Kind.THUMBNAIL))
+				.contains(Path.of(thumbnailPath));
+	}
+
+	@Test
+	void answersNotFoundForAThumbnailOfAMissingImage() {
+		JournalPage page = journalPageRepository.save(JournalPage.builder()
+				.user(user).imagePath(IMAGE_PATH).originalFilename("page.jpg").pageNumber(1).build());
+
+		assertThatThrownBy(() -> journalPageService.getDerivative(page.getId(), user.getId(), PageDerivativeService.Kind.THUMBNAIL))
+				.hasMessage("Journal page has no image");
+		verify(derivativeService, never()).generateInBackground(any(), any());
+	}
+
+	private ScanResponse scan() {
+		return journalPageService.processStoredPage(user.getId(), IMAGE_PATH, "page.jpg", 1, null, null, OcrOptions.defaults());
+	}
+}
@@ -0,0 +1,113 @@
+package com.bulletjournal.Companion.App.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LocalBlobStoreTest {
+
+	/**
+	 * Keys whose order differs between a plain directory walk and String order: "-" and "." sort
+	 * before "/", digits after it, upper case before lower case
+	 */
+	static final List<String> AWKWARD_KEYS = List.of(
+			"7/a.jpg",
+			"7/a/b.jpg",
+			"7/a-b.jpg",
+			"7/a0.jpg",
+			"7/A.jpg",
+			"7/a.p1.thumb.0123456789abcdef.jpg",
+			"7/3f/2a/3f2a.jpg",
+			"70/x.jpg",
+			"7-old/x.jpg",
+			"quarantine/2026-01-01/7/a.jpg",
+			"upload-1.tmp");
+
+	@TempDir
+	private Path storage;
+
+	private LocalBlobStore blobStore;
+
+	@BeforeEach
+	void setUp() {
+		blobStore = new LocalBlobStore(storage.toString());
+	}
+
+	@Test
+	void listsKeysInStringOrder() throws IOException {
+		store(AWKWARD_KEYS);
+
+		assertThat(keys("")).isEqualTo(AWKWARD_KEYS.stream().sorted().collect(Collectors.toList()));
+	}
+
+	@Test
+	void listsOnlyKeysStartingWithThePrefix() throws IOException {
+		store(AWKWARD_KEYS);
+
+		assertThat(keys("7/a")).containsExactly(
+				"7/a-b.jpg", "7/a.jpg", "7/a.p1.thumb.0123456789abcdef.jpg", "7/a/b.jpg", "7/a0.jpg");
+		assertThat(keys("7/")).hasSize(7).allMatch(key -> key.startsWith("7/"));
+		assertThat(keys("quarantine/")).containsExactly("quarantine/2026-01-01/7/a.jpg");
+		assertThat(keys("8/")).isEmpty();
+	}
+
+	@Test
+	void reportsSizeAndModificationTime() throws IOException {
+		store(List.of("7/a.jpg"));
+
+		try (Stream<BlobStore.StoredBlob> blobs = blobStore.list("")) {
+			assertThat(blobs).singleElement().satisfies(blob -> {
+				assertThat(blob.getSizeBytes()).isEqualTo("7/a.jpg".length());
+				assertThat(blob.getLastModified()).isEqualTo(Files.getLastModifiedTime(storage.resolve("7/a.jpg")).toInstant());
+			});
+		}
+	}
+
+	@Test
+	void storesCopiesAndDeletes() throws Exception {
+		Path temp = blobStore.createTempFile();
+		Files.writeString(temp, "page");
+
+		blobStore.put("7/a.jpg", temp).get();
+		blobStore.copy("7/a.jpg", "quarantine/2026-01-01/7/a.jpg");
+
+		assertThat(temp).doesNotExist();
+		assertThat(blobStore.localPath("7/a.jpg")).hasContent("page");
+		assertThat(blobStore.localPath("quarantine/2026-01-01/7/a.jpg")).hasContent("page");
+		assertThat(blobStore.delete("7/a.jpg")).isTrue();
+		assertThat(blobStore.delete("7/a.jpg")).isFalse();
+		assertThat(blobStore.exists("7/a.jpg")).isFalse();
+		assertThatThrownBy(() -> blobStore.localPath("7/a.jpg")).isInstanceOf(NoSuchFileException.class);
+		assertThat(blobStore.exists("quarantine/2026-01-01/7/a.jpg")).isTrue();
+	}
+
+	@Test
+	void rejectsKeysOutsideTheStorage() {
+		assertThatThrownBy(() -> blobStore.exists("../etc/passwd")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private List<String> keys(String prefix) throws IOException {
+		try (Stream<BlobStore.StoredBlob> blobs = blobStore.list(prefix)) {
+			return blobs.map(BlobStore.StoredBlob::getKey).collect(Collectors.toList());
+		}
+	}
+
+	private void store(List<String> keys) throws IOException {
+		for (String key : keys) {
+			Path file = storage.resolve(key);
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, key);
+		}
+	}
+}
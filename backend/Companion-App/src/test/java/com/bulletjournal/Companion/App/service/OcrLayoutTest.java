@@ -0,0 +1,164 @@
+package com.bulletjournal.Companion.App.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class OcrLayoutTest {
+
+	private static final String TSV = String.join("\n",
+			"level\tpage_num\tblock_num\tpar_num\tline_num\tword_num\tleft\ttop\twidth\theight\tconf\ttext",
+			"1\t1\t0\t0\t0\t0\t0\t0\t1200\t1600\t-1\t",
+			"4\t1\t1\t1\t1\t0\t40\t50\t300\t30\t-1\t",
+			"5\t1\t1\t1\t1\t1\t40\t50\t120\t30\t91.5\tBuy",
+			"5\t1\t1\t1\t1\t2\t170\t52\t170\t28\t88\tgroceries",
+			"5\t1\t1\t1\t2\t1\t40\t100\t90\t31\t-1\tcafé",
+			"5\t1\t1\t1\t2\t2\t140\t99\tabc\t31\t70\tmalformed",
+			"5\t1\t1\t1\t2\t3\t240\t99\t60\t31\t70\t   ",
+			"5\t1\t2\t1\t1\t1\t600\t40\t80\t29\t65\t→ later");
+
+	@Test
+	void parsesWordsIntoLinesFromTesseractTsv() {
+		OcrLayout layout = OcrLayout.fromTsv(TSV, 1200, 1600);
+
+		assertThat(layout.getLines()).extracting(OcrLayout.Line::getText)
+				.containsExactly("Buy groceries", "café", "→ later");
+		OcrLayout.Word buy = layout.getLines().get(0).getWords().get(0);
+		assertThat(List.of(buy.getLeft(), buy.getTop(), buy.getWidth(), buy.getHeight(), buy.getConfidence()))
+				.containsExactly(40, 50, 120, 30, 92);
+		assertThat(layout.getLines().get(1).getWords().get(0).getConfidence()).isEqualTo(-1);
+		assertThat(layout.getWordCount()).isEqualTo(4);
+		assertThat(layout.toText()).isEqualTo("Buy groceries\ncafé\n→ later");
+	}
+
+	@Test
+	void roundTripsAParsedPage() {
+		OcrLayout layout = OcrLayout.fromTsv(TSV, 1200, 1600);
+
+		assertSameLayout(OcrLayout.decode(layout.encode()), layout);
+	}
+
+	@Test
+	void roundTripsAnEmptyLayout() {
+		OcrLayout layout = OcrLayout.empty(0, 0);
+
+		OcrLayout decoded = OcrLayout.decode(layout.encode());
+
+		assertSameLayout(decoded, layout);
+		assertThat(decoded.toText()).isEmpty();
+		assertThat(OcrLayout.decode(new OcrLayout(800, 600, List.of(new OcrLayout.Line(List.of()))).encode())
+				.getLines()).hasSize(1);
+	}
+
+	@Test
+	void roundTripsLargeCoordinatesAndExtremeDeltas() {
+		OcrLayout layout = new OcrLayout(Integer.MAX_VALUE, 70_000, List.of(
+				new OcrLayout.Line(List.of(
+						word(Integer.MAX_VALUE - 5, 65_000, 5, 900, 100, "edge"),
+						word(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, "whole"))),
+				new OcrLayout.Line(List.of(
+						word(Integer.MIN_VALUE, -3, 1, 1, -1, "below"),
+						word(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0, 42, "")))));
+
+		assertSameLayout(OcrLayout.decode(layout.encode()), layout);
+	}
+
+	@Test
+	void roundTripsNegativeDeltasAfterTranslate() {
+		// Bands are OCR'd separately and moved back into page coordinates, so a later line can lie above an earlier one
+		OcrLayout band = new OcrLayout(1000, 300, List.of(
+				new OcrLayout.Line(List.of(word(500, 200, 80, 30, 90, "late"), word(20, 210, 60, 30, 80, "left"))),
+				new OcrLayout.Line(List.of(word(10, 5, 60, 30, 75, "up")))));
+
+		OcrLayout page = band.translate(1_500, 4_000);
+		OcrLayout raised = band.translate(-100, 4_000);
+
+		assertThat(page.getHeight()).isEqualTo(4_000);
+		assertThat(page.getLines().get(1).getWords().get(0).getTop()).isEqualTo(1_505);
+		assertThat(raised.getLines().get(1).getWords().get(0).getTop()).isEqualTo(-95);
+		assertSameLayout(OcrLayout.decode(page.encode()), page);
+		assertSameLayout(OcrLayout.decode(raised.encode()), raised);
+	}
+
+	@Test
+	void rejectsBytesThatAreNotALayout() {
+		assertThatThrownBy(() -> OcrLayout.decode(new byte[0])).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> OcrLayout.decode("PNG".getBytes())).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> OcrLayout.decode(new byte[] {'L', 'Y', 9}))
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessageContaining("version");
+	}
+
+	@Test
+	void rejectsEveryTruncationCleanly() {
+		byte[] encoded = OcrLayout.fromTsv(TSV, 1200, 1600).encode();
+
+		for (int length = 0; length < encoded.length; length++) {
+			byte[] truncated = Arrays.copyOf(encoded, length);
+			assertThatThrownBy(() -> OcrLayout.decode(truncated))
+					.as("truncated to %d of %d bytes", length, encoded.length)
+					.isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	@Test
+	void rejectsTrailingBytes() {
+		byte[] encoded = OcrLayout.fromTsv(TSV, 1200, 1600).encode();
+
+		assertThatThrownBy(() -> OcrLayout.decode(Arrays.copyOf(encoded, encoded.length + 1)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void rejectsCountsLargerThanTheInputWithoutAllocatingForThem() {
+		// Header, width 1, height 1, then a line count of 2^31 - 1
+		byte[] hugeLineCount = {'L', 'Y', 1, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+		// One line claiming 10^6 words
+		byte[] hugeWordCount = {'L', 'Y', 1, 1, 1, 1, (byte) 0xC0, (byte) 0x84, 0x3D};
+		// A varint that never ends
+		byte[] endlessVarint = {'L', 'Y', 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80};
+
+		assertThatThrownBy(() -> OcrLayout.decode(hugeLineCount)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> OcrLayout.decode(hugeWordCount)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> OcrLayout.decode(endlessVarint)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void corruptBytesDecodeOrFailWithIllegalArgument() {
+		byte[] encoded = OcrLayout.fromTsv(TSV, 1200, 1600).encode();
+		Random random = new Random(14);
+
+		for (int i = 0; i < 2_000; i++) {
+			byte[] corrupt = encoded.clone();
+			for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+				corrupt[3 + random.nextInt(corrupt.length - 3)] = (byte) random.nextInt(256);
+			}
+			Throwable failure = catchThrowable(() -> OcrLayout.decode(corrupt));
+			assertThat(failure).as("corrupt layout %s", Arrays.toString(corrupt))
+					.satisfiesAnyOf(
+							thrown -> assertThat(thrown).isNull(),
+							thrown -> assertThat(thrown).isInstanceOf(IllegalArgumentException.class));
+		}
+	}
+
+	private static OcrLayout.Word word(int left, int top, int width, int height, int confidence, String text) {
+		return new OcrLayout.Word(left, top, width, height, confidence, text);
+	}
+
+	private static void assertSameLayout(OcrLayout actual, OcrLayout expected) {
+		assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+		assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+		assertThat(actual.getLines()).hasSameSizeAs(expected.getLines());
+		for (int i = 0; i < expected.getLines().size(); i++) {
+			assertThat(actual.getLines().get(i).getWords())
+					.usingRecursiveFieldByFieldElementComparator()
+					.containsExactlyElementsOf(expected.getLines().get(i).getWords());
+		}
+	}
+}
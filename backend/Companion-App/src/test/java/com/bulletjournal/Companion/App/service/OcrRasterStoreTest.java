@@ -0,0 +1,119 @@
+package com.bulletjournal.Companion.App.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class OcrRasterStoreTest {
+
+	private static final String IMAGE_PATH = "7/3f/2a/3f2a9c1e.jpg";
+	private static final String FINGERPRINT = "osd=false;dpi=300;sauvola:k=0.34,w=31";
+
+	@TempDir
+	private Path storage;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ListAppender<ILoggingEvent> logged = new ListAppender<>();
+	private FileStorageService fileStorageService;
+	private OcrRasterStore rasterStore;
+
+	@BeforeEach
+	void setUp() {
+		fileStorageService = new FileStorageService(mock(ImageBlobRepository.class), new LocalBlobStore(storage.toString()));
+		rasterStore = new OcrRasterStore(fileStorageService, true, meterRegistry);
+		logged.start();
+		((Logger) LoggerFactory.getLogger(OcrRasterStore.class)).addAppender(logged);
+	}
+
+	@AfterEach
+	void detachAppender() {
+		((Logger) LoggerFactory.getLogger(OcrRasterStore.class)).detachAppender(logged);
+	}
+
+	@Test
+	void missesQuietlyWhenNoRasterIsStored() {
+		assertThat(rasterStore.load(IMAGE_PATH, 0, FINGERPRINT)).isEmpty();
+
+		assertThat(meterRegistry.counter("ocr.raster.misses").count()).isEqualTo(1);
+		assertThat(meterRegistry.counter("ocr.raster.hits").count()).isZero();
+		assertThat(logged.list).noneMatch(event -> event.getLevel().isGreaterOrEqual(Level.WARN));
+	}
+
+	@Test
+	void loadsTheStoredRasterBitForBit() {
+		// 61 columns leave 3 unused bits at the end of each packed row
+		BufferedImage binary = randomBinary(61, 40, 1);
+
+		rasterStore.store(IMAGE_PATH, 1, FINGERPRINT, binary);
+		Optional<BufferedImage> loaded = rasterStore.load(IMAGE_PATH, 1, FINGERPRINT);
+
+		assertThat(loaded).isPresent();
+		BufferedImage raster = loaded.get();
+		assertThat(raster.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+		assertThat(raster.getWidth()).isEqualTo(61);
+		assertThat(raster.getHeight()).isEqualTo(40);
+		assertThat(packed(raster)).isEqualTo(packed(binary));
+		assertThat(meterRegistry.counter("ocr.raster.hits").count()).isEqualTo(1);
+	}
+
+	@Test
+	void keepsRastersApartByPageAndSettings() {
+		rasterStore.store(IMAGE_PATH, 0, FINGERPRINT, randomBinary(64, 16, 2));
+
+		assertThat(rasterStore.load(IMAGE_PATH, 1, FINGERPRINT)).isEmpty();
+		assertThat(rasterStore.load(IMAGE_PATH, 0, FINGERPRINT + ";deskew")).isEmpty();
+		assertThat(rasterStore.load(IMAGE_PATH, 0, FINGERPRINT)).isPresent();
+	}
+
+	@Test
+	void warnsAboutAStoredRasterThatDoesNotDecode() throws Exception {
+		rasterStore.store(IMAGE_PATH, 0, FINGERPRINT, randomBinary(64, 16, 3));
+		Path tiff;
+		try (Stream<BlobStore.StoredBlob> files = fileStorageService.listFiles("7/")) {
+			tiff = fileStorageService.getFilePath(files.map(BlobStore.StoredBlob::getKey).findFirst().orElseThrow());
+		}
+		Files.write(tiff, "not a tiff".getBytes(StandardCharsets.US_ASCII));
+
+		assertThat(rasterStore.load(IMAGE_PATH, 0, FINGERPRINT)).isEmpty();
+
+		assertThat(meterRegistry.counter("ocr.raster.misses").count()).isEqualTo(1);
+		assertThat(logged.list).anyMatch(event -> event.getLevel() == Level.WARN);
+	}
+
+	private static BufferedImage randomBinary(int width, int height, long seed) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+		Random random = new Random(seed);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (random.nextInt(3) == 0) {
+					image.setRGB(x, y, 0xFFFFFFFF);
+				}
+			}
+		}
+		return image;
+	}
+
+	private static byte[] packed(BufferedImage image) {
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -0,0 +1,159 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OcrResultCacheTest {
+
+	private static final String IMAGE_SHA256 = "3f2a9c1e" + "0".repeat(56);
+	private static final String FINGERPRINT = "pipeline=5;version=1;binarization=SAUVOLA;orientation=true;language=eng;lines=true;page=0";
+
+	@TempDir
+	private Path cacheDir;
+
+	private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void composesTheKeyFromTheImageDigestAndTheConfiguration() {
+		OcrResultCache cache = cache(16);
+
+		String key = cache.keyFor(IMAGE_SHA256, FINGERPRINT);
+
+		assertThat(key).startsWith(IMAGE_SHA256 + "-").hasSize(64 + 1 + 16);
+		assertThat(cache.keyFor(IMAGE_SHA256, FINGERPRINT)).isEqualTo(key);
+		assertThat(cache.keyFor(IMAGE_SHA256, FINGERPRINT.replace("page=0", "page=1"))).isNotEqualTo(key);
+		assertThat(cache.keyFor("0".repeat(64), FINGERPRINT)).isNotEqualTo(key);
+	}
+
+	@Test
+	void digestsFilesLikeTheStoredUploadNames() throws Exception {
+		byte[] bytes = "not really a JPEG".getBytes(StandardCharsets.UTF_8);
+		Path image = Files.write(cacheDir.resolve("upload.jpg"), bytes);
+
+		String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+		assertThat(OcrResultCache.imageDigest(image)).isEqualTo(expected);
+		assertThat(FileStorageService.contentHash(Path.of("7", expected.substring(0, 2), expected + ".jpg"))).isEqualTo(expected);
+	}
+
+	@Test
+	void returnsWhatWasPut() {
+		OcrResultCache cache = cache(16);
+		String key = cache.keyFor(IMAGE_SHA256, FINGERPRINT);
+		assertThat(cache.get(key)).isEmpty();
+
+		cache.put(key, result("Buy milk", 1024));
+		Optional<OcrResultCache.CachedResult> cached = cache.get(key);
+
+		assertThat(cached).isPresent();
+		assertThat(cached.get().getText()).isEqualTo("Buy milk");
+		assertThat(cached.get().getConfidence()).isEqualTo(87);
+		assertThat(cached.get().getLayout()).hasSize(1024);
+		assertThat(meterRegistry.counter("ocr.cache.hits").count()).isEqualTo(1);
+		assertThat(meterRegistry.counter("ocr.cache.misses").count()).isEqualTo(1);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyReadEntries() throws IOException {
+		// Layouts are base64 in the JSON, so three of 300 KB overflow a 1 MB cache
+		OcrResultCache cache = cache(1);
+		String first = cache.keyFor(IMAGE_SHA256, FINGERPRINT + ";first");
+		String second = cache.keyFor(IMAGE_SHA256, FINGERPRINT + ";second");
+		String third = cache.keyFor(IMAGE_SHA256, FINGERPRINT + ";third");
+		cache.put(first, result("first", 300 * 1024));
+		cache.put(second, result("second", 300 * 1024));
+		age(first, Duration.ofMinutes(2));
+		age(second, Duration.ofMinutes(1));
+
+		assertThat(cache.get(first)).isPresent(); // Now the most recently used
+		cache.put(third, result("third", 300 * 1024));
+
+		assertThat(Files.exists(entry(second))).isFalse();
+		assertThat(cache.get(first)).isPresent();
+		assertThat(cache.get(third)).isPresent();
+		assertThat(meterRegistry.get("ocr.cache.size.bytes").gauge().value())
+				.isEqualTo((double) (Files.size(entry(first)) + Files.size(entry(third))));
+	}
+
+	@Test
+	void discardsACorruptEntry() throws IOException {
+		OcrResultCache cache = cache(16);
+		String key = cache.keyFor(IMAGE_SHA256, FINGERPRINT);
+		cache.put(key, result("Buy milk", 16));
+		// Same length, so the size accounting still matches the file
+		byte[] garbage = new byte[(int) Files.size(entry(key))];
+		Arrays.fill(garbage, (byte) '{');
+		Files.write(entry(key), garbage);
+
+		assertThat(cache.get(key)).isEmpty();
+		assertThat(Files.exists(entry(key))).isFalse();
+		assertThat(meterRegistry.get("ocr.cache.size.bytes").gauge().value()).isZero();
+		assertThat(meterRegistry.counter("ocr.cache.misses").count()).isEqualTo(1);
+
+		cache.put(key, result("Buy milk", 16));
+		assertThat(cache.get(key)).map(OcrResultCache.CachedResult::getText).contains("Buy milk");
+	}
+
+	@Test
+	void countsEntriesLeftByAnEarlierRun() {
+		OcrResultCache earlier = cache(16);
+		String key = earlier.keyFor(IMAGE_SHA256, FINGERPRINT);
+		earlier.put(key, result("Buy milk", 4096));
+		double size = meterRegistry.get("ocr.cache.size.bytes").gauge().value();
+
+		SimpleMeterRegistry restarted = new SimpleMeterRegistry();
+		new OcrResultCache(objectMapper, true, cacheDir.toString(), 16, restarted);
+
+		assertThat(size).isPositive();
+		assertThat(restarted.get("ocr.cache.size.bytes").gauge().value()).isEqualTo(size);
+	}
+
+	@Test
+	void doesNothingWhenDisabled() throws IOException {
+		OcrResultCache cache = new OcrResultCache(objectMapper, false, cacheDir.toString(), 16, meterRegistry);
+		String key = cache.keyFor(IMAGE_SHA256, FINGERPRINT);
+
+		cache.put(key, result("Buy milk", 16));
+
+		assertThat(cache.get(key)).isEmpty();
+		try (var files = Files.list(cacheDir)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	private OcrResultCache cache(long maxSizeMb) {
+		return new OcrResultCache(objectMapper, true, cacheDir.toString(), maxSizeMb, meterRegistry);
+	}
+
+	private Path entry(String key) {
+		return cacheDir.resolve(key.substring(0, 2)).resolve(key + ".json");
+	}
+
+	private void age(String key, Duration age) throws IOException {
+		Files.setLastModifiedTime(entry(key), FileTime.from(Instant.now().minus(age)));
+	}
+
+	private static OcrResultCache.CachedResult result(String text, int layoutBytes) {
+		byte[] layout = new byte[layoutBytes];
+		new Random(layoutBytes).nextBytes(layout);
+		return new OcrResultCache.CachedResult(text, 87, 6, Instant.now(), layout);
+	}
+}
@@ -0,0 +1,107 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.sourceforge.tess4j.TesseractException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The pool is a mock that hands out engines most recently returned first, like the real one
+ */
+class OcrWarmupTest {
+
+	private static final int POOL_SIZE = 4;
+
+	private final TesseractEnginePool enginePool = mock(TesseractEnginePool.class);
+	private final OcrHealthMonitor healthMonitor = mock(OcrHealthMonitor.class);
+	private final Deque<PooledTesseract> idle = new ConcurrentLinkedDeque<>();
+	private final List<PooledTesseract> engines = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() throws TesseractException {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			PooledTesseract engine = mock(PooledTesseract.class);
+			when(engine.recognize(any(BufferedImage.class), anyInt(), any()))
+					.thenReturn(new PooledTesseract.Recognition(6, "Call the dentist at 10am", 92, null));
+			engines.add(engine);
+			idle.add(engine);
+		}
+		when(enginePool.getSize()).thenReturn(POOL_SIZE);
+		when(enginePool.checkout()).thenAnswer(invocation -> {
+			PooledTesseract engine = idle.pollFirst();
+			if (engine == null) {
+				throw new TesseractException("No OCR engine became available");
+			}
+			return engine;
+		});
+		doAnswer(invocation -> idle.offerFirst(invocation.getArgument(0))).when(enginePool).checkin(any());
+	}
+
+	@Test
+	void warmsEveryEngineOnceBeforeReportingReady() throws TesseractException {
+		OcrWarmup warmup = warmup();
+
+		warmup.start();
+		await().atMost(Duration.ofSeconds(10)).until(warmup::isDone);
+
+		assertThat(warmup.health().getDetails()).containsEntry("state", "READY").containsEntry("warmEngines", POOL_SIZE);
+		for (PooledTesseract engine : engines) {
+			verify(engine).ensureInitialized();
+			verify(engine).recognize(any(BufferedImage.class), anyInt(), any());
+			verify(enginePool).checkin(engine);
+		}
+		assertThat(idle).containsExactlyInAnyOrderElementsOf(engines);
+	}
+
+	@Test
+	void replacesAnEngineWhoseModelsFailToLoad() {
+		PooledTesseract broken = engines.get(2);
+		doAnswer(invocation -> {
+			throw new UnsatisfiedLinkError("libtesseract.so: cannot open shared object file");
+		}).when(broken).ensureInitialized();
+		OcrWarmup warmup = warmup();
+
+		warmup.start();
+		await().atMost(Duration.ofSeconds(10)).until(warmup::isDone);
+
+		assertThat(warmup.health().getDetails()).containsEntry("state", "READY").containsEntry("warmEngines", POOL_SIZE - 1);
+		verify(enginePool).invalidate(broken);
+		verify(enginePool, never()).checkin(broken);
+		verify(healthMonitor).recordFailure(any(UnsatisfiedLinkError.class));
+		verify(healthMonitor, times(POOL_SIZE - 1)).recordSuccess();
+	}
+
+	@Test
+	void warmsTheEnginesItGetsWhenAScanHoldsOne() {
+		PooledTesseract busy = idle.pollFirst();
+		OcrWarmup warmup = warmup();
+
+		warmup.start();
+		await().atMost(Duration.ofSeconds(10)).until(warmup::isDone);
+
+		assertThat(warmup.health().getDetails()).containsEntry("state", "READY").containsEntry("warmEngines", POOL_SIZE - 1);
+		verify(busy, never()).ensureInitialized();
+	}
+
+	private OcrWarmup warmup() {
+		return new OcrWarmup(enginePool, healthMonitor, true, 10_000, new SimpleMeterRegistry());
+	}
+}
@@ -0,0 +1,249 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.model.ImageBlob;
+import com.bulletjournal.Companion.App.model.JournalPage;
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import com.bulletjournal.Companion.App.repository.JournalPageRepository;
+import com.bulletjournal.Companion.App.repository.SchedulerLockRepository;
+import com.bulletjournal.Companion.App.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrphanFileReclaimerTest {
+
+	private static final long GRACE_MS = Duration.ofHours(1).toMillis();
+	private static final String SHA = "3f2a9c1e" + "0".repeat(56);
+
+	@Autowired
+	private JournalPageRepository journalPageRepository;
+	@Autowired
+	private ImageBlobRepository imageBlobRepository;
+	@Autowired
+	private SchedulerLockRepository schedulerLockRepository;
+	@Autowired
+	private UserRepository userRepository;
+
+	@TempDir
+	private Path storage;
+
+	private FileStorageService fileStorageService;
+	private User user;
+	private String original;
+
+	@BeforeEach
+	void setUp() {
+		fileStorageService = new FileStorageService(imageBlobRepository, new LocalBlobStore(storage.toString()));
+		user = userRepository.save(User.builder()
+				.email("reclaim@example.com")
+				.password("secret")
+				.firstName("Ada")
+				.lastName("Lovelace")
+				.enabled(true)
+				.build());
+		original = FileStorageService.blobPath(user.getId(), SHA, "jpg");
+	}
+
+	@AfterEach
+	void clear() {
+		journalPageRepository.deleteAll();
+		userRepository.deleteAll();
+		imageBlobRepository.deleteAll();
+		schedulerLockRepository.deleteAll();
+	}
+
+	@Test
+	void derivativesShareTheBaseOfTheirOriginal() {
+		assertThat(OrphanFileReclaimer.baseOf("7/3f/2a/" + SHA + ".jpg")).isEqualTo("7/3f/2a/" + SHA);
+		assertThat(OrphanFileReclaimer.baseOf("7/3f/2a/" + SHA + ".p1.thumb.9c1e0a.jpg")).isEqualTo("7/3f/2a/" + SHA);
+		assertThat(OrphanFileReclaimer.baseOf("7/3f/2a/" + SHA + ".p2.ocr.5d0c9a7e41b2f386.tif")).isEqualTo("7/3f/2a/" + SHA);
+		assertThat(OrphanFileReclaimer.baseOf("7/scan")).isEqualTo("7/scan");
+		// Dots in directory names are not part of the file name
+		assertThat(OrphanFileReclaimer.baseOf("7/v1.2/scan.jpg")).isEqualTo("7/v1.2/scan");
+
+		assertThat(OrphanFileReclaimer.userPrefix("7/3f/2a/" + SHA + ".jpg")).isEqualTo("7/");
+		assertThat(OrphanFileReclaimer.userPrefix("1234/scan.jpg")).isEqualTo("1234/");
+		assertThat(OrphanFileReclaimer.userPrefix("upload-123.tmp")).isNull();
+		assertThat(OrphanFileReclaimer.userPrefix("quarantine/2026-01-01/7/scan.jpg")).isNull();
+		assertThat(OrphanFileReclaimer.userPrefix("/7/scan.jpg")).isNull();
+		assertThat(OrphanFileReclaimer.userPrefix("7a/scan.jpg")).isNull();
+	}
+
+	@Test
+	void keepsThePagesFilesAndQuarantinesTheRest() throws IOException {
+		String thumbnail = original.replace(".jpg", ".p1.thumb.0123456789abcdef.jpg");
+		String orphan = FileStorageService.blobPath(user.getId(), "9" + SHA.substring(1), "jpg");
+		storeOld(original);
+		storeOld(thumbnail);
+		storeOld(orphan);
+		savePage(original);
+
+		reclaimer("quarantine").reclaim();
+
+		assertThat(storage.resolve(original)).exists();
+		assertThat(storage.resolve(thumbnail)).exists();
+		assertThat(storage.resolve(orphan)).doesNotExist();
+		assertThat(storage.resolve(quarantined(LocalDate.now(), orphan))).hasContent(orphan);
+	}
+
+	@Test
+	void leavesFilesYoungerThanTheGracePeriod() throws IOException {
+		String recent = FileStorageService.blobPath(user.getId(), SHA, "png");
+		store(recent, Instant.now().minusMillis(GRACE_MS / 2));
+		storeOld(original);
+
+		reclaimer("delete").reclaim();
+
+		assertThat(storage.resolve(recent)).exists();
+		assertThat(storage.resolve(original)).doesNotExist();
+	}
+
+	@Test
+	void keepsAFileAnUploadWasDeduplicatedOntoRecently() throws IOException {
+		storeOld(original);
+		ImageBlob blob = registerBlob(original);
+		// Not used by any page yet, but uploaded again within the grace period
+		imageBlobRepository.markStored(blob.getId(), LocalDateTime.now());
+
+		reclaimer("delete").reclaim();
+
+		assertThat(storage.resolve(original)).exists();
+		assertThat(imageBlobRepository.findByRelativePath(original)).isPresent();
+	}
+
+	@Test
+	void deletesTheManifestRowOfAReclaimedFile() throws IOException {
+		storeOld(original);
+		imageBlobRepository.markStored(registerBlob(original).getId(), LocalDateTime.now().minusDays(2));
+
+		reclaimer("delete").reclaim();
+
+		assertThat(storage.resolve(original)).doesNotExist();
+		assertThat(imageBlobRepository.findByRelativePath(original)).isEmpty();
+		assertThat(storage.resolve(quarantined(LocalDate.now(), original))).doesNotExist();
+	}
+
+	@Test
+	void restoresAFileAnUploadClaimsWhileItIsReclaimed() throws IOException {
+		storeOld(original);
+		ImageBlob blob = registerBlob(original);
+		imageBlobRepository.markStored(blob.getId(), LocalDateTime.now().minusDays(2));
+		// storeFile deduplicating onto the file after isInUse looked at it, as its row is being deleted
+		fileStorageService = new FileStorageService(imageBlobRepository, new LocalBlobStore(storage.toString())) {
+			@Override
+			public void deleteFile(String relativePath) throws IOException {
+				super.deleteFile(relativePath);
+				if (relativePath.equals(original)) {
+					imageBlobRepository.markStored(blob.getId(), LocalDateTime.now());
+				}
+			}
+		};
+
+		reclaimer("delete").reclaim();
+
+		assertThat(storage.resolve(original)).hasContent(original);
+		assertThat(imageBlobRepository.findByRelativePath(original)).isPresent();
+		assertThat(storage.resolve(quarantined(LocalDate.now(), original))).doesNotExist();
+	}
+
+	@Test
+	void purgesQuarantineByDate() throws IOException {
+		String expired = quarantined(LocalDate.now().minusDays(8), original);
+		String kept = quarantined(LocalDate.now().minusDays(6), original);
+		String foreign = "quarantine/manual/" + original;
+		storeOld(expired);
+		storeOld(kept);
+		storeOld(foreign);
+
+		reclaimer("quarantine").reclaim();
+
+		assertThat(storage.resolve(expired)).doesNotExist();
+		assertThat(storage.resolve(kept)).exists();
+		assertThat(storage.resolve(foreign)).exists();
+	}
+
+	@Test
+	void deletesTopLevelTempFilesOnly() throws IOException {
+		storeOld("upload-4711.tmp");
+		storeOld("README.txt");
+
+		reclaimer("quarantine").reclaim();
+
+		// Staging leftovers are deleted outright, never quarantined
+		assertThat(storage.resolve("upload-4711.tmp")).doesNotExist();
+		assertThat(storage.resolve(quarantined(LocalDate.now(), "upload-4711.tmp"))).doesNotExist();
+		assertThat(storage.resolve("README.txt")).exists();
+	}
+
+	@Test
+	void doesNothingWhileAnotherNodeReclaims() throws IOException {
+		storeOld(original);
+		ClusterLock.Lease otherNode = new ClusterLock(schedulerLockRepository, 60_000)
+				.tryAcquire("orphan-file-reclaimer").orElseThrow();
+
+		reclaimer("delete").reclaim();
+		assertThat(storage.resolve(original)).exists();
+
+		otherNode.close();
+		reclaimer("delete").reclaim();
+		assertThat(storage.resolve(original)).doesNotExist();
+	}
+
+	private OrphanFileReclaimer reclaimer(String mode) {
+		return new OrphanFileReclaimer(journalPageRepository, imageBlobRepository, fileStorageService,
+				new ClusterLock(schedulerLockRepository, 60_000), true, GRACE_MS, mode, 7, 0, 1000,
+				new SimpleMeterRegistry());
+	}
+
+	private static String quarantined(LocalDate day, String key) {
+		return "quarantine/" + day + "/" + key;
+	}
+
+	private ImageBlob registerBlob(String relativePath) {
+		return imageBlobRepository.save(ImageBlob.builder()
+				.userId(user.getId())
+				.sha256(SHA)
+				.relativePath(relativePath)
+				.sizeBytes(1L)
+				.build());
+	}
+
+	private void savePage(String imagePath) {
+		journalPageRepository.save(JournalPage.builder()
+				.user(user)
+				.imagePath(imagePath)
+				.originalFilename("scan.jpg")
+				.build());
+	}
+
+	private void storeOld(String relativePath) throws IOException {
+		store(relativePath, Instant.now().minus(Duration.ofDays(2)));
+	}
+
+	private void store(String relativePath, Instant modified) throws IOException {
+		Path file = storage.resolve(relativePath);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, relativePath);
+		Files.setLastModifiedTime(file, FileTime.from(modified));
+	}
+}
@@ -0,0 +1,257 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.config.BlobStoreConfig;
+import com.bulletjournal.Companion.App.repository.ImageBlobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * S3BlobStore against a real object store (MinIO), with the client built as BlobStoreConfig builds it;
+ * skipped where Docker is not available
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class S3BlobStoreTest {
+
+	@Container
+	private static final MinIOContainer MINIO = new MinIOContainer("minio/minio:RELEASE.2023-09-04T19-57-37Z");
+
+	// Lowest threshold and part size S3 allows, so a 12 MB file goes up in three parts
+	private static final long MULTIPART_MB = 5;
+	// One more than a ListObjectsV2 page
+	private static final int MANY_KEYS = 1_005;
+
+	@TempDir
+	private Path cache;
+	@TempDir
+	private Path localStorage;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private String bucket;
+	private S3AsyncClient client;
+	private S3BlobStore blobStore;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		bucket = "journal-" + UUID.randomUUID().toString().substring(0, 8);
+		client = BlobStoreConfig.s3Client(MINIO.getS3URL(), "us-east-1", MINIO.getUserName(), MINIO.getPassword(),
+				true, MULTIPART_MB, MULTIPART_MB);
+		client.createBucket(request -> request.bucket(bucket)).join();
+		blobStore = new S3BlobStore(client, bucket, cache.toString(), 64, meterRegistry);
+	}
+
+	@AfterEach
+	void closeStore() {
+		blobStore.close();
+	}
+
+	@Test
+	void putsASmallFileInOneRequest() throws Exception {
+		byte[] content = "page".getBytes(StandardCharsets.UTF_8);
+		Path temp = blobStore.createTempFile();
+		Files.write(temp, content);
+
+		blobStore.put("7/a.jpg", temp).get();
+
+		assertThat(temp).doesNotExist();
+		assertThat(stored("7/a.jpg")).isEqualTo(content);
+		assertThat(head("7/a.jpg").eTag()).doesNotContain("-");
+		assertThat(blobStore.exists("7/a.jpg")).isTrue();
+	}
+
+	@Test
+	void putsALargeFileAsMultipartUpload() throws Exception {
+		byte[] content = new byte[12 * 1024 * 1024];
+		new Random(1).nextBytes(content);
+		Path temp = blobStore.createTempFile();
+		Files.write(temp, content);
+
+		blobStore.put("7/scan.pdf", temp).get();
+
+		// A multipart object's ETag ends with the number of parts
+		HeadObjectResponse head = head("7/scan.pdf");
+		assertThat(head.eTag()).endsWith("-3\"");
+		assertThat(head.contentLength()).isEqualTo(content.length);
+		assertThat(stored("7/scan.pdf")).isEqualTo(content);
+	}
+
+	@Test
+	void readsThroughTheLocalCache() throws Exception {
+		// Written by another node: only in the bucket
+		putDirectly("7/a.jpg");
+		assertThat(cache.resolve("7/a.jpg")).doesNotExist();
+
+		Path first = blobStore.localPath("7/a.jpg");
+		Path second = blobStore.localPath("7/a.jpg");
+
+		assertThat(first).isEqualTo(second).isEqualTo(cache.resolve("7/a.jpg")).hasContent("7/a.jpg");
+		assertThat(meterRegistry.counter("journal.storage.cache.misses").count()).isEqualTo(1);
+		assertThat(meterRegistry.counter("journal.storage.cache.hits").count()).isEqualTo(1);
+		assertThat(meterRegistry.get("journal.storage.cache.size.bytes").gauge().value()).isEqualTo("7/a.jpg".length());
+		assertThatThrownBy(() -> blobStore.localPath("7/missing.jpg")).isInstanceOf(NoSuchFileException.class);
+	}
+
+	@Test
+	void servesItsOwnWritesFromTheCache() throws Exception {
+		Path temp = blobStore.createTempFile();
+		Files.writeString(temp, "page");
+		blobStore.put("7/a.jpg", temp).get();
+
+		assertThat(blobStore.localPath("7/a.jpg")).hasContent("page");
+		assertThat(meterRegistry.counter("journal.storage.cache.hits").count()).isEqualTo(1);
+		assertThat(meterRegistry.counter("journal.storage.cache.misses").count()).isZero();
+	}
+
+	@Test
+	void listsKeysInOrderAcrossPages() throws IOException {
+		List<String> keys = new ArrayList<>(LocalBlobStoreTest.AWKWARD_KEYS);
+		for (int i = 0; i < MANY_KEYS; i++) {
+			keys.add(String.format("9/%02x/page-%d.jpg", i % 256, i));
+		}
+		putDirectly(keys.toArray(String[]::new));
+
+		List<String> listed = keys("");
+
+		assertThat(listed).hasSize(keys.size()).isEqualTo(keys.stream().sorted().collect(Collectors.toList()));
+		assertThat(keys("9/")).hasSize(MANY_KEYS).allMatch(key -> key.startsWith("9/"));
+		assertThat(keys("7/a")).containsExactly(
+				"7/a-b.jpg", "7/a.jpg", "7/a.p1.thumb.0123456789abcdef.jpg", "7/a/b.jpg", "7/a0.jpg");
+		try (Stream<BlobStore.StoredBlob> blobs = blobStore.list("70/")) {
+			assertThat(blobs).singleElement().satisfies(blob -> {
+				assertThat(blob.getSizeBytes()).isEqualTo("70/x.jpg".length());
+				assertThat(blob.getLastModified()).isNotNull();
+			});
+		}
+	}
+
+	@Test
+	void listsInTheSameOrderAsLocalStorage() throws IOException {
+		List<String> keys = LocalBlobStoreTest.AWKWARD_KEYS;
+		putDirectly(keys.toArray(String[]::new));
+		for (String key : keys) {
+			Path file = localStorage.resolve(key);
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, key);
+		}
+		LocalBlobStore localBlobStore = new LocalBlobStore(localStorage.toString());
+
+		// The orphan reclaimer walks storage against the pages in key order, whichever store is configured
+		for (String prefix : List.of("", "7/", "7/a", "quarantine/")) {
+			try (Stream<BlobStore.StoredBlob> local = localBlobStore.list(prefix)) {
+				assertThat(keys(prefix)).isEqualTo(local.map(BlobStore.StoredBlob::getKey).collect(Collectors.toList()));
+			}
+		}
+	}
+
+	@Test
+	void copiesAndDeletesInTheBucket() throws Exception {
+		putDirectly("7/a.jpg", "quarantine/2026-01-01/7/b.jpg");
+		blobStore.localPath("7/a.jpg"); // Cached
+
+		blobStore.copy("7/a.jpg", "quarantine/2026-01-01/7/a.jpg");
+		// An existing target is left as it is
+		blobStore.copy("7/a.jpg", "quarantine/2026-01-01/7/b.jpg");
+
+		assertThat(new String(stored("quarantine/2026-01-01/7/a.jpg"), StandardCharsets.UTF_8)).isEqualTo("7/a.jpg");
+		assertThat(new String(stored("quarantine/2026-01-01/7/b.jpg"), StandardCharsets.UTF_8))
+				.isEqualTo("quarantine/2026-01-01/7/b.jpg");
+		assertThatThrownBy(() -> blobStore.copy("7/missing.jpg", "7/other.jpg")).isInstanceOf(NoSuchFileException.class);
+
+		assertThat(blobStore.delete("7/a.jpg")).isTrue();
+		assertThat(blobStore.delete("7/a.jpg")).isFalse();
+		assertThat(blobStore.exists("7/a.jpg")).isFalse();
+		assertThat(cache.resolve("7/a.jpg")).doesNotExist();
+		assertThatThrownBy(() -> blobStore.localPath("7/a.jpg")).isInstanceOf(NoSuchFileException.class);
+		assertThat(blobStore.exists("quarantine/2026-01-01/7/a.jpg")).isTrue();
+	}
+
+	@Test
+	void storesAnUploadAgainThatAnotherNodeDeletedBehindTheCache() throws Exception {
+		ImageBlobRepository imageBlobRepository = mock(ImageBlobRepository.class);
+		when(imageBlobRepository.findByUserIdAndSha256(anyLong(), anyString())).thenReturn(Optional.empty());
+		FileStorageService fileStorageService = new FileStorageService(imageBlobRepository, blobStore);
+		ReflectionTestUtils.setField(fileStorageService, "allowedExtensions", "jpg,png");
+		byte[] content = "page".getBytes(StandardCharsets.UTF_8);
+		MockMultipartFile upload = new MockMultipartFile("file", "scan.jpg", "image/jpeg", content);
+
+		String path = fileStorageService.storeFile(upload, 7L).getRelativePath();
+		assertThat(blobStore.localPath(path)).hasContent("page");
+		// The orphan reclaimer on another node removes the object (and its manifest row)
+		client.deleteObject(request -> request.bucket(bucket).key(path)).join();
+
+		assertThat(cache.resolve(path)).exists();
+		assertThat(blobStore.exists(path)).isFalse();
+		FileStorageService.StoredFile again = fileStorageService.storeFile(upload, 7L);
+
+		assertThat(again.getRelativePath()).isEqualTo(path);
+		assertThat(again.isCreated()).isTrue();
+		assertThat(stored(path)).isEqualTo(content);
+	}
+
+	@Test
+	void reportsADeleteFromTheBucketNotTheCache() throws Exception {
+		Path temp = blobStore.createTempFile();
+		Files.writeString(temp, "page");
+		blobStore.put("7/a.jpg", temp).get();
+		client.deleteObject(request -> request.bucket(bucket).key("7/a.jpg")).join();
+
+		assertThat(blobStore.delete("7/a.jpg")).isFalse();
+		assertThat(cache.resolve("7/a.jpg")).doesNotExist();
+	}
+
+	private List<String> keys(String prefix) {
+		try (Stream<BlobStore.StoredBlob> blobs = blobStore.list(prefix)) {
+			return blobs.map(BlobStore.StoredBlob::getKey).collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Objects written by another node, each holding its own key
+	 */
+	private void putDirectly(String... keys) {
+		CompletableFuture.allOf(Stream.of(keys)
+				.map(key -> client.putObject(request -> request.bucket(bucket).key(key), AsyncRequestBody.fromString(key)))
+				.toArray(CompletableFuture<?>[]::new)).join();
+	}
+
+	private byte[] stored(String key) {
+		return client.getObject(request -> request.bucket(bucket).key(key), AsyncResponseTransformer.toBytes())
+				.join().asByteArray();
+	}
+
+	private HeadObjectResponse head(String key) {
+		return client.headObject(request -> request.bucket(bucket).key(key)).join();
+	}
+}
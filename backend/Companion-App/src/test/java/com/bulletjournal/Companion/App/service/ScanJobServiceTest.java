@@ -0,0 +1,126 @@
+package com.bulletjournal.Companion.App.service;
+
+import com.bulletjournal.Companion.App.dto.ScanJobResponse;
+import com.bulletjournal.Companion.App.dto.ScanRequest;
+import com.bulletjournal.Companion.App.model.User;
+import com.bulletjournal.Companion.App.repository.UserRepository;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ScanJobServiceTest {
+
+	private static final Long USER_ID = 7L;
+
+	@TempDir
+	private Path storage;
+
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final FileStorageService fileStorageService = mock(FileStorageService.class);
+	private final FairScanScheduler scanScheduler = mock(FairScanScheduler.class);
+	private final TesseractEnginePool enginePool = mock(TesseractEnginePool.class);
+	private ScanJobService scanJobService;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		scanJobService = new ScanJobService(userRepository, fileStorageService, mock(JournalPageService.class),
+				new ImageDecoder(16, true, 300), scanScheduler, enginePool, mock(PageDerivativeService.class));
+		ReflectionTestUtils.setField(scanJobService, "maxPdfPages", 5);
+		when(userRepository.findById(USER_ID)).thenReturn(Optional.of(User.builder().id(USER_ID).ocrLanguage("eng").build()));
+		when(enginePool.resolveLanguage(any())).thenReturn("eng");
+		when(fileStorageService.storeFile(any(), eq(USER_ID))).thenAnswer(invocation -> {
+			MultipartFile upload = invocation.getArgument(0);
+			Path stored = Files.write(storage.resolve(upload.getOriginalFilename()), upload.getBytes());
+			return new FileStorageService.StoredFile(stored.getFileName().toString(), "0".repeat(64), true);
+		});
+		when(fileStorageService.getFilePath(any())).thenAnswer(invocation -> storage.resolve((String) invocation.getArgument(0)));
+	}
+
+	@Test
+	void refusesAJobWhosePdfPagesDoNotFitTheQueueBeforeStoringAnything() throws IOException {
+		when(scanScheduler.remainingCapacity()).thenReturn(4);
+
+		assertThatThrownBy(() -> scanJobService.submit(USER_ID, request(pdf("notes.pdf", 3), pdf("more.pdf", 2))))
+				.isInstanceOf(TaskRejectedException.class);
+
+		verify(fileStorageService, never()).storeFile(any(), anyLong());
+		verify(scanScheduler, never()).submit(anyLong(), anyInt(), any(), any());
+	}
+
+	@Test
+	void queuesEveryPdfPageWhenTheyFit() throws IOException {
+		when(scanScheduler.remainingCapacity()).thenReturn(5);
+
+		ScanJobResponse job = scanJobService.submit(USER_ID, request(pdf("notes.pdf", 3), pdf("more.pdf", 2)));
+
+		assertThat(job.getTotalPages()).isEqualTo(5);
+		assertThat(job.getFailedPages()).isZero();
+		verify(fileStorageService, times(2)).storeFile(any(), eq(USER_ID));
+		verify(scanScheduler, times(5)).submit(eq(USER_ID), anyInt(), any(), any());
+	}
+
+	@Test
+	void failsATooLongPdfWithoutStoringItOrCountingItsPages() throws IOException {
+		when(scanScheduler.remainingCapacity()).thenReturn(1);
+
+		ScanJobResponse job = scanJobService.submit(USER_ID, request(pdf("long.pdf", 6), pdf("short.pdf", 1)));
+
+		assertThat(job.getTotalPages()).isEqualTo(2);
+		assertThat(job.getFailedPages()).isEqualTo(1);
+		assertThat(job.getPages().get(0).getMessage()).contains("between 1 and 5 pages, found 6");
+		verify(fileStorageService, times(1)).storeFile(any(), eq(USER_ID));
+		verify(scanScheduler, times(1)).submit(eq(USER_ID), anyInt(), any(), any());
+	}
+
+	@Test
+	void failsAnUnreadablePdfWithoutStoringIt() throws IOException {
+		when(scanScheduler.remainingCapacity()).thenReturn(1);
+		MockMultipartFile broken = new MockMultipartFile("image", "broken.pdf", "application/pdf", "%PDF-1.4 truncated".getBytes());
+
+		ScanJobResponse job = scanJobService.submit(USER_ID, request(broken));
+
+		assertThat(job.getFailedPages()).isEqualTo(1);
+		verify(fileStorageService, never()).storeFile(any(), anyLong());
+	}
+
+	private static ScanRequest request(MultipartFile... uploads) {
+		ScanRequest request = new ScanRequest();
+		request.setImage(List.of(uploads));
+		return request;
+	}
+
+	private static MockMultipartFile pdf(String name, int pages) throws IOException {
+		try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+			for (int i = 0; i < pages; i++) {
+				document.addPage(new PDPage());
+			}
+			document.save(out);
+			return new MockMultipartFile("image", name, "application/pdf", out.toByteArray());
+		}
+	}
+}
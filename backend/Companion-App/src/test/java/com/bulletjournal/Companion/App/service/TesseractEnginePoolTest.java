@@ -0,0 +1,151 @@
+package com.bulletjournal.Companion.App.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.sourceforge.tess4j.TesseractException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Engines are never used for OCR here, so no native library or traineddata is loaded
+ */
+class TesseractEnginePoolTest {
+
+	private static final int SIZE = 2;
+
+	@TempDir
+	private Path tessdata;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	// The pool points TESSDATA_PREFIX at its data path
+	private final String tessdataPrefix = System.getProperty("TESSDATA_PREFIX");
+	private TesseractEnginePool enginePool;
+
+	@AfterEach
+	void shutdown() {
+		if (enginePool != null) {
+			enginePool.shutdown();
+		}
+		if (tessdataPrefix == null) {
+			System.clearProperty("TESSDATA_PREFIX");
+		} else {
+			System.setProperty("TESSDATA_PREFIX", tessdataPrefix);
+		}
+	}
+
+	@Test
+	void createsOneEnginePerCoreWhenTheSizeIsZero() throws IOException {
+		TesseractEnginePool pool = pool(0, 600_000, 2);
+
+		assertThat(pool.getSize()).isEqualTo(Runtime.getRuntime().availableProcessors());
+		assertThat(pool.getIdleCount()).isEqualTo(pool.getSize());
+	}
+
+	@Test
+	void handsOutEachEngineOnceAndTimesOutWhenAllAreBusy() throws Exception {
+		TesseractEnginePool pool = pool(SIZE, 600_000, 2);
+
+		PooledTesseract first = pool.checkout();
+		PooledTesseract second = pool.checkout();
+		assertThat(first).isNotSameAs(second);
+		assertThat(pool.getActiveCount()).isEqualTo(SIZE);
+		assertThat(pool.getIdleCount()).isZero();
+
+		assertThatThrownBy(pool::checkout)
+				.isInstanceOf(TesseractException.class)
+				.hasMessageContaining("within 50 ms (pool size 2)");
+		assertThat(meterRegistry.counter("ocr.pool.checkout.timeouts").count()).isEqualTo(1);
+
+		// Most recently returned first
+		pool.checkin(first);
+		assertThat(pool.checkout()).isSameAs(first);
+		assertThat(meterRegistry.counter("ocr.pool.checkouts").count()).isEqualTo(3);
+	}
+
+	@Test
+	void replacesAnEngineThatThrewAnError() throws Exception {
+		TesseractEnginePool pool = pool(SIZE, 600_000, 2);
+		PooledTesseract[] broken = new PooledTesseract[1];
+
+		assertThatThrownBy(() -> pool.execute(engine -> {
+			broken[0] = engine;
+			throw new UnsatisfiedLinkError("libtesseract.so: cannot open shared object file");
+		})).isInstanceOf(UnsatisfiedLinkError.class);
+
+		assertThat(meterRegistry.counter("ocr.pool.invalidations").count()).isEqualTo(1);
+		assertThat(pool.getActiveCount()).isZero();
+		assertThat(pool.getIdleCount()).isEqualTo(SIZE);
+		PooledTesseract first = pool.checkout();
+		PooledTesseract second = pool.checkout();
+		assertThat(first).isNotSameAs(broken[0]);
+		assertThat(second).isNotSameAs(broken[0]);
+	}
+
+	@Test
+	void keepsAnEngineAfterARecoverableFailure() throws Exception {
+		TesseractEnginePool pool = pool(SIZE, 600_000, 2);
+		PooledTesseract[] used = new PooledTesseract[1];
+
+		assertThatThrownBy(() -> pool.execute(engine -> {
+			used[0] = engine;
+			throw new TesseractException("Image too small to scale");
+		})).isInstanceOf(TesseractException.class);
+
+		assertThat(meterRegistry.counter("ocr.pool.invalidations").count()).isZero();
+		assertThat(pool.checkout()).isSameAs(used[0]);
+	}
+
+	@Test
+	void closesIdleLanguagePoolsButKeepsTheDefaultAndBusyOnes() throws Exception {
+		TesseractEnginePool pool = pool(SIZE, 0, 3);
+		pool.checkin(pool.checkout("deu"));
+		PooledTesseract busy = pool.checkout("fra");
+
+		await().atMost(Duration.ofSeconds(5)).until(() -> {
+			pool.evictIdlePools();
+			return meterRegistry.counter("ocr.pool.evictions").count() == 1;
+		});
+
+		assertThat(languages()).isEqualTo(2);
+		assertThat(pool.getIdleCount()).isEqualTo(SIZE + SIZE - 1);
+		pool.checkin(busy);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedIdleLanguageToMakeRoom() throws Exception {
+		TesseractEnginePool pool = pool(SIZE, 600_000, 2);
+		pool.checkin(pool.checkout("deu"));
+
+		PooledTesseract french = pool.checkout("fra");
+		assertThat(meterRegistry.counter("ocr.pool.evictions").count()).isEqualTo(1);
+		assertThat(languages()).isEqualTo(2);
+
+		// The only other pool is busy
+		assertThatThrownBy(() -> pool.checkout("deu"))
+				.isInstanceOf(TesseractException.class)
+				.hasMessageContaining("Too many OCR languages in use at once (limit 2)");
+		pool.checkin(french);
+		assertThat(pool.checkout("deu").getLanguage()).isEqualTo("deu");
+	}
+
+	private TesseractEnginePool pool(int size, long idleEvictionMs, int maxLanguages) throws IOException {
+		for (String code : new String[] {"eng", "deu", "fra"}) {
+			Files.createFile(tessdata.resolve(code + ".traineddata"));
+		}
+		enginePool = new TesseractEnginePool(tessdata.toString(), "eng", size, 50, idleEvictionMs, maxLanguages, meterRegistry);
+		return enginePool;
+	}
+
+	private int languages() {
+		return (int) meterRegistry.get("ocr.pool.languages").gauge().value();
+	}
+}